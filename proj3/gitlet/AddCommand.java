@@ -3,9 +3,16 @@
  */
 package gitlet;
 
+import static gitlet.ReferenceType.HEAD;
+
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author william
@@ -18,24 +25,49 @@ public class AddCommand implements Command {
      */
     @Override
     public void run(Repository repo, String[] args) {
-        String file = args[0];
+        List<String> files = Arrays.asList(args)
+                .subList(WorkingTree.jobsOperands(args), args.length);
         Path workingDir = repo.getWorkingDir();
-        Path filePath = workingDir.resolve(file);
 
-        if (!Files.exists(filePath)) {
-            throw new IllegalArgumentException("File does not exist.");
+        for (String file : files) {
+            Path filePath = workingDir.resolve(file);
+            if (!Files.exists(filePath)) {
+                throw new IllegalArgumentException("File does not exist.");
+            }
+            if (Files.isDirectory(filePath)) {
+                throw new IllegalStateException("Cannot add a directory.");
+            }
         }
-        if (Files.isDirectory(filePath)) {
-            throw new IllegalStateException("Cannot add a directory.");
+
+        Index index = repo.index();
+        GitletObjectManager objects = repo.objects();
+        Commit head = objects.get(Commit.class, repo.refs().resolve(HEAD));
+        Map<String, String> bases = new HashMap<>();
+        for (String file : files) {
+            bases.put(file, Tree.lookup(objects, head.getTree(), file));
         }
+        Map<String, FileStat> fresh = new ConcurrentHashMap<>();
 
-        try {
-            Blob fileBlob = new Blob(Files.readAllBytes(filePath));
+        WorkingTree.FileFunction<String> store = (file, filePath, stat) -> {
+                String hash = index.cachedHash(file, stat);
+                if (hash == null || !objects.contains(Blob.class, hash)) {
+                    hash = objects.putFile(filePath, bases.get(file));
+                    fresh.put(file, stat);
+                }
+                return hash;
+            };
 
-            String blobHash = repo.objects().put(fileBlob);
-            Index index = repo.index();
+        try {
+            Map<String, String> hashes =
+                    new WorkingTree(workingDir, WorkingTree.jobs(args))
+                            .map(files, store);
 
-            index.add(file, blobHash);
+            for (String file : files) {
+                if (fresh.containsKey(file)) {
+                    index.record(file, fresh.get(file), hashes.get(file));
+                }
+                index.add(file, hashes.get(file));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -57,7 +89,8 @@ public class AddCommand implements Command {
      */
     @Override
     public boolean checkOperands(String[] args) {
-        return args.length == 1;
+        int options = WorkingTree.jobsOperands(args);
+        return options >= 0 && args.length > options;
     }
 
 }
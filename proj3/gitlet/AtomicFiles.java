@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces files so that a crash, or another process reading them, sees
+ * either the old contents or the new ones and never a torn write. New
+ * contents are written to a temporary file beside the target, forced to
+ * disk, then renamed over the target in one atomic step, after which the
+ * rename itself is forced to disk with the directory.
+ * @author william
+ */
+public class AtomicFiles {
+
+    /**
+     * The prefix of the temporary files written beside their targets, which
+     * hides them from listings of the stored files.
+     */
+    public static final String TEMP_PREFIX = ".tmp-";
+
+    /**
+     * Creates the temporary file which will replace a target, along with
+     * the directories the target lies in.
+     * @param target
+     *            The file to replace.
+     * @return The temporary file.
+     * @throws IOException
+     *             If the file could not be created.
+     */
+    public static Path temp(Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        return Files.createTempFile(target.getParent(), TEMP_PREFIX, "");
+    }
+
+    /**
+     * Forces a fully written temporary file to disk and renames it over its
+     * target.
+     * @param temp
+     *            The temporary file, whose streams must be closed.
+     * @param target
+     *            The file to replace.
+     * @throws IOException
+     *             If the file could not be replaced, in which case the
+     *             temporary file is deleted and the target is untouched.
+     */
+    public static void commit(Path temp, Path target) throws IOException {
+        try {
+            force(temp, StandardOpenOption.WRITE);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            abort(temp);
+            throw e;
+        }
+        try {
+            force(target.getParent(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Not every platform can force a directory; the rename stands.
+        }
+    }
+
+    /**
+     * Deletes a temporary file which will not replace its target, ignoring
+     * failures.
+     * @param temp
+     *            The temporary file.
+     */
+    public static void abort(Path temp) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Forces the contents and metadata of a file or directory to disk.
+     * @param path
+     *            The file or directory.
+     * @param mode
+     *            The mode in which it can be opened.
+     * @throws IOException
+     *             If it could not be forced.
+     */
+    private static void force(Path path, StandardOpenOption mode)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, mode)) {
+            channel.force(true);
+        }
+    }
+}
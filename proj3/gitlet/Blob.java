@@ -1,26 +1,112 @@
 package gitlet;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * @author william Represents a handle over the contents of a file held in
+ *         the object store. The contents themselves never live on the heap;
+ *         they are streamed from the store when opened or written out.
+ */
 public class Blob extends GitletObject {
 
+    /**
+     * The type name of blobs in their canonical encoding.
+     */
+    public static final String TYPE = "blob";
+
     /**
      * Thbe base serialization UID for the Blob object.
      */
     private static final long serialVersionUID = 4865064372716910861L;
-    private byte[] contents;
 
     /**
-     * Generates a Blob.
-     * @param contents
+     * The store holding the contents.
+     */
+    private transient GitletObjectManager store;
+
+    /**
+     * The SHA-1 of the contents.
+     */
+    private String hash;
+
+    /**
+     * Generates a Blob handle.
+     * @param store
+     *            The store holding the contents.
+     * @param hash
+     *            The SHA-1 of the blob.
+     */
+    Blob(GitletObjectManager store, String hash) {
+        this.store = store;
+        this.hash = hash;
+    }
+
+    /**
+     * Computes the SHA-1 a file would have as a blob without loading it.
+     * @param file
+     *            The file.
+     * @return The SHA-1.
+     * @throws IOException
+     *             If the file could not be read.
+     */
+    public static String hash(Path file) throws IOException {
+        return HashUtils.sha1(TYPE, file);
+    }
+
+    /**
+     * Opens the contents of the blob.
+     * @return A stream over the contents.
+     * @throws IOException
+     *             If the contents could not be read.
+     */
+    public InputStream open() throws IOException {
+        return this.store.openBlob(this.hash);
+    }
+
+    /**
+     * Writes the contents of the blob to a file, replacing it.
+     * @param file
+     *            The file.
+     * @throws IOException
+     *             If the contents could not be written.
+     */
+    public void writeTo(Path file) throws IOException {
+        this.store.checkoutBlob(this.hash, file);
+    }
+
+    /**
+     * Writes the contents of the blob to a stream.
+     * @param out
+     *            The stream.
+     * @throws IOException
+     *             If the contents could not be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        try (InputStream in = this.open()) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    /**
+     * @return the store holding the contents.
      */
-    public Blob(byte[] contents) {
-        this.contents = contents;
+    GitletObjectManager getStore() {
+        return this.store;
     }
 
     /**
-     * @return the contents
+     * The SHA-1 of a blob is known from the moment its contents are stored.
      */
-    public byte[] getContents() {
-        return this.contents;
+    @Override
+    protected String computeSha1() {
+        return this.hash;
     }
 
 }
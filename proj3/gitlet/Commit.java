@@ -3,72 +3,104 @@
  */
 package gitlet;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * @author william Represents a GIT commit/flat tree..
+ * @author william Represents a GIT commit: its parents, its message and the
+ *         tree of its root directory.
  */
-public class Commit extends GitletObject implements Map<String, String> {
+public class Commit extends GitletObject {
+
+    /**
+     * The type name of commits in their canonical encoding.
+     */
+    public static final String TYPE = "commit";
 
     /**
      * The serial version ID for the commit class.
      */
-    private static final long serialVersionUID = 7879186830461498380L;
+    private static final long serialVersionUID = -2318843613962315874L;
 
-    /** the parent. */
-    private String parent;
+    /** all of the parents, the first parent first. */
+    private ArrayList<String> parents;
     /** the message. */
     private String message;
     /** the date. */
     private LocalDateTime date;
-    /** The hash map of filename-sha1. */
-    private HashMap<String, String> blobs;
+    /** The hash of the root tree. */
+    private String tree;
 
     /**
-     * Creates a commit with a set of blobs.
+     * Creates a commit of a tree.
      * @param messages
      *            The commti message.
      * @param datee
      *            The date time.
      * @param parentt
      *            The parent commit.
-     * @param blobs
-     *            The blobs involved in the commit.
+     * @param tree
+     *            The hash of the root tree.
      */
     public Commit(String messages, LocalDateTime datee, String parentt,
-            HashMap<String, String> blobs) {
+            String tree) {
+        this(messages, datee, parentt.isEmpty()
+                ? Collections.emptyList()
+                : Collections.singletonList(parentt), tree);
+    }
+
+    /**
+     * Creates a commit with any number of parents, the first being the
+     * commit it was made on top of.
+     * @param messages
+     *            The commti message.
+     * @param datee
+     *            The date time.
+     * @param parentss
+     *            The parent commits.
+     * @param tree
+     *            The hash of the root tree.
+     */
+    public Commit(String messages, LocalDateTime datee,
+            List<String> parentss, String tree) {
         if (messages == null || messages.isEmpty() || messages.equals("")) {
             throw new IllegalArgumentException(
                     "Please enter a commit message.");
         }
-        this.parent = parentt;
+        this.parents = new ArrayList<>(parentss);
         this.message = messages;
         this.date = datee;
-        this.blobs = blobs;
+        this.tree = tree;
     }
 
     /**
-     * Creates an initial commit.
-     * @param message
-     *            The initial message.
-     * @param currentDate
-     *            The date.
+     * @return the first parent, or the empty string if there is none
      */
-    public Commit(String message, LocalDateTime currentDate) {
-        this(message, currentDate, "", new HashMap<String, String>());
+    public String getParent() {
+        return this.parents.isEmpty() ? "" : this.parents.get(0);
     }
 
     /**
-     * @return the parent
+     * @return all of the parents, the first parent first
      */
-    public String getParent() {
-        return this.parent;
+    public List<String> getParents() {
+        return Collections.unmodifiableList(this.parents);
+    }
+
+    /**
+     * Cuts the commit off from its parents, which a shallow store lacks. The
+     * copy keeps the hash of the commit.
+     * @return A copy of the commit without parents.
+     */
+    Commit graft() {
+        Commit grafted = new Commit(this.message, this.date,
+                Collections.emptyList(), this.tree);
+        grafted.cacheSha1(this.sha1());
+        return grafted;
     }
 
     /**
@@ -86,129 +118,48 @@ public class Commit extends GitletObject implements Map<String, String> {
     }
 
     /**
-     * @return the blobs filename-sha1
+     * @return the hash of the root tree
      */
-    public HashMap<String, String> getBlobs() {
-        return this.blobs;
+    public String getTree() {
+        return this.tree;
     }
 
     /**
-     * Gets the toString of the commit.
+     * Encodes the commit canonically: a tree line, a line per parent and a
+     * date line, then a blank line and the message.
+     * @return The canonical encoding.
      */
-    @Override
-    public String toString() {
-        DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-        String dateStr = this.date.format(formatter).replace('T', ' ');
-        int nanoIndex = dateStr.indexOf('.');
-        return "===\n" + "Commit " + this.sha1() + "\n"
-                + dateStr.substring(0, nanoIndex) + "\n" + this.message + "\n";
-    }
-
-    /**
-     * Determines the size of the blobs.
-     */
-    @Override
-    public int size() {
-        return this.blobs.size();
-    }
-
-    /**
-     * Determines if a commit is empty.
-     */
-    @Override
-    public boolean isEmpty() {
-        return this.blobs.isEmpty();
-    }
-
-    /**
-     * Determines if the commit references a file.
-     */
-    @Override
-    public boolean containsKey(Object fileName) {
-        return this.blobs.containsKey(fileName);
-    }
-
-    /**
-     * Determines if the commti contains a blob hash.
-     */
-    @Override
-    public boolean containsValue(Object hash) {
-        return this.blobs.containsValue(hash);
-    }
-
-    /**
-     * Gets a blob hash from a file name.
-     */
-    @Override
-    public String get(Object fileName) {
-        return this.blobs.get(fileName);
-    }
-
-    /**
-     * Puts an element in the blob set.
-     */
-    @Override
-    public String put(String fileName, String hash) {
-        return this.blobs.put(fileName, hash);
-    }
-
-    /**
-     * Removes an element from the blob set.
-     */
-    @Override
-    public String remove(Object fileName) {
-        return this.blobs.remove(fileName);
-    }
-
-    /**
-     * Puts a bunch of blobs in the commit.
-     */
-    @Override
-    public void putAll(Map<? extends String, ? extends String> m) {
-        this.blobs.putAll(m);
-
-    }
-
-    /**
-     * Clears the blobs.
-     */
-    @Override
-    public void clear() {
-        this.blobs.clear();
-    }
-
-    /**
-     * Gets the blob keyset.
-     */
-    @Override
-    public Set<String> keySet() {
-        return this.blobs.keySet();
-    }
-
-    /**
-     * Gets the blobs values.
-     */
-    @Override
-    public Collection<String> values() {
-        return this.blobs.values();
+    public byte[] encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Tree.TYPE).append(' ').append(this.tree).append('\n');
+        for (String p : this.getParents()) {
+            sb.append("parent ").append(p).append('\n');
+        }
+        sb.append("date ")
+                .append(this.date.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                .append('\n');
+        sb.append('\n').append(this.message);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
     }
 
     /**
-     * Gets the blobs entry set.
+     * The SHA-1 of a commit is that of its canonical encoding.
      */
     @Override
-    public Set<java.util.Map.Entry<String, String>> entrySet() {
-        return this.blobs.entrySet();
+    protected String computeSha1() {
+        return this.sha1(TYPE, this.encode());
     }
 
     /**
-     * Iterates over the blobs.
-     * @param action
-     *            The action.
+     * Gets the toString of the commit.
      */
     @Override
-    public void forEach(BiConsumer<? super String, ? super String> action) {
-        this.blobs.forEach(action);
+    public String toString() {
+        DateTimeFormatter formatter = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+        String dateStr = this.date.format(formatter).replace('T', ' ');
+        int nanoIndex = dateStr.indexOf('.');
+        return "===\n" + "Commit " + this.sha1() + "\n"
+                + dateStr.substring(0, nanoIndex) + "\n" + this.message + "\n";
     }
 
 }
@@ -1,6 +1,6 @@
 package gitlet;
 
-import java.util.HashMap;
+import java.util.SortedMap;
 
 /**
  * @author william
@@ -16,9 +16,9 @@ public class CommitCommand implements Command {
         String message = args[0];
 
         Index index = repo.index();
-        HashMap<String, String> blobs = index.blobsFromStage();
+        SortedMap<String, String> changes = index.changesFromStage();
 
-        repo.addCommitAtHead(message, blobs);
+        repo.addCommitAtHead(message, changes);
     }
 
     /*
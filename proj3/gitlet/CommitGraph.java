@@ -0,0 +1,542 @@
+package gitlet;
+
+import static gitlet.HashUtils.HASH_BYTES;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Represents the commit graph: for every commit, the positions of its parents
+ * and its generation number (one more than the greatest generation of its
+ * parents, roots being generation one). Ancestry queries walk these int
+ * arrays in order of generation and stop as soon as no commit left to visit
+ * could change the answer, without ever loading a Commit.
+ * <p>
+ * The graph is populated lazily: a query touching a commit the graph does
+ * not hold loads it and its missing ancestors once, and the graph is written
+ * back to its side file when the object store closes. The file holds a
+ * header, the sorted raw hashes, the generations, the start of each commit's
+ * run of parents in the parent table, the parent table itself and a SHA-1
+ * trailer.
+ * @author william
+ */
+public class CommitGraph {
+
+    /**
+     * The magic number beginning every commit graph file ("GCGR").
+     */
+    static final int MAGIC = 0x47434752;
+
+    /**
+     * The version of the commit graph format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the header: magic, version, commit and parent counts.
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * The flag of commits reachable from the first commit of a walk.
+     */
+    private static final int LEFT = 1;
+
+    /**
+     * The flag of commits reachable from the second commit of a walk.
+     */
+    private static final int RIGHT = 2;
+
+    /**
+     * The store the commits are loaded from.
+     */
+    private GitletObjectManager objects;
+
+    /**
+     * The number of commits, sorted by hash, read from the file.
+     */
+    private int sorted;
+
+    /**
+     * The number of commits.
+     */
+    private int size;
+
+    /**
+     * The raw hashes of the commits.
+     */
+    private byte[] hashes;
+
+    /**
+     * The generation numbers of the commits.
+     */
+    private int[] generations;
+
+    /**
+     * The start of the parents of each commit in the parent table, plus the
+     * end of the table.
+     */
+    private int[] parentStarts;
+
+    /**
+     * The parent table.
+     */
+    private int[] parents;
+
+    /**
+     * The positions of the commits added since the file was read.
+     */
+    private HashMap<String, Integer> added;
+
+    /**
+     * Creates an empty commit graph.
+     * @param objects
+     *            The store the commits are loaded from.
+     */
+    public CommitGraph(GitletObjectManager objects) {
+        this.objects = objects;
+        this.hashes = new byte[HASH_BYTES * 16];
+        this.generations = new int[16];
+        this.parentStarts = new int[17];
+        this.parents = new int[16];
+        this.added = new HashMap<>();
+    }
+
+    /**
+     * Reads the commit graph at a path.
+     * @param objects
+     *            The store the commits are loaded from.
+     * @param path
+     *            The path of the file.
+     * @return The commit graph, empty if there is no file.
+     * @throws IOException
+     *             If the file is corrupt.
+     */
+    public static CommitGraph open(GitletObjectManager objects, Path path)
+            throws IOException {
+        CommitGraph graph = new CommitGraph(objects);
+        if (!Files.exists(path)) {
+            return graph;
+        }
+
+        ByteBuffer in;
+        try (FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        int fileSize = in.capacity();
+        if (fileSize < HEADER + HASH_BYTES || in.getInt() != MAGIC
+                || in.getInt() != VERSION) {
+            throw new IOException("Corrupt commit graph.");
+        }
+        int count = in.getInt();
+        int edges = in.getInt();
+        if (count < 0 || edges < 0 || HEADER + (HASH_BYTES + 8L) * count
+                + 4L * edges + 4 + HASH_BYTES != fileSize) {
+            throw new IOException("Corrupt commit graph.");
+        }
+
+        MessageDigest digest = HashUtils.newDigest();
+        ByteBuffer contents = in.duplicate();
+        contents.position(0).limit(fileSize - HASH_BYTES);
+        digest.update(contents);
+        byte[] trailer = new byte[HASH_BYTES];
+        in.duplicate().position(fileSize - HASH_BYTES).get(trailer);
+        if (!Arrays.equals(digest.digest(), trailer)) {
+            throw new IOException("Corrupt commit graph checksum.");
+        }
+
+        graph.hashes = new byte[HASH_BYTES * Math.max(count, 16)];
+        in.get(graph.hashes, 0, HASH_BYTES * count);
+        graph.generations = new int[Math.max(count, 16)];
+        in.asIntBuffer().get(graph.generations, 0, count);
+        in.position(in.position() + 4 * count);
+        graph.parentStarts = new int[Math.max(count, 16) + 1];
+        in.asIntBuffer().get(graph.parentStarts, 0, count + 1);
+        in.position(in.position() + 4 * (count + 1));
+        graph.parents = new int[Math.max(edges, 16)];
+        in.asIntBuffer().get(graph.parents, 0, edges);
+
+        graph.sorted = count;
+        graph.size = count;
+        return graph;
+    }
+
+    /**
+     * @return the number of commits in the graph.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return if commits were added since the graph was read.
+     */
+    public boolean isChanged() {
+        return !this.added.isEmpty();
+    }
+
+    /**
+     * Gets the generation number of a commit.
+     * @param hash
+     *            The hash of the commit.
+     * @return The generation number.
+     */
+    public int generation(String hash) {
+        int id = this.ensure(hash);
+        return this.generations[id];
+    }
+
+    /**
+     * Determines if a commit is an ancestor of (or is) another. The walk
+     * from the descendant never visits commits of lower generation than the
+     * ancestor.
+     * @param ancestor
+     *            The hash of the possible ancestor.
+     * @param descendant
+     *            The hash of the possible descendant.
+     * @return If it is.
+     */
+    public boolean isAncestor(String ancestor, String descendant) {
+        int target = this.ensure(ancestor);
+        int start = this.ensure(descendant);
+        int floor = this.generations[target];
+
+        HashSet<Integer> seen = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int cur = stack.pop();
+            if (cur == target) {
+                return true;
+            }
+            for (int p = this.parentStarts[cur];
+                    p < this.parentStarts[cur + 1]; p++) {
+                int parent = this.parents[p];
+                if (this.generations[parent] >= floor
+                        && seen.add(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a lowest common ancestor of two commits by walking down from both
+     * in order of generation until a commit is reached from each.
+     * @param a
+     *            The hash of the first commit.
+     * @param b
+     *            The hash of the second commit.
+     * @return The hash of the common ancestor, or null if there is none.
+     */
+    public String mergeBase(String a, String b) {
+        int left = this.ensure(a);
+        int right = this.ensure(b);
+        if (left == right) {
+            return a;
+        }
+
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = this.queue();
+        flags.put(left, LEFT);
+        flags.put(right, RIGHT);
+        queue.add(left);
+        queue.add(right);
+
+        while (!queue.isEmpty()) {
+            int cur = queue.poll();
+            int flag = flags.get(cur);
+            if (flag == (LEFT | RIGHT)) {
+                return this.hash(cur);
+            }
+            for (int p = this.parentStarts[cur];
+                    p < this.parentStarts[cur + 1]; p++) {
+                int parent = this.parents[p];
+                Integer old = flags.get(parent);
+                if (old == null) {
+                    queue.add(parent);
+                    flags.put(parent, flag);
+                } else if ((old | flag) != old) {
+                    flags.put(parent, old | flag);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Lists the commits reachable from one commit but not from another,
+     * newest first. The walk stops once every commit left to visit is
+     * reachable from the excluded commit.
+     * @param include
+     *            The hash of the commit whose history is listed.
+     * @param exclude
+     *            The hash of the commit whose history is left out, or the
+     *            empty string to list every commit.
+     * @return The hashes.
+     */
+    public List<String> difference(String include, String exclude) {
+        List<String> result = new ArrayList<>();
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = this.queue();
+        int interesting = 0;
+
+        int start = this.ensure(include);
+        flags.put(start, LEFT);
+        queue.add(start);
+        interesting++;
+        if (!exclude.isEmpty()) {
+            int stop = this.ensure(exclude);
+            flags.put(stop, flags.getOrDefault(stop, 0) | RIGHT);
+            if (stop != start) {
+                queue.add(stop);
+            } else {
+                interesting--;
+            }
+        }
+
+        while (interesting > 0) {
+            int cur = queue.poll();
+            int flag = flags.get(cur);
+            if (flag == LEFT) {
+                interesting--;
+                result.add(this.hash(cur));
+            }
+            for (int p = this.parentStarts[cur];
+                    p < this.parentStarts[cur + 1]; p++) {
+                int parent = this.parents[p];
+                Integer old = flags.get(parent);
+                if (old == null) {
+                    queue.add(parent);
+                    flags.put(parent, flag);
+                    if (flag == LEFT) {
+                        interesting++;
+                    }
+                } else if ((old | flag) != old) {
+                    flags.put(parent, old | flag);
+                    if (old == LEFT) {
+                        interesting--;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes sure the graph holds a commit, loading it and whichever of its
+     * ancestors the graph lacks.
+     * @param hash
+     *            The hash of the commit.
+     * @return The position of the commit.
+     */
+    int ensure(String hash) {
+        int id = this.position(hash);
+        if (id >= 0) {
+            return id;
+        }
+
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(hash);
+        while (!stack.isEmpty()) {
+            String cur = stack.peek();
+            if (this.position(cur) >= 0) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = this.objects.get(Commit.class, cur);
+            if (commit == null) {
+                throw new IllegalArgumentException(
+                        "No commit with that id exists.");
+            }
+
+            List<String> commitParents = commit.getParents();
+            boolean ready = true;
+            for (String parent : commitParents) {
+                if (this.position(parent) < 0) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                this.add(cur, commitParents);
+            }
+        }
+        return this.position(hash);
+    }
+
+    /**
+     * Adds a commit whose parents are all in the graph.
+     * @param hash
+     *            The hash of the commit.
+     * @param commitParents
+     *            The hashes of its parents.
+     */
+    private void add(String hash, List<String> commitParents) {
+        int id = this.size;
+        this.grow(id + 1, this.parentStarts[id] + commitParents.size());
+
+        System.arraycopy(HashUtils.toBytes(hash), 0, this.hashes,
+                HASH_BYTES * id, HASH_BYTES);
+        int generation = 1;
+        int edge = this.parentStarts[id];
+        for (String parent : commitParents) {
+            int p = this.position(parent);
+            this.parents[edge++] = p;
+            generation = Math.max(generation, this.generations[p] + 1);
+        }
+        this.generations[id] = generation;
+        this.parentStarts[id + 1] = edge;
+        this.added.put(hash, id);
+        this.size++;
+    }
+
+    /**
+     * Grows the arrays to hold a number of commits and parents.
+     * @param commits
+     *            The number of commits.
+     * @param edges
+     *            The number of parents.
+     */
+    private void grow(int commits, int edges) {
+        if (commits > this.generations.length) {
+            int capacity = Math.max(commits, 2 * this.generations.length);
+            this.hashes = Arrays.copyOf(this.hashes, HASH_BYTES * capacity);
+            this.generations = Arrays.copyOf(this.generations, capacity);
+            this.parentStarts = Arrays.copyOf(this.parentStarts, capacity + 1);
+        }
+        if (edges > this.parents.length) {
+            this.parents = Arrays.copyOf(this.parents,
+                    Math.max(edges, 2 * this.parents.length));
+        }
+    }
+
+    /**
+     * Finds the position of a commit.
+     * @param hash
+     *            The hash of the commit.
+     * @return The position, or -1 if the graph does not hold it.
+     */
+    private int position(String hash) {
+        Integer id = this.added.get(hash);
+        if (id != null) {
+            return id;
+        }
+        if (hash.length() != HashUtils.HASH_LENGTH) {
+            return -1;
+        }
+
+        byte[] key = HashUtils.toBytes(hash);
+        int lo = 0;
+        int hi = this.sorted;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Arrays.compareUnsigned(this.hashes, HASH_BYTES * mid,
+                    HASH_BYTES * (mid + 1), key, 0, HASH_BYTES);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param id
+     *            The position of a commit.
+     * @return the hash of the commit.
+     */
+    private String hash(int id) {
+        return HashUtils.toHex(this.hashes, HASH_BYTES * id, HASH_BYTES);
+    }
+
+    /**
+     * @return a queue of positions ordered by decreasing generation.
+     */
+    private PriorityQueue<Integer> queue() {
+        return new PriorityQueue<>(
+                (x, y) -> Integer.compare(this.generations[y],
+                        this.generations[x]));
+    }
+
+    /**
+     * Writes the graph to a path, atomically replacing whatever is there.
+     * @param path
+     *            The path of the file.
+     * @throws IOException
+     *             If the file could not be written.
+     */
+    public void write(Path path) throws IOException {
+        Integer[] order = new Integer[this.size];
+        for (int i = 0; i < this.size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(this.hashes,
+                HASH_BYTES * x, HASH_BYTES * (x + 1), this.hashes,
+                HASH_BYTES * y, HASH_BYTES * (y + 1)));
+        int[] rank = new int[this.size];
+        for (int i = 0; i < this.size; i++) {
+            rank[order[i]] = i;
+        }
+
+        Path temp = AtomicFiles.temp(path);
+        MessageDigest digest = HashUtils.newDigest();
+        try (OutputStream file = Files.newOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(
+                        new DigestOutputStream(
+                                new BufferedOutputStream(file), digest))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.size);
+            out.writeInt(this.parentStarts[this.size]);
+            for (int id : order) {
+                out.write(this.hashes, HASH_BYTES * id, HASH_BYTES);
+            }
+            for (int id : order) {
+                out.writeInt(this.generations[id]);
+            }
+            int start = 0;
+            for (int id : order) {
+                out.writeInt(start);
+                start += this.parentStarts[id + 1] - this.parentStarts[id];
+            }
+            out.writeInt(start);
+            for (int id : order) {
+                for (int p = this.parentStarts[id];
+                        p < this.parentStarts[id + 1]; p++) {
+                    out.writeInt(rank[this.parents[p]]);
+                }
+            }
+            out.flush();
+            file.write(digest.digest());
+        } catch (IOException e) {
+            AtomicFiles.abort(temp);
+            throw e;
+        }
+        AtomicFiles.commit(temp, path);
+    }
+}
@@ -0,0 +1,376 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Creates and applies binary deltas in the style of xdelta. A delta begins
+ * with the sizes of its base and target, then holds a sequence of
+ * instructions which either copy a range of the base or insert literal
+ * bytes. Deltas are created by indexing fixed size blocks of the base and
+ * scanning the target with a rolling hash; they are applied by streaming the
+ * instructions against random access reads of the base, so neither side is
+ * ever held on the heap.
+ * @author william
+ */
+public class Delta {
+
+    /**
+     * The instruction which inserts literal bytes.
+     */
+    private static final int INSERT = 0;
+
+    /**
+     * The instruction which copies a range of the base.
+     */
+    private static final int COPY = 1;
+
+    /**
+     * The size of the blocks of the base which are indexed.
+     */
+    private static final int BLOCK = 16;
+
+    /**
+     * The multiplier of the rolling hash.
+     */
+    private static final int MULTIPLIER = 0x01000193;
+
+    /**
+     * The multiplier raised to BLOCK - 1, used to roll a byte out.
+     */
+    private static final int OUT_FACTOR;
+
+    /**
+     * The largest literal emitted by a single insert instruction.
+     */
+    private static final int MAX_INSERT = 1 << 16;
+
+    static {
+        int factor = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            factor *= MULTIPLIER;
+        }
+        OUT_FACTOR = factor;
+    }
+
+    /**
+     * Creates a delta which turns BASE into TARGET.
+     * @param base
+     *            The base contents.
+     * @param target
+     *            The target contents.
+     * @param out
+     *            The stream to write the delta to.
+     * @throws IOException
+     *             If the delta could not be written.
+     */
+    public static void create(ByteBuffer base, ByteBuffer target,
+            OutputStream out) throws IOException {
+        int baseSize = base.limit();
+        int targetSize = target.limit();
+        writeVarint(out, baseSize);
+        writeVarint(out, targetSize);
+
+        BlockIndex index = new BlockIndex(base);
+        byte[] literal = new byte[MAX_INSERT];
+        int literalStart = 0;
+        int i = 0;
+        int hash = targetSize >= BLOCK ? hash(target, 0) : 0;
+
+        while (i + BLOCK <= targetSize) {
+            int match = index.find(hash, target, i);
+            if (match >= 0) {
+                int length = BLOCK;
+                while (i + length < targetSize && match + length < baseSize
+                        && base.get(match + length) == target
+                                .get(i + length)) {
+                    length++;
+                }
+                int back = 0;
+                while (i - back > literalStart && match - back > 0
+                        && base.get(match - back - 1) == target
+                                .get(i - back - 1)) {
+                    back++;
+                }
+
+                insert(target, literalStart, i - back, literal, out);
+                out.write(COPY);
+                writeVarint(out, match - back);
+                writeVarint(out, length + back);
+
+                i += length;
+                literalStart = i;
+                if (i + BLOCK <= targetSize) {
+                    hash = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < targetSize) {
+                    hash = (hash - target.get(i) * OUT_FACTOR) * MULTIPLIER
+                            + target.get(i + BLOCK);
+                }
+                i++;
+            }
+        }
+        insert(target, literalStart, targetSize, literal, out);
+    }
+
+    /**
+     * Applies a delta to a base.
+     * @param base
+     *            The channel holding the base contents.
+     * @param delta
+     *            The stream of the delta.
+     * @param out
+     *            The stream to write the target to.
+     * @throws IOException
+     *             If the delta is malformed or does not apply to BASE.
+     */
+    public static void apply(FileChannel base, InputStream delta,
+            OutputStream out) throws IOException {
+        long baseSize = readVarint(delta);
+        long targetSize = readVarint(delta);
+        if (baseSize != base.size()) {
+            throw new IOException("Delta does not apply to its base.");
+        }
+
+        byte[] buffer = new byte[MAX_INSERT];
+        long written = 0;
+        int op;
+        while ((op = delta.read()) >= 0) {
+            if (op == COPY) {
+                long position = readVarint(delta);
+                long length = readVarint(delta);
+                if (position + length > baseSize) {
+                    throw new IOException("Delta copies past its base.");
+                }
+                written += length;
+                while (length > 0) {
+                    int chunk = (int) Math.min(buffer.length, length);
+                    ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, chunk);
+                    while (wrapped.hasRemaining()) {
+                        base.read(wrapped, position + wrapped.position());
+                    }
+                    out.write(buffer, 0, chunk);
+                    position += chunk;
+                    length -= chunk;
+                }
+            } else if (op == INSERT) {
+                int length = (int) readVarint(delta);
+                readFully(delta, buffer, length);
+                out.write(buffer, 0, length);
+                written += length;
+            } else {
+                throw new IOException("Unknown delta instruction " + op + ".");
+            }
+        }
+        if (written != targetSize) {
+            throw new IOException("Delta produced the wrong size.");
+        }
+    }
+
+    /**
+     * Emits the literal bytes of the target in [START, END) as inserts.
+     * @param target
+     *            The target.
+     * @param start
+     *            The first literal byte.
+     * @param end
+     *            One past the last literal byte.
+     * @param literal
+     *            A scratch buffer.
+     * @param out
+     *            The delta stream.
+     * @throws IOException
+     *             If the delta could not be written.
+     */
+    private static void insert(ByteBuffer target, int start, int end,
+            byte[] literal, OutputStream out) throws IOException {
+        while (start < end) {
+            int length = Math.min(literal.length, end - start);
+            for (int j = 0; j < length; j++) {
+                literal[j] = target.get(start + j);
+            }
+            out.write(INSERT);
+            writeVarint(out, length);
+            out.write(literal, 0, length);
+            start += length;
+        }
+    }
+
+    /**
+     * Computes the rolling hash of the block at an offset.
+     * @param buffer
+     *            The contents.
+     * @param offset
+     *            The start of the block.
+     * @return The hash.
+     */
+    private static int hash(ByteBuffer buffer, int offset) {
+        int hash = 0;
+        for (int j = 0; j < BLOCK; j++) {
+            hash = hash * MULTIPLIER + buffer.get(offset + j);
+        }
+        return hash;
+    }
+
+    /**
+     * Writes an unsigned variable length integer, seven bits at a time.
+     * @param out
+     *            The stream.
+     * @param value
+     *            The value.
+     * @throws IOException
+     *             If the value could not be written.
+     */
+    private static void writeVarint(OutputStream out, long value)
+            throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads an unsigned variable length integer.
+     * @param in
+     *            The stream.
+     * @return The value.
+     * @throws IOException
+     *             If the stream ended early.
+     */
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Truncated delta.");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Reads exactly LENGTH bytes into a buffer.
+     * @param in
+     *            The stream.
+     * @param buffer
+     *            The buffer.
+     * @param length
+     *            The number of bytes.
+     * @throws IOException
+     *             If the stream ended early.
+     */
+    private static void readFully(InputStream in, byte[] buffer, int length)
+            throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new IOException("Truncated delta.");
+            }
+            read += n;
+        }
+    }
+
+    /**
+     * Represents an open addressed table from the hashes of the blocks of a
+     * base to their offsets.
+     * @author william
+     */
+    private static class BlockIndex {
+        /**
+         * The base.
+         */
+        private ByteBuffer base;
+
+        /**
+         * The block hashes.
+         */
+        private int[] hashes;
+
+        /**
+         * The block offsets plus one, or zero for an empty slot.
+         */
+        private int[] offsets;
+
+        /**
+         * The mask selecting a slot from a hash.
+         */
+        private int mask;
+
+        /**
+         * Indexes every block of a base.
+         * @param base
+         *            The base.
+         */
+        BlockIndex(ByteBuffer base) {
+            this.base = base;
+            int blocks = base.limit() / BLOCK;
+            int size = Integer.highestOneBit(Math.max(1, blocks) * 2 - 1) << 1;
+            this.hashes = new int[size];
+            this.offsets = new int[size];
+            this.mask = size - 1;
+
+            for (int b = 0; b < blocks; b++) {
+                int offset = b * BLOCK;
+                int hash = hash(base, offset);
+                int slot = mix(hash) & this.mask;
+                while (this.offsets[slot] != 0 && this.hashes[slot] != hash) {
+                    slot = (slot + 1) & this.mask;
+                }
+                if (this.offsets[slot] == 0) {
+                    this.hashes[slot] = hash;
+                    this.offsets[slot] = offset + 1;
+                }
+            }
+        }
+
+        /**
+         * Finds a block of the base equal to the block of the target at an
+         * offset.
+         * @param hash
+         *            The hash of the target block.
+         * @param target
+         *            The target.
+         * @param offset
+         *            The start of the target block.
+         * @return The offset of the base block, or -1 if there is none.
+         */
+        int find(int hash, ByteBuffer target, int offset) {
+            int slot = mix(hash) & this.mask;
+            while (this.offsets[slot] != 0) {
+                if (this.hashes[slot] == hash) {
+                    int candidate = this.offsets[slot] - 1;
+                    for (int j = 0; j < BLOCK; j++) {
+                        if (this.base.get(candidate + j)
+                                != target.get(offset + j)) {
+                            return -1;
+                        }
+                    }
+                    return candidate;
+                }
+                slot = (slot + 1) & this.mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Spreads the bits of a hash before selecting a slot.
+         * @param hash
+         *            The hash.
+         * @return The spread hash.
+         */
+        private static int mix(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x85ebca6b;
+            return hash ^ hash >>> 13;
+        }
+    }
+}
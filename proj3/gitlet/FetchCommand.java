@@ -6,27 +6,80 @@ package gitlet;
 import static gitlet.ReferenceType.BRANCH;
 import static gitlet.ReferenceType.REMOTE;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @author william
  */
 public class FetchCommand implements Command {
 
+    /**
+     * The option limiting the depth of the history fetched.
+     */
+    public static final String DEPTH_OPTION = "--depth";
+
+    /**
+     * The option leaving blobs to be fetched as they are first needed.
+     */
+    public static final String BLOBLESS_OPTION = "--filter=blob:none";
+
     /*
      * (non-Javadoc)
      * @see gitlet.Command#run(gitlet.Repository, java.lang.String[])
      */
     @Override
     public void run(Repository repo, String[] args) {
-        fetch(repo, args[0], args[1]);
+        int depth = Integer.MAX_VALUE;
+        boolean blobless = false;
+        boolean verbose = false;
+        int i = 0;
+        while (i < optionOperands(args)) {
+            if (args[i].equals(DEPTH_OPTION)) {
+                depth = Integer.parseInt(args[i + 1]);
+                i += 2;
+            } else if (args[i].equals(BLOBLESS_OPTION)) {
+                blobless = true;
+                i++;
+            } else {
+                verbose = true;
+                i++;
+            }
+        }
+        ObjectTransfer.Report report =
+                fetch(repo, args[i], args[i + 1], depth, blobless);
+        if (verbose) {
+            System.out.println("Fetched " + report);
+        }
+
+    }
 
+    /**
+     * Counts the operands taken by leading depth, filter and verbose
+     * options.
+     * @param args
+     *            The operands of the command.
+     * @return The number of operands, or -1 if an option is malformed.
+     */
+    private static int optionOperands(String[] args) {
+        int i = 0;
+        while (i < args.length) {
+            if (args[i].equals(DEPTH_OPTION)) {
+                if (i + 1 >= args.length
+                        || !args[i + 1].matches("[1-9][0-9]{0,8}")) {
+                    return -1;
+                }
+                i += 2;
+            } else if (args[i].equals(BLOBLESS_OPTION)
+                    || args[i].equals(ObjectTransfer.VERBOSE_OPTION)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
     }
 
     /**
@@ -34,9 +87,34 @@ public class FetchCommand implements Command {
      * @param repo Tj.
      * @param remoteName rj
      * @param remoteBranch rb
+     * @return The report of the objects received.
      */
-    public static void fetch(Repository repo, String remoteName,
-            String remoteBranch) {
+    public static ObjectTransfer.Report fetch(Repository repo,
+            String remoteName, String remoteBranch) {
+        return fetch(repo, remoteName, remoteBranch, Integer.MAX_VALUE,
+                false);
+    }
+
+    /**
+     * Fetches a remote repository, perhaps only the latest commits of its
+     * history or only the commits and trees of it. Commits whose parents
+     * were left behind are recorded as shallow, and blobs left behind are
+     * fetched from the remote when they are first needed.
+     * @param repo
+     *            The repository.
+     * @param remoteName
+     *            The name of the remote.
+     * @param remoteBranch
+     *            The branch of the remote.
+     * @param depth
+     *            The number of commits of history to fetch.
+     * @param blobless
+     *            If the blobs are left behind.
+     * @return The report of the objects received.
+     */
+    public static ObjectTransfer.Report fetch(Repository repo,
+            String remoteName, String remoteBranch, int depth,
+            boolean blobless) {
         Reference remoteRef = repo.refs().get(REMOTE, remoteName);
 
         Path remoteDir =
@@ -54,43 +132,49 @@ public class FetchCommand implements Command {
 
         String remoteHead = remote.refs().resolve(BRANCH, remoteBranch);
 
-        pullObjects(repo, remote, remoteHead);
+        ObjectTransfer.Report report =
+                pullObjects(repo, remote, remoteHead, depth, blobless);
+        remote.close();
         String localBranch = remoteName + "/" + remoteBranch;
         if (!repo.refs().contains(BRANCH, localBranch)) {
             repo.refs().add(BRANCH, localBranch, new Reference(remoteHead));
         } else {
             repo.refs().get(BRANCH, localBranch).setTarget(remoteHead);
         }
-
+        return report;
     }
 
     /**
-     * Pulls objs.
+     * Pulls the commits of the remote head the repository lacks, along with
+     * the objects beneath them.
      * @param repo a 
      * @param remote  b
      * @param remoteHead c
+     * @param depth
+     *            The number of commits of history to pull.
+     * @param blobless
+     *            If the blobs are left behind.
+     * @return The report of the objects received.
      */
-    private static void pullObjects(Repository repo, Repository remote,
-            String remoteHead) {
-        Collection<GitletObject> incoming = new HashSet<GitletObject>();
-
-        for (String hash : MergeCommand.getHistory(remote, remoteHead,
-                new ArrayList<String>())) {
-
-            Commit c = remote.objects().get(Commit.class, hash);
-            List<GitletObject> blobs = c.values().stream()
-                    .filter(x -> !repo.objects().contains(Blob.class, x))
-                    .map((x) -> {
-                        return remote.objects().get(Blob.class, x);
-                    }).collect(Collectors.toList());
-            if (!repo.objects().contains(Commit.class, hash)) {
-                incoming.add(c);
+    private static ObjectTransfer.Report pullObjects(Repository repo,
+            Repository remote, String remoteHead, int depth,
+            boolean blobless) {
+        GitletObjectManager from = remote.objects();
+        GitletObjectManager to = repo.objects();
+        if (blobless) {
+            try {
+                to.addPromisor(from.getBaseDirectory());
+            } catch (IOException e) {
+                throw new IllegalStateException(
+                        "Could not record the remote: " + e.getMessage());
             }
-
-            incoming.addAll(blobs);
         }
-        repo.objects().putAll(incoming);
-
+        List<String> wants =
+                ObjectTransfer.negotiate(from, to, remoteHead, depth);
+        ObjectTransfer.Report report =
+                ObjectTransfer.send(from, to, wants, !blobless);
+        ObjectTransfer.graft(from, to, wants);
+        return report;
     }
 
     /*
@@ -108,7 +192,8 @@ public class FetchCommand implements Command {
      */
     @Override
     public boolean checkOperands(String[] args) {
-        return args.length == 2;
+        int options = optionOperands(args);
+        return options >= 0 && args.length == options + 2;
     }
 
 }
@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the stat data of a working file: its size, modification time
+ * and file key (the device and inode on unix), along with the time at which
+ * they were read. The index keeps the stat data of each file it has hashed
+ * so that a file whose stat data is unchanged need not be hashed again.
+ * <p>
+ * A file modified within the granularity of the file system clock of being
+ * stat'd could change again without its stat data changing. Such racy stat
+ * data is never trusted; the file is hashed again until its modification is
+ * old enough to be certain.
+ * @author william
+ */
+public class FileStat {
+
+    /**
+     * The coarsest file system clock granularity guarded against.
+     */
+    private static final long RACY_WINDOW = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The size of the file.
+     */
+    private long size;
+
+    /**
+     * The modification time of the file in nanoseconds.
+     */
+    private long modified;
+
+    /**
+     * The file key, or null if the file system does not provide one.
+     */
+    private String key;
+
+    /**
+     * The time in nanoseconds at which the stat data was read.
+     */
+    private long recorded;
+
+    /**
+     * If the file is a directory.
+     */
+    private boolean directory;
+
+    /**
+     * Creates empty stat data.
+     */
+    private FileStat() {
+    }
+
+    /**
+     * Creates the stat data of a file which is not a directory.
+     * @param size
+     *            The size of the file.
+     * @param modified
+     *            The modification time in nanoseconds.
+     * @param key
+     *            The file key, or null if there is none.
+     * @param recorded
+     *            The time in nanoseconds at which they were read.
+     */
+    FileStat(long size, long modified, String key, long recorded) {
+        this.size = size;
+        this.modified = modified;
+        this.key = key;
+        this.recorded = recorded;
+    }
+
+    /**
+     * Reads the stat data of a file.
+     * @param file
+     *            The file.
+     * @return The stat data.
+     * @throws IOException
+     *             If the file could not be stat'd.
+     */
+    public static FileStat of(Path file) throws IOException {
+        FileStat stat = new FileStat();
+        stat.recorded = TimeUnit.MILLISECONDS
+                .toNanos(System.currentTimeMillis());
+        BasicFileAttributes attrs =
+                Files.readAttributes(file, BasicFileAttributes.class);
+        stat.size = attrs.size();
+        stat.modified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        stat.directory = attrs.isDirectory();
+        if (attrs.fileKey() != null) {
+            stat.key = attrs.fileKey().toString();
+        }
+        return stat;
+    }
+
+    /**
+     * Determines if this stat data, taken earlier, proves a file unchanged
+     * since.
+     * @param current
+     *            The current stat data of the file.
+     * @return If the stat data match and this stat data is not racy.
+     */
+    public boolean isUnchanged(FileStat current) {
+        return !this.isRacy() && this.size == current.size
+                && this.modified == current.modified
+                && Objects.equals(this.key, current.key);
+    }
+
+    /**
+     * Determines if the file was modified too close to being stat'd for its
+     * stat data to be trusted.
+     * @return If it was.
+     */
+    public boolean isRacy() {
+        return this.modified + RACY_WINDOW >= this.recorded;
+    }
+
+    /**
+     * @return if the file is a directory.
+     */
+    public boolean isDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return the size of the file.
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return the modification time of the file in nanoseconds.
+     */
+    public long getModified() {
+        return this.modified;
+    }
+
+    /**
+     * @return the file key, or null if there is none.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return the time in nanoseconds at which the stat data was read.
+     */
+    public long getRecorded() {
+        return this.recorded;
+    }
+}
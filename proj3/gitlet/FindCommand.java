@@ -3,25 +3,43 @@
  */
 package gitlet;
 
+import java.util.List;
+
 /**
- * @author william
+ * @author william Represents a find command which prints the commits whose
+ *         message is exactly some message, or contains or starts with it
+ *         given an option.
  */
 public class FindCommand implements Command {
 
+    /**
+     * The option finding the commits whose message contains the text.
+     */
+    public static final String CONTAINS_OPTION = "--contains";
+
+    /**
+     * The option finding the commits whose message starts with the text.
+     */
+    public static final String PREFIX_OPTION = "--prefix";
+
     /*
      * (non-Javadoc)
      * @see gitlet.Command#run(gitlet.Repository, java.lang.String[])
      */
     @Override
     public void run(final Repository repo, String[] args) {
-        final int[] iter = new int[] { 0 };
-        repo.objects().forEach(Commit.class, (hash, com) -> {
-                if (com.getMessage().equals(args[0])) {
-                    iter[0]++;
-                    System.out.println(hash);
-                }
-            });
-        if (iter[0] == 0) {
+        MessageIndex messages = repo.objects().messages();
+        String text = args[args.length - 1];
+        List<String> found;
+        if (args.length == 1) {
+            found = messages.find(text);
+        } else if (args[0].equals(CONTAINS_OPTION)) {
+            found = messages.findContaining(text);
+        } else {
+            found = messages.findStarting(text);
+        }
+        found.forEach(System.out::println);
+        if (found.isEmpty()) {
             throw new IllegalArgumentException(
                     "Found no commit with that message.");
         }
@@ -43,7 +61,9 @@ public class FindCommand implements Command {
      */
     @Override
     public boolean checkOperands(String[] args) {
-        return args.length == 1;
+        return args.length == 1 || args.length == 2
+                && (args[0].equals(CONTAINS_OPTION)
+                        || args[0].equals(PREFIX_OPTION));
     }
 
 }
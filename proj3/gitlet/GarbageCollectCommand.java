@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package gitlet;
+
+import static gitlet.ReferenceType.BRANCH;
+import static gitlet.ReferenceType.HEAD;
+import static gitlet.ReferenceType.TAG;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author william Represents a gc command which deletes every object no
+ *         branch, tag, remote branch, head or staged file reaches, packs
+ *         the rest and reports what was freed.
+ */
+public class GarbageCollectCommand implements Command {
+
+    /*
+     * (non-Javadoc)
+     * @see gitlet.Command#run(gitlet.Repository, java.lang.String[])
+     */
+    @Override
+    public void run(Repository repo, String[] args) {
+        List<String> commits = new ArrayList<>();
+        commits.add(repo.refs().resolve(HEAD));
+        for (ReferenceType type : new ReferenceType[] { BRANCH, TAG }) {
+            repo.refs().forEach(type, (name, ref) -> commits
+                    .add(repo.refs().resolve(type, name)));
+        }
+
+        try {
+            System.out.println(GarbageCollector.collect(repo.objects(),
+                    commits, repo.index().getBlobs().values()));
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Could not collect garbage: " + e.getMessage());
+        }
+        repo.refs().pack();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gitlet.Command#requiresRepo()
+     */
+    @Override
+    public boolean requiresRepo() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gitlet.Command#checkOperands(java.lang.String[])
+     */
+    @Override
+    public boolean checkOperands(String[] args) {
+        return args.length == 0;
+    }
+
+}
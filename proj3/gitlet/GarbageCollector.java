@@ -0,0 +1,225 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * Deletes the objects of a store which no reference can reach. The stored
+ * objects are listed once in sorted order, and an object is marked by
+ * setting the bit at its position in that list, so that the mark of any
+ * object is found by a binary search and every mark costs a single bit.
+ * Marking walks back from the commits named by the references and the
+ * blobs named by the index, through every parent, tree and blob, and from
+ * each blob stored as a delta to its base. Whatever is left unmarked is
+ * swept away and the survivors are folded into one pack.
+ * @author william
+ */
+public class GarbageCollector {
+
+    /**
+     * The sorted hashes of every stored object.
+     */
+    private String[] hashes;
+
+    /**
+     * The positions in the hashes of the objects marked reachable.
+     */
+    private BitSet marked;
+
+    /**
+     * The store being collected.
+     */
+    private GitletObjectManager objects;
+
+    /**
+     * Creates a collector over the objects currently stored.
+     * @param objects
+     *            The store.
+     */
+    private GarbageCollector(GitletObjectManager objects) {
+        this.objects = objects;
+        this.hashes = objects.storedHashes();
+        this.marked = new BitSet(this.hashes.length);
+    }
+
+    /**
+     * Deletes every object of a store not reachable from some commits and
+     * blobs, and packs the rest.
+     * @param objects
+     *            The store.
+     * @param commits
+     *            The hashes of the commits from which objects are reached.
+     * @param blobs
+     *            The hashes of the blobs which are kept as well.
+     * @return A report of what was deleted.
+     * @throws IOException
+     *             If the store could not be rewritten.
+     */
+    public static Report collect(GitletObjectManager objects,
+            Collection<String> commits, Collection<String> blobs)
+            throws IOException {
+        long start = System.nanoTime();
+        GarbageCollector collector = new GarbageCollector(objects);
+        collector.markCommits(commits);
+        for (String blob : blobs) {
+            collector.markBlob(blob);
+        }
+        int kept = collector.marked.cardinality();
+        long freed = objects.prune(collector.hashes, collector.marked);
+        return new Report(kept, collector.hashes.length - kept, freed,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Marks an object reachable.
+     * @param hash
+     *            The hash of the object.
+     * @return If the object is stored and was not yet marked.
+     */
+    private boolean mark(String hash) {
+        int position = Arrays.binarySearch(this.hashes, hash);
+        if (position < 0 || this.marked.get(position)) {
+            return false;
+        }
+        this.marked.set(position);
+        return true;
+    }
+
+    /**
+     * Marks some commits and every commit, tree and blob they reach. Shallow
+     * commits load without their parents, so the walk stops at them.
+     * @param commits
+     *            The hashes of the commits.
+     */
+    private void markCommits(Collection<String> commits) {
+        Deque<String> pending = new ArrayDeque<>(commits);
+        while (!pending.isEmpty()) {
+            String hash = pending.pop();
+            if (!this.mark(hash)) {
+                continue;
+            }
+            Commit commit = this.objects.get(Commit.class, hash);
+            this.markTree(commit.getTree());
+            pending.addAll(commit.getParents());
+        }
+    }
+
+    /**
+     * Marks a tree and every tree and blob beneath it.
+     * @param hash
+     *            The hash of the tree.
+     */
+    private void markTree(String hash) {
+        if (!this.mark(hash)) {
+            return;
+        }
+        Tree tree = this.objects.get(Tree.class, hash);
+        for (String blob : tree.getBlobs().values()) {
+            this.markBlob(blob);
+        }
+        for (String sub : tree.getTrees().values()) {
+            this.markTree(sub);
+        }
+    }
+
+    /**
+     * Marks a blob and the chain of bases it is stored as a delta against.
+     * Blobs a partial store lacks are skipped rather than fetched.
+     * @param hash
+     *            The hash of the blob.
+     */
+    private void markBlob(String hash) {
+        String cur = hash;
+        try {
+            while (cur != null && this.mark(cur)) {
+                cur = this.objects.deltaBase(cur);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Could not read blob " + cur + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reports what a collection kept and deleted.
+     * @author william
+     */
+    public static class Report {
+        /**
+         * The number of objects kept.
+         */
+        private int kept;
+
+        /**
+         * The number of objects deleted.
+         */
+        private int pruned;
+
+        /**
+         * The number of bytes the deleted objects and files took.
+         */
+        private long freed;
+
+        /**
+         * The time taken in nanoseconds.
+         */
+        private long nanos;
+
+        /**
+         * Creates a report.
+         * @param kept
+         *            The number of objects kept.
+         * @param pruned
+         *            The number of objects deleted.
+         * @param freed
+         *            The number of bytes freed.
+         * @param nanos
+         *            The time taken in nanoseconds.
+         */
+        Report(int kept, int pruned, long freed, long nanos) {
+            this.kept = kept;
+            this.pruned = pruned;
+            this.freed = freed;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the number of objects kept.
+         */
+        public int getKept() {
+            return this.kept;
+        }
+
+        /**
+         * @return the number of objects deleted.
+         */
+        public int getPruned() {
+            return this.pruned;
+        }
+
+        /**
+         * @return the number of bytes the deleted objects and files took.
+         */
+        public long getFreed() {
+            return this.freed;
+        }
+
+        /**
+         * @return the time taken in milliseconds.
+         */
+        public double getMillis() {
+            return this.nanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d objects pruned, %d kept, %d bytes freed in %.1f ms",
+                    this.pruned, this.kept, this.freed, this.getMillis());
+        }
+    }
+}
@@ -3,16 +3,13 @@
  */
 package gitlet;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 /**
- * @author william
+ * @author william Represents an immutable object in the gitlet object store.
+ *         The identity of an object is the SHA-1 of a canonical,
+ *         serialization free encoding of its content, prefixed with its type
+ *         and length. The hash is computed at most once per object.
  */
 public abstract class GitletObject implements Serializable {
 
@@ -21,33 +18,65 @@ public abstract class GitletObject implements Serializable {
      */
     private static final long serialVersionUID = -2684175013405697783L;
 
+    /**
+     * The cached SHA-1 of the object.
+     */
+    private transient String hash;
+
+    /**
+     * The length of the canonical encoding of the object, once it has been
+     * hashed, or -1.
+     */
+    private transient long encodedLength = -1;
+
     /**
      * Generates the SHA-1 for the Gitlit object.
      * @return The SHA-1.
      */
     public String sha1() {
+        if (this.hash == null) {
+            this.hash = this.computeSha1();
+        }
+        return this.hash;
+    }
 
-        try {
-            MessageDigest mDigest = MessageDigest.getInstance("SHA1");
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutput out = new ObjectOutputStream(bos);
-            out.writeObject(this);
-
-            byte[] result = mDigest.digest(bos.toByteArray());
-            StringBuffer sb = new StringBuffer();
-            for (byte element : result) {
-                sb.append(Integer.toString((element & 0xff) + 0x100, 16)
-                        .substring(1));
-            }
+    /**
+     * Records the SHA-1 under which the object was stored, so that loading an
+     * object never requires rehashing it.
+     * @param sha1
+     *            The known SHA-1.
+     */
+    void cacheSha1(String sha1) {
+        this.hash = sha1;
+    }
 
-            return sb.toString();
-        } catch (NoSuchAlgorithmException | IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Hashes the canonical encoding of the object, recording its length.
+     * @param type
+     *            The type name of the object.
+     * @param encoded
+     *            The canonical encoding.
+     * @return The SHA-1.
+     */
+    protected String sha1(String type, byte[] encoded) {
+        this.encodedLength = encoded.length;
+        return HashUtils.sha1(type, encoded);
+    }
 
-        return null;
+    /**
+     * @return the length of the canonical encoding of the object, or -1 if
+     *         it was never hashed in this process.
+     */
+    long getEncodedLength() {
+        return this.encodedLength;
     }
 
+    /**
+     * Computes the SHA-1 of the canonical encoding of the object.
+     * @return The SHA-1.
+     */
+    protected abstract String computeSha1();
+
     @Override
     public int hashCode() {
         return this.sha1().hashCode();
@@ -58,7 +87,7 @@ public abstract class GitletObject implements Serializable {
         if (this == obj) {
             return true;
         }
-        if (this.getClass() != obj.getClass()) {
+        if (obj == null || this.getClass() != obj.getClass()) {
             return false;
         }
         GitletObject other = (GitletObject) obj;
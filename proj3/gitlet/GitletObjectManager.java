@@ -3,13 +3,31 @@
  */
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 /**
  * @author william
@@ -18,13 +36,204 @@ public class GitletObjectManager extends LazySerialManager<GitletObject> {
 
     private static final int DIR_DELIM = 2;
 
+    /**
+     * The directory, relative to the base, holding the packs.
+     */
+    private static final String PACK_DIR = "pack";
+
+    /**
+     * The file, relative to the base, holding the commit graph.
+     */
+    private static final String GRAPH_FILE = "commit-graph";
+
+    /**
+     * The file, relative to the base, holding the message index.
+     */
+    private static final String MESSAGE_INDEX_FILE = "message-index";
+
+    /**
+     * The file, relative to the base, logging the commits stored since the
+     * message index was written.
+     */
+    private static final String MESSAGE_LOG_FILE = "message-log";
+
+    /**
+     * The size of the buffer through which contents are streamed.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The file, relative to the base, listing the commits whose parents a
+     * shallow store lacks.
+     */
+    private static final String SHALLOW_FILE = "shallow";
+
+    /**
+     * The file, relative to the base, naming the stores from which the blobs
+     * a partial store lacks are fetched, one per line.
+     */
+    private static final String PROMISOR_FILE = "promisor";
+
+    /**
+     * The number of objects from which a received pack stream is kept as a
+     * pack rather than unpacked into loose objects.
+     */
+    private static final int UNPACK_LIMIT = 100;
+
+    /**
+     * The longest delta chain allowed by default.
+     */
+    private static final int DEFAULT_DELTA_CHAIN = 10;
+
+    /**
+     * The longest delta chain which can be recorded in a stored blob.
+     */
+    private static final int MAX_DELTA_CHAIN = 255;
+
+    /**
+     * The size in bytes beyond which contents are never stored as deltas.
+     */
+    private static final long MAX_DELTA_SIZE = 1L << 25;
+
+    /**
+     * The packs in the object store.
+     */
+    private List<Pack> packs;
+
+    /**
+     * The codec with which new objects are compressed.
+     */
+    private int codec;
+
+    /**
+     * The longest chain of deltas a new blob may sit at the end of.
+     */
+    private int maxDeltaChain;
+
+    /**
+     * The commit graph, once it has been read.
+     */
+    private CommitGraph graph;
+
+    /**
+     * The message index, once it has been read.
+     */
+    private MessageIndex messages;
+
+    /**
+     * The hashes of the objects outside the packs in sorted order, once
+     * they have been listed.
+     */
+    private TreeSet<String> loose;
+
+    /**
+     * The commits whose parents the store lacks, once they have been read.
+     */
+    private TreeSet<String> shallow;
+
+    /**
+     * If the shallow commits changed since they were read.
+     */
+    private boolean shallowChanged;
+
+    /**
+     * The stores from which missing blobs are fetched, once they are opened.
+     */
+    private List<GitletObjectManager> promisors;
+
     public GitletObjectManager(Path base) {
         super(base);
+        this.packs = new ArrayList<>();
+        this.codec = ObjectFormat.CODEC_DEFLATE;
+        this.maxDeltaChain = DEFAULT_DELTA_CHAIN;
+    }
+
+    /**
+     * Sets whether new objects are compressed. Objects already stored keep
+     * the codec recorded in their header.
+     * @param compress
+     *            If new objects should be deflated.
+     */
+    public void setCompression(boolean compress) {
+        if (compress) {
+            this.codec = ObjectFormat.CODEC_DEFLATE;
+        } else {
+            this.codec = ObjectFormat.CODEC_NONE;
+        }
+    }
+
+    /**
+     * Sets the longest chain of deltas which must be resolved to read a new
+     * blob. Longer chains store more versions as deltas but make them slower
+     * to read; zero stores every version whole.
+     * @param length
+     *            The longest chain.
+     */
+    public void setMaxDeltaChain(int length) {
+        if (length < 0 || length > MAX_DELTA_CHAIN) {
+            throw new IllegalArgumentException(
+                    "Delta chains must be between 0 and " + MAX_DELTA_CHAIN
+                            + " long.");
+        }
+        this.maxDeltaChain = length;
+    }
+
+    /**
+     * Gets the commit graph of the store, reading it on first use.
+     * @return The commit graph.
+     */
+    public CommitGraph graph() {
+        if (this.graph == null) {
+            try {
+                this.graph = CommitGraph.open(this,
+                        this.getBaseDirectory().resolve(GRAPH_FILE));
+            } catch (IOException e) {
+                e.printStackTrace();
+                this.graph = new CommitGraph(this);
+            }
+        }
+        return this.graph;
+    }
+
+    /**
+     * Gets the index of commit messages of the store, reading it on first
+     * use.
+     * @return The message index.
+     */
+    public MessageIndex messages() {
+        if (this.messages == null) {
+            try {
+                this.messages = MessageIndex.open(this,
+                        this.getBaseDirectory().resolve(MESSAGE_INDEX_FILE),
+                        this.getBaseDirectory().resolve(MESSAGE_LOG_FILE));
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+        return this.messages;
     }
 
+    /**
+     * Gets an object. Blobs are returned as handles over their stored
+     * contents without reading them.
+     */
     @Override
     public <S extends GitletObject> S get(Class<S> type, String hash) {
-        return super.get(type, hashToFile(hash));
+        if (type == Blob.class) {
+            if (!this.contains(Blob.class, hash)
+                    && !this.fetchPromised(hash)) {
+                return null;
+            }
+            return type.cast(new Blob(this, hash));
+        }
+        S obj = super.get(type, hashToFile(hash));
+        if (obj != null) {
+            obj.cacheSha1(hash);
+            if (obj instanceof Commit && this.isShallow(hash)) {
+                return type.cast(((Commit) obj).graft());
+            }
+        }
+        return obj;
     }
 
     /**
@@ -38,17 +247,106 @@ public class GitletObjectManager extends LazySerialManager<GitletObject> {
     public <S extends GitletObject> void forEach(Class<S> type,
             BiConsumer<? super String, ? super S> action) {
         BiConsumer<? super String, ? super S> hashedAction = (file, com) -> {
-            action.accept(fileToHash(file), com);
+            String hash = fileToHash(file);
+            com.cacheSha1(hash);
+            action.accept(hash, com);
         };
         super.forEach(type, hashedAction);
     };
 
+    /**
+     * Determines if the store holds an object. Safe to call while files are
+     * being stored concurrently.
+     */
     @Override
-    public <S extends GitletObject> boolean contains(Class<?> type,
-            String hash) {
+    public synchronized <S extends GitletObject> boolean contains(
+            Class<?> type, String hash) {
         return super.contains(type, hashToFile(hash));
     }
 
+    /**
+     * Determines if the store holds an object of any type.
+     */
+    @Override
+    public synchronized boolean contains(String hash) {
+        return super.contains(hashToFile(hash));
+    }
+
+    /**
+     * An object is stored if a pack or a loose file holds it.
+     */
+    @Override
+    protected boolean isStored(String file) {
+        return this.isPacked(fileToHash(file))
+                || Files.isRegularFile(this.getBaseDirectory().resolve(file));
+    }
+
+    /**
+     * Reads the type of a stored object from its header rather than loading
+     * it.
+     */
+    @Override
+    protected Class<?> typeOf(String file) {
+        Object obj = this.cache().peek(file);
+        if (obj != null) {
+            return obj.getClass();
+        }
+        try (InputStream in = this.openStored(file)) {
+            if (in == null) {
+                return null;
+            }
+            int type = ObjectFormat.Header.read(in).getType();
+            if (type != ObjectFormat.TYPE_NONE) {
+                return ObjectFormat.classOf(type);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return super.typeOf(file);
+    }
+
+    /**
+     * Lists every object in the packs and every loose object.
+     */
+    @Override
+    protected void listStored(Collection<String> files) {
+        for (Pack pack : this.packs) {
+            pack.forEach(hash -> files.add(hashToFile(hash)));
+        }
+        files.addAll(this.listLoose());
+    }
+
+    /**
+     * Lists the file names of the loose objects, which lie in directories
+     * named by the first characters of their hashes.
+     * @return The file names.
+     */
+    private List<String> listLoose() {
+        List<String> loose = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(
+                this.getBaseDirectory(), x -> Files.isDirectory(x))) {
+            for (Path dir : dirs) {
+                String dirName = dir.getFileName().toString();
+                if (dirName.length() != DIR_DELIM
+                        || !HashUtils.isHex(dirName)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> str =
+                        Files.newDirectoryStream(dir)) {
+                    for (Path file : str) {
+                        String name = file.getFileName().toString();
+                        if (!name.startsWith(AtomicFiles.TEMP_PREFIX)) {
+                            loose.add(dirName + "/" + name);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return loose;
+    }
+
     /**
      * Puts a gitlet object overwriting if necisarry.
      * @param obj
@@ -58,11 +356,603 @@ public class GitletObjectManager extends LazySerialManager<GitletObject> {
     public String put(GitletObject obj) {
         String hash = obj.sha1();
         if (!this.contains(hash)) {
-            this.add(hashToFile(hash), obj);
+            if (obj instanceof Blob) {
+                this.putBlob((Blob) obj);
+            } else {
+                this.add(hashToFile(hash), obj);
+                this.indexLoose(hash);
+                if (obj instanceof Commit) {
+                    this.messages().add(hash, ((Commit) obj).getMessage());
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Stores the contents of a file as a blob. The file is streamed through
+     * the digest and the compressor into a temporary object in one pass,
+     * which is then moved into place under its hash, so memory use does not
+     * depend on its size. Files may be stored concurrently.
+     * @param file
+     *            The file to store.
+     * @return The hash of the blob.
+     * @throws IOException
+     *             If the file could not be stored.
+     */
+    public String putFile(Path file) throws IOException {
+        return this.putFile(file, null);
+    }
+
+    /**
+     * Stores the contents of a file as a blob, as a delta against an earlier
+     * version of the file if that is smaller than storing it whole.
+     * @param file
+     *            The file to store.
+     * @param baseHash
+     *            The hash of the earlier version, or null if there is none.
+     * @return The hash of the blob.
+     * @throws IOException
+     *             If the file could not be stored.
+     */
+    public String putFile(Path file, String baseHash) throws IOException {
+        Path temp = Files.createTempFile(this.getBaseDirectory(), "tmp-", "");
+        MessageDigest digest = HashUtils.newDigest();
+        ObjectFormat.Header header = new ObjectFormat.Header(
+                ObjectFormat.TYPE_BLOB, ObjectFormat.ENCODING_RAW, this.codec);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                OutputStream stored = new BufferedOutputStream(
+                        Files.newOutputStream(temp), BUFFER_SIZE);
+                OutputStream out = header.compress(stored)) {
+            HashUtils.digestHeader(digest, Blob.TYPE, in.size());
+            stored.write(header.toBytes());
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                digest.update(buffer.array(), 0, buffer.position());
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        String hash = HashUtils.toHex(digest.digest());
+        if (baseHash != null && !baseHash.equals(hash)
+                && !this.contains(Blob.class, hash)) {
+            temp = this.deltify(file, baseHash, temp);
         }
+        this.install(hash, temp);
         return hash;
     }
 
+    /**
+     * Writes a file as a temporary delta object against a base blob, keeping
+     * whichever of it and the whole object is smaller. A delta is not
+     * attempted if the base is missing, either side is too large to map, or
+     * the chain behind the base is already as long as allowed.
+     * @param file
+     *            The file.
+     * @param baseHash
+     *            The hash of the base.
+     * @param whole
+     *            The temporary whole object.
+     * @return The temporary object to keep; the other is deleted.
+     */
+    private Path deltify(Path file, String baseHash, Path whole) {
+        Path delta = null;
+        Path base = null;
+        try {
+            if (!this.contains(Blob.class, baseHash)
+                    || Files.size(file) > MAX_DELTA_SIZE) {
+                return whole;
+            }
+            int depth = this.deltaDepth(baseHash) + 1;
+            if (depth > this.maxDeltaChain) {
+                return whole;
+            }
+            base = this.resolveToTemp(baseHash);
+            if (Files.size(base) > MAX_DELTA_SIZE) {
+                return whole;
+            }
+
+            delta = Files.createTempFile(this.getBaseDirectory(), "tmp-", "");
+            ObjectFormat.Header header = new ObjectFormat.Header(
+                    ObjectFormat.TYPE_BLOB, ObjectFormat.ENCODING_DELTA,
+                    this.codec);
+            try (FileChannel baseIn =
+                    FileChannel.open(base, StandardOpenOption.READ);
+                    FileChannel targetIn =
+                            FileChannel.open(file, StandardOpenOption.READ);
+                    OutputStream stored = new BufferedOutputStream(
+                            Files.newOutputStream(delta), BUFFER_SIZE);
+                    OutputStream out = header.compress(stored)) {
+                stored.write(header.toBytes());
+                stored.write(HashUtils.toBytes(baseHash));
+                stored.write(depth);
+                Delta.create(
+                        baseIn.map(MapMode.READ_ONLY, 0, baseIn.size()),
+                        targetIn.map(MapMode.READ_ONLY, 0, targetIn.size()),
+                        out);
+            }
+
+            if (Files.size(delta) < Files.size(whole)) {
+                Files.delete(whole);
+                Path kept = delta;
+                delta = null;
+                return kept;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            deleteQuietly(base);
+            deleteQuietly(delta);
+        }
+        return whole;
+    }
+
+    /**
+     * Gets the hash of the blob a stored blob is a delta against.
+     * @param hash
+     *            The hash of the blob.
+     * @return The hash of the base, or null if the blob is stored whole.
+     * @throws IOException
+     *             If the blob could not be read.
+     */
+    String deltaBase(String hash) throws IOException {
+        try (InputStream in = this.openStoredBlob(hash)) {
+            ObjectFormat.Header header = ObjectFormat.Header.read(in);
+            if (header.getEncoding() != ObjectFormat.ENCODING_DELTA) {
+                return null;
+            }
+            return readBase(in);
+        }
+    }
+
+    /**
+     * Gets the number of deltas which must be applied to read a stored blob.
+     * @param hash
+     *            The hash of the blob.
+     * @return The length of the delta chain, zero if it is stored whole.
+     * @throws IOException
+     *             If the blob could not be read.
+     */
+    int deltaDepth(String hash) throws IOException {
+        try (InputStream in = this.openStoredBlob(hash)) {
+            ObjectFormat.Header header = ObjectFormat.Header.read(in);
+            if (header.getEncoding() != ObjectFormat.ENCODING_DELTA) {
+                return 0;
+            }
+            readBase(in);
+            return in.read();
+        }
+    }
+
+    /**
+     * Stores a blob held by another store by copying its stored form, along
+     * with the base it is a delta against if this store lacks it.
+     * @param blob
+     *            The blob.
+     */
+    private void putBlob(Blob blob) {
+        String hash = blob.sha1();
+        GitletObjectManager source = blob.getStore();
+        try {
+            String base = source.deltaBase(hash);
+            if (base != null && !this.contains(Blob.class, base)) {
+                this.putBlob(source.get(Blob.class, base));
+            }
+            this.copyStored(source, hash);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stores an object held by another store by copying its stored form
+     * rather than loading it. Objects the other store has yet to write are
+     * put as they are.
+     * @param source
+     *            The store holding the object.
+     * @param hash
+     *            The hash of the object.
+     */
+    public void copy(GitletObjectManager source, String hash) {
+        String file = hashToFile(hash);
+        if (this.contains(hash)) {
+            return;
+        } else if (!source.isStored(file)) {
+            this.put(source.get(GitletObject.class, hash));
+            return;
+        }
+
+        Class<?> type = source.typeOf(file);
+        if (type == Blob.class) {
+            this.putBlob(source.get(Blob.class, hash));
+            return;
+        }
+        try {
+            this.copyStored(source, hash);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (type == Commit.class) {
+            this.messages().add(hash,
+                    source.get(Commit.class, hash).getMessage());
+        }
+    }
+
+    /**
+     * Measures the stored form of an object, header included.
+     * @param hash
+     *            The hash of the object.
+     * @return The length in bytes.
+     * @throws IOException
+     *             If the object is not stored.
+     */
+    long storedLength(String hash) throws IOException {
+        for (Pack pack : this.packs) {
+            long length = pack.sizeOf(hash);
+            if (length >= 0) {
+                return length;
+            }
+        }
+        return Files.size(this.getBaseDirectory().resolve(hashToFile(hash)));
+    }
+
+    /**
+     * Determines if the store lacks the parents of a commit, which then
+     * loads without them.
+     * @param hash
+     *            The hash of the commit.
+     * @return If it does.
+     */
+    public synchronized boolean isShallow(String hash) {
+        return this.shallow().contains(hash);
+    }
+
+    /**
+     * Determines if the store lacks the parents of any commit.
+     * @return If it does.
+     */
+    public synchronized boolean hasShallow() {
+        return !this.shallow().isEmpty();
+    }
+
+    /**
+     * Gets the commits whose parents the store lacks, reading them on first
+     * use.
+     * @return The hashes of the commits.
+     */
+    private synchronized TreeSet<String> shallow() {
+        if (this.shallow == null) {
+            this.shallow = new TreeSet<>();
+            Path file = this.getBaseDirectory().resolve(SHALLOW_FILE);
+            try {
+                if (Files.exists(file)) {
+                    this.shallow.addAll(Files.readAllLines(file));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return this.shallow;
+    }
+
+    /**
+     * Records whether the store lacks the parents of a commit. Once a
+     * commit gains its parents the commit graph, which recorded it without
+     * them, is rebuilt.
+     * @param hash
+     *            The hash of the commit.
+     * @param cut
+     *            If the store lacks them.
+     */
+    public synchronized void setShallow(String hash, boolean cut) {
+        if (this.isShallow(hash) == cut) {
+            return;
+        }
+        this.shallowChanged = true;
+        if (cut) {
+            this.shallow().add(hash);
+            return;
+        }
+        this.shallow().remove(hash);
+        this.graph = null;
+        try {
+            Files.deleteIfExists(this.getBaseDirectory().resolve(GRAPH_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Makes the store partial, fetching the blobs it lacks from another
+     * store as they are first needed. Every store added is kept, so blobs
+     * left behind by earlier partial fetches from other stores can still be
+     * fetched.
+     * @param objects
+     *            The base directory of the other store.
+     * @throws IOException
+     *             If the store could not be recorded.
+     */
+    public synchronized void addPromisor(Path objects) throws IOException {
+        Path file = this.getBaseDirectory().resolve(PROMISOR_FILE);
+        List<String> lines = new ArrayList<>();
+        if (Files.exists(file)) {
+            lines.addAll(Files.readAllLines(file));
+        }
+        String line = objects.toAbsolutePath().normalize().toString();
+        if (lines.contains(line)) {
+            return;
+        }
+        lines.add(line);
+        Path temp = AtomicFiles.temp(file);
+        try {
+            Files.write(temp, lines);
+        } catch (IOException e) {
+            AtomicFiles.abort(temp);
+            throw e;
+        }
+        AtomicFiles.commit(temp, file);
+        this.closePromisors();
+    }
+
+    /**
+     * Fetches a blob the store lacks from the first of the stores it was
+     * partially fetched from which holds it.
+     * @param hash
+     *            The hash of the blob.
+     * @return If the blob is now stored.
+     */
+    synchronized boolean fetchPromised(String hash) {
+        if (this.promisors == null) {
+            this.promisors = new ArrayList<>();
+            Path file = this.getBaseDirectory().resolve(PROMISOR_FILE);
+            try {
+                if (Files.exists(file)) {
+                    for (String line : Files.readAllLines(file)) {
+                        Path objects = Paths.get(line);
+                        if (Files.isDirectory(objects)) {
+                            GitletObjectManager promisor =
+                                    new GitletObjectManager(objects);
+                            promisor.open();
+                            this.promisors.add(promisor);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (GitletObjectManager promisor : this.promisors) {
+            if (promisor.contains(Blob.class, hash)) {
+                this.copy(promisor, hash);
+                return this.contains(Blob.class, hash);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the stores missing blobs are fetched from, if they are open.
+     */
+    private void closePromisors() {
+        if (this.promisors != null) {
+            for (GitletObjectManager promisor : this.promisors) {
+                promisor.close();
+            }
+            this.promisors = null;
+        }
+    }
+
+    /**
+     * Stores the objects of a pack stream, reading it once. Large streams
+     * are indexed as they are read and kept as a pack; small ones are
+     * unpacked into loose objects. A stream of unknown length is unpacked
+     * until it proves large. Nothing is stored unless the whole stream
+     * arrives intact.
+     * @param stream
+     *            The pack stream, left open.
+     * @return The hashes of the objects received.
+     * @throws IOException
+     *             If the stream is corrupt or could not be stored.
+     */
+    public List<String> receive(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(stream, BUFFER_SIZE));
+        int count = PackStream.readHeader(in);
+        Receiver receiver = this.new Receiver();
+        try {
+            if (count >= UNPACK_LIMIT) {
+                receiver.toPack();
+            }
+            PackStream.readEntries(in, count, receiver);
+            receiver.store();
+        } finally {
+            receiver.abandon();
+        }
+
+        for (String hash : receiver.received) {
+            if (this.typeOf(hashToFile(hash)) == Commit.class) {
+                this.messages().add(hash,
+                        this.get(Commit.class, hash).getMessage());
+            }
+        }
+        return receiver.received;
+    }
+
+    /**
+     * Copies the stored form of an object held by another store into place
+     * as a loose object.
+     * @param source
+     *            The store holding the object.
+     * @param hash
+     *            The hash of the object.
+     * @throws IOException
+     *             If the object could not be copied.
+     */
+    private void copyStored(GitletObjectManager source, String hash)
+            throws IOException {
+        Path temp = Files.createTempFile(this.getBaseDirectory(), "tmp-", "");
+        try (InputStream in = source.openStored(hashToFile(hash))) {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.delete(temp);
+            throw e;
+        }
+        this.install(hash, temp);
+    }
+
+    /**
+     * Moves a temporary object into place as a loose object, or discards it
+     * if the store already holds it.
+     * @param hash
+     *            The hash of the object.
+     * @param temp
+     *            The temporary object.
+     * @throws IOException
+     *             If the object could not be moved.
+     */
+    private synchronized void install(String hash, Path temp)
+            throws IOException {
+        String file = hashToFile(hash);
+        Path target = this.getBaseDirectory().resolve(file);
+        if (this.isPacked(hash) || Files.exists(target)) {
+            Files.delete(temp);
+        } else {
+            Files.createDirectories(target.getParent());
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            this.indexLoose(hash);
+        }
+    }
+
+    /**
+     * Opens the contents of a blob. Blobs stored as deltas are first resolved
+     * into a temporary file which is deleted when the stream is closed.
+     * @param hash
+     *            The hash of the blob.
+     * @return A stream over the contents.
+     * @throws IOException
+     *             If the blob could not be read.
+     */
+    public InputStream openBlob(String hash) throws IOException {
+        InputStream in = this.openStoredBlob(hash);
+        ObjectFormat.Header header = ObjectFormat.Header.read(in);
+        if (header.getEncoding() == ObjectFormat.ENCODING_RAW) {
+            return header.decompress(in);
+        }
+        in.close();
+
+        Path temp = this.resolveToTemp(hash);
+        return Files.newInputStream(temp, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Writes the contents of a blob to a stream, applying its chain of
+     * deltas if it has one. Each base in the chain is resolved into a
+     * temporary file and read from there, so memory use is bounded by the
+     * buffers rather than by the size of the contents or the chain.
+     * @param hash
+     *            The hash of the blob.
+     * @param out
+     *            The stream.
+     * @throws IOException
+     *             If the blob could not be read.
+     */
+    private void resolve(String hash, OutputStream out) throws IOException {
+        try (InputStream in = this.openStoredBlob(hash)) {
+            ObjectFormat.Header header = ObjectFormat.Header.read(in);
+            if (header.getEncoding() == ObjectFormat.ENCODING_RAW) {
+                try (InputStream contents = header.decompress(in)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = contents.read(buffer)) >= 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+            } else if (header.getEncoding() == ObjectFormat.ENCODING_DELTA) {
+                String base = readBase(in);
+                in.read();
+                Path temp = this.resolveToTemp(base);
+                try (FileChannel baseIn = FileChannel.open(temp,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+                        InputStream delta = header.decompress(in)) {
+                    Delta.apply(baseIn, delta, out);
+                }
+            } else {
+                throw new IOException(hash + " is not a blob.");
+            }
+        }
+    }
+
+    /**
+     * Resolves the contents of a blob into a temporary file.
+     * @param hash
+     *            The hash of the blob.
+     * @return The temporary file.
+     * @throws IOException
+     *             If the blob could not be read.
+     */
+    private Path resolveToTemp(String hash) throws IOException {
+        Path temp = Files.createTempFile(this.getBaseDirectory(), "tmp-", "");
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(temp), BUFFER_SIZE)) {
+            this.resolve(hash, out);
+        } catch (IOException e) {
+            Files.delete(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Writes the contents of a blob to a file, replacing it. Uncompressed
+     * contents are transferred channel to channel without passing through the
+     * heap; compressed ones and deltas are resolved through fixed size
+     * buffers.
+     * @param hash
+     *            The hash of the blob.
+     * @param target
+     *            The file.
+     * @throws IOException
+     *             If the blob could not be written.
+     */
+    public void checkoutBlob(String hash, Path target) throws IOException {
+        ObjectFormat.Header header;
+        try (InputStream in = this.openStoredBlob(hash)) {
+            header = ObjectFormat.Header.read(in);
+        }
+        if (header.getCodec() != ObjectFormat.CODEC_NONE
+                || header.getEncoding() != ObjectFormat.ENCODING_RAW) {
+            try (OutputStream out = new BufferedOutputStream(
+                    Files.newOutputStream(target), BUFFER_SIZE)) {
+                this.resolve(hash, out);
+            }
+            return;
+        }
+
+        try (FileChannel out = FileChannel.open(target,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Pack pack : this.packs) {
+                if (pack.transferTo(hash, ObjectFormat.HEADER_SIZE, out)) {
+                    return;
+                }
+            }
+
+            Path loose = this.getBaseDirectory().resolve(hashToFile(hash));
+            try (FileChannel in =
+                    FileChannel.open(loose, StandardOpenOption.READ)) {
+                Pack.transfer(in, ObjectFormat.HEADER_SIZE,
+                        in.size() - ObjectFormat.HEADER_SIZE, out);
+            }
+        }
+    }
+
     /**
      * Adds all gitlet objects of a certain type.
      * @param objs
@@ -79,59 +969,493 @@ public class GitletObjectManager extends LazySerialManager<GitletObject> {
     @Override
     public <S extends GitletObject> void remove(Class<S> type, String hash) {
         super.remove(type, hashToFile(hash));
+        synchronized (this) {
+            if (this.loose != null) {
+                this.loose.remove(hash);
+            }
+        }
     }
 
     /**
-     * Uses the speed of the file system to load an object of a given type
-     * satisfying the search.
+     * Loads the object of a given type whose hash begins with a prefix. The
+     * prefix is looked up by binary search in the sorted hashes of the loose
+     * objects and in the index of each pack.
      * @param type
      *            The type to search for.
      * @param search
-     *            The delimiter with which to search.
-     * @return The gitlet objecto find.
+     *            The prefix of the hash.
+     * @return The object, or null if no object of the type matches.
+     * @throws IllegalArgumentException
+     *             If more than one object of the type matches.
      */
     public <S extends GitletObject> S find(Class<S> type, String search) {
-        Set<String> contents = this.tracker.get(type);
-        if (contents == null || contents.isEmpty()) {
-            return null;
+        List<String> found = this.findPrefix(type, search);
+        if (found.size() > 1) {
+            throw new IllegalArgumentException("The id " + search
+                    + " is ambiguous between " + found.size() + " "
+                    + type.getSimpleName().toLowerCase() + "s.");
+        }
+        return found.isEmpty() ? null : this.get(type, found.get(0));
+    }
+
+    /**
+     * Finds every object of a given type whose hash begins with a prefix.
+     * @param type
+     *            The type to search for.
+     * @param search
+     *            The prefix of the hash.
+     * @return The hashes of the objects in sorted order.
+     */
+    public List<String> findPrefix(Class<? extends GitletObject> type,
+            String search) {
+        TreeSet<String> found = new TreeSet<>();
+        if (!HashUtils.isHex(search)) {
+            return new ArrayList<>(found);
+        }
+        synchronized (this) {
+            for (String hash : this.loose().tailSet(search)) {
+                if (!hash.startsWith(search)) {
+                    break;
+                }
+                found.add(hash);
+            }
         }
+        for (Pack pack : this.packs) {
+            found.addAll(pack.findPrefix(search));
+        }
+        found.removeIf(hash -> !this.contains(type, hash));
+        return new ArrayList<>(found);
+    }
 
-        String delim =
-                search.substring(0, Math.min(search.length(), DIR_DELIM));
+    /**
+     * Gets the sorted hashes of the objects outside the packs, listing them
+     * on first use. Objects not yet written count as loose.
+     * @return The hashes.
+     */
+    private synchronized TreeSet<String> loose() {
+        if (this.loose == null) {
+            this.loose = new TreeSet<>();
+            for (String file : this.listLoose()) {
+                this.loose.add(fileToHash(file));
+            }
+            this.cache().forEach((file, obj) -> {
+                    String hash = fileToHash(file);
+                    if (!this.isPacked(hash)) {
+                        this.loose.add(hash);
+                    }
+                });
+        }
+        return this.loose;
+    }
 
-        String rest = "";
-        if (search.length() > DIR_DELIM) {
-            rest = search.substring(DIR_DELIM, search.length());
+    /**
+     * Records a new object outside the packs, if they have been listed.
+     * @param hash
+     *            The hash of the object.
+     */
+    private synchronized void indexLoose(String hash) {
+        if (this.loose != null) {
+            this.loose.add(hash);
         }
+    }
 
+    /**
+     * Folds every loose object into a new pack and deletes the loose copies,
+     * then folds the log of the message index into the index.
+     * @return The number of objects packed.
+     */
+    public int repack() {
         Path base = this.getBaseDirectory();
-        try (DirectoryStream<Path> str =
-                Files.newDirectoryStream(base, x -> Files.isDirectory(x))) {
+        try {
+            this.messages().compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        List<String> loose = this.listLoose();
+        if (loose.isEmpty()) {
+            return 0;
+        }
+
+        try (PackWriter writer = new PackWriter(base.resolve(PACK_DIR))) {
+            for (String file : loose) {
+                writer.add(fileToHash(file), base.resolve(file));
+            }
+            this.packs.add(writer.finish());
 
-            for (Path entry : str) {
-                String directoryName = entry.getFileName().toString();
+            for (String file : loose) {
+                this.deleteLoose(file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            this.loose = null;
+        }
+        return loose.size();
+    }
 
-                if (directoryName.startsWith(delim)) {
-                    DirectoryStream<Path> substr =
-                            Files.newDirectoryStream(entry);
+    /**
+     * Deletes a loose object, along with its directory once that is empty.
+     * @param file
+     *            The file name of the object.
+     * @throws IOException
+     *             If the object could not be deleted.
+     */
+    private void deleteLoose(String file) throws IOException {
+        Path filePath = this.getBaseDirectory().resolve(file);
+        Files.deleteIfExists(filePath);
+        try (DirectoryStream<Path> rest =
+                Files.newDirectoryStream(filePath.getParent())) {
+            if (!rest.iterator().hasNext()) {
+                Files.delete(filePath.getParent());
+            }
+        }
+    }
 
-                    for (Path subEntry : substr) {
-                        String fileName = subEntry.getFileName().toString();
+    /**
+     * Lists the hashes of every stored object, packed or loose. Objects not
+     * yet written are left out.
+     * @return The hashes in sorted order, each once.
+     */
+    String[] storedHashes() {
+        TreeSet<String> hashes = new TreeSet<>();
+        for (Pack pack : this.packs) {
+            pack.forEach(hashes::add);
+        }
+        for (String file : this.listLoose()) {
+            hashes.add(fileToHash(file));
+        }
+        return hashes.toArray(new String[hashes.size()]);
+    }
 
-                        if (fileName.startsWith(rest)) {
-                            String targetHash = directoryName + fileName;
-                            if (contents.contains(
-                                    directoryName + "/" + fileName)) {
-                                return this.get(type, targetHash);
-                            }
+    /**
+     * Deletes every stored object but those marked, and folds the survivors
+     * into one new pack in place of the old packs and the loose objects.
+     * The new pack is written before anything is deleted, so a failure
+     * midway leaves every object stored. The commit graph and message
+     * index, which may name deleted commits, are rebuilt, and stale
+     * temporary files and the object list of older stores are deleted.
+     * @param hashes
+     *            The hashes of every stored object, as listed by
+     *            {@link #storedHashes()}.
+     * @param marked
+     *            The positions in the hashes of the objects to keep.
+     * @return The number of bytes the deleted objects and files took.
+     * @throws IOException
+     *             If the survivors could not be packed.
+     */
+    long prune(String[] hashes, BitSet marked) throws IOException {
+        Path base = this.getBaseDirectory();
+        long freed = 0;
+        for (int i = marked.nextClearBit(0); i < hashes.length;
+                i = marked.nextClearBit(i + 1)) {
+            freed += this.storedLength(hashes[i]);
+        }
+        List<String> loose = this.listLoose();
+        boolean packed = loose.isEmpty() && this.packs.size() == 1;
+        if (marked.cardinality() < hashes.length || !packed) {
+            Pack survivors = null;
+            if (!marked.isEmpty()) {
+                try (PackWriter writer =
+                        new PackWriter(base.resolve(PACK_DIR))) {
+                    for (int i = marked.nextSetBit(0); i >= 0;
+                            i = marked.nextSetBit(i + 1)) {
+                        try (InputStream in =
+                                this.openStored(hashToFile(hashes[i]))) {
+                            writer.add(hashes[i], in,
+                                    this.storedLength(hashes[i]));
                         }
                     }
+                    survivors = writer.finish();
+                }
+            }
+
+            for (Pack pack : this.packs) {
+                pack.close();
+                if (survivors == null || !Files.isSameFile(
+                        pack.getIndexPath(), survivors.getIndexPath())) {
+                    Files.deleteIfExists(pack.getIndexPath());
+                    Files.deleteIfExists(pack.getPackPath());
                 }
             }
+            this.packs.clear();
+            if (survivors != null) {
+                this.packs.add(survivors);
+            }
+            for (String file : loose) {
+                this.deleteLoose(file);
+            }
+        }
+
+        synchronized (this) {
+            this.loose = null;
+            for (int i = marked.nextClearBit(0); i < hashes.length;
+                    i = marked.nextClearBit(i + 1)) {
+                this.cache().remove(hashToFile(hashes[i]));
+            }
+            if (this.shallow().removeIf(hash -> !this.contains(hash))) {
+                this.shallowChanged = true;
+            }
+        }
+        this.graph = null;
+        Files.deleteIfExists(base.resolve(GRAPH_FILE));
+        this.messages().rebuild();
+        return freed + this.deleteStale();
+    }
+
+    /**
+     * Deletes the temporary files left behind by writes which never
+     * finished, and the file in which older stores listed their objects.
+     * Only safe while no other process writes to the store.
+     * @return The number of bytes the files took.
+     * @throws IOException
+     *             If the files could not be listed.
+     */
+    private long deleteStale() throws IOException {
+        long freed = 0;
+        try (Stream<Path> walk = Files.walk(this.getBaseDirectory())) {
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                String name = path.getFileName().toString();
+                boolean stale = name.startsWith(AtomicFiles.TEMP_PREFIX)
+                        || name.startsWith("tmp-")
+                        || path.getParent().equals(this.getBaseDirectory())
+                                && name.equals(DB_NAME);
+                if (stale && Files.isRegularFile(path)) {
+                    freed += Files.size(path);
+                    Files.delete(path);
+                }
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Determines if an object is stored in a pack.
+     * @param hash
+     *            The hash of the object.
+     * @return If it is.
+     */
+    public boolean isPacked(String hash) {
+        for (Pack pack : this.packs) {
+            if (pack.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a serialized object, consuming its header.
+     */
+    @Override
+    protected InputStream openObject(String file) throws IOException {
+        InputStream in = this.openStored(file);
+        if (in == null) {
+            return null;
+        }
+        ObjectFormat.Header header = ObjectFormat.Header.read(in);
+        if (header.getEncoding() != ObjectFormat.ENCODING_SERIAL) {
+            in.close();
+            throw new IOException(file + " is not a serialized object.");
+        }
+        return header.decompress(in);
+    }
+
+    /**
+     * Writes the header of a serialized object before its compressed
+     * contents.
+     */
+    @Override
+    protected OutputStream createObject(Path path, Object object)
+            throws IOException {
+        OutputStream out = super.createObject(path, object);
+        ObjectFormat.Header header = new ObjectFormat.Header(
+                ObjectFormat.typeOf(object), ObjectFormat.ENCODING_SERIAL,
+                this.codec);
+        out.write(header.toBytes());
+        return header.compress(out);
+    }
+
+    /**
+     * Opens the stored form of an object, header included, from the packs
+     * before falling back to its loose file.
+     * @param file
+     *            The file name of the object.
+     * @return The stream, or null if the object is not stored.
+     * @throws IOException
+     *             If the object could not be opened.
+     */
+    InputStream openStored(String file) throws IOException {
+        String hash = fileToHash(file);
+        for (Pack pack : this.packs) {
+            InputStream in = pack.open(hash);
+            if (in != null) {
+                return in;
+            }
+        }
+
+        Path loose = this.getBaseDirectory().resolve(file);
+        if (!Files.exists(loose)) {
+            return null;
+        }
+        return Files.newInputStream(loose);
+    }
+
+    /**
+     * Opens the stored form of a blob.
+     * @param hash
+     *            The hash of the blob.
+     * @return The stream, positioned at the header.
+     * @throws IOException
+     *             If the blob is not stored.
+     */
+    private InputStream openStoredBlob(String hash) throws IOException {
+        InputStream in = this.openStored(hashToFile(hash));
+        if (in == null && this.fetchPromised(hash)) {
+            in = this.openStored(hashToFile(hash));
+        }
+        if (in == null) {
+            throw new IOException("No blob " + hash + " exists.");
+        }
+        return in;
+    }
+
+    /**
+     * Reads the raw hash of the base of a delta following its header.
+     * @param in
+     *            The stream over the stored delta.
+     * @return The hexadecimal hash of the base.
+     * @throws IOException
+     *             If the hash is truncated.
+     */
+    private static String readBase(InputStream in) throws IOException {
+        byte[] raw = in.readNBytes(HashUtils.HASH_BYTES);
+        if (raw.length != HashUtils.HASH_BYTES) {
+            throw new IOException("Truncated delta base.");
+        }
+        return HashUtils.toHex(raw);
+    }
+
+    /**
+     * Deletes a temporary file if there is one, ignoring failures.
+     * @param temp
+     *            The file, or null.
+     */
+    private static void deleteQuietly(Path temp) {
+        if (temp == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Weighs an added object by the length of the canonical encoding it
+     * was hashed from, which grows with the object as its serialized form
+     * does.
+     */
+    @Override
+    protected long weigh(GitletObject object) {
+        long length = object.getEncodedLength();
+        return length >= 0 ? length : super.weigh(object);
+    }
+
+    /**
+     * Saves an object as a loose file unless a pack already holds it.
+     */
+    @Override
+    protected void save(String file, Object object) {
+        if (!this.isPacked(fileToHash(file))) {
+            super.save(file, object);
+        }
+    }
+
+    /**
+     * Opens the object store along with every pack within it.
+     */
+    @Override
+    public void open() {
+        super.open();
+        Path packDir = this.getBaseDirectory().resolve(PACK_DIR);
+        if (!Files.isDirectory(packDir)) {
+            return;
+        }
+        String glob = "pack-*" + Pack.IDX_EXT;
+        try (DirectoryStream<Path> str =
+                Files.newDirectoryStream(packDir, glob)) {
+            for (Path idx : str) {
+                this.packs.add(Pack.open(idx));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the object store and its packs, writing the commit graph and
+     * logging to the message index if commits were added to them, and
+     * writing the shallow commits if they changed.
+     */
+    @Override
+    public void close() {
+        if (this.isOpen() && this.graph != null && this.graph.isChanged()) {
+            try {
+                this.graph.write(this.getBaseDirectory().resolve(GRAPH_FILE));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.graph = null;
+        super.close();
+        if (this.messages != null && this.messages.isChanged()) {
+            try {
+                this.messages.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.messages = null;
+        this.loose = null;
+        if (this.shallowChanged) {
+            this.writeShallow();
+        }
+        this.shallow = null;
+        this.shallowChanged = false;
+        this.closePromisors();
+        for (Pack pack : this.packs) {
+            try {
+                pack.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.packs.clear();
+    }
+
+    /**
+     * Writes the list of shallow commits, deleting it once there are none.
+     */
+    private void writeShallow() {
+        Path file = this.getBaseDirectory().resolve(SHALLOW_FILE);
+        try {
+            if (this.shallow.isEmpty()) {
+                Files.deleteIfExists(file);
+                return;
+            }
+            Path temp = AtomicFiles.temp(file);
+            try {
+                Files.write(temp, this.shallow);
+            } catch (IOException e) {
+                AtomicFiles.abort(temp);
+                throw e;
+            }
+            AtomicFiles.commit(temp, file);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return null;
     }
 
     /**
@@ -140,7 +1464,7 @@ public class GitletObjectManager extends LazySerialManager<GitletObject> {
      *            The hash to convert.
      * @return The file path.
      */
-    private static String hashToFile(String hash) {
+    static String hashToFile(String hash) {
         return hash.substring(0, DIR_DELIM) + "/"
                 + hash.substring(DIR_DELIM, hash.length());
     }
@@ -158,4 +1482,107 @@ public class GitletObjectManager extends LazySerialManager<GitletObject> {
     protected boolean niceSerialization() {
         return false;
     }
+
+    /**
+     * Gitlet objects are named by their hash, so they never change.
+     */
+    @Override
+    protected boolean isImmutable() {
+        return true;
+    }
+
+    /**
+     * Represents the receiving end of a pack stream, which unpacks entries
+     * into temporary loose objects until there are too many, then writes
+     * them and the rest to a new pack.
+     * @author william
+     */
+    private class Receiver implements PackStream.Sink {
+        /**
+         * The hashes of the objects received.
+         */
+        private List<String> received;
+
+        /**
+         * The temporary loose objects, by hash.
+         */
+        private Map<String, Path> unpacked;
+
+        /**
+         * The writer of the new pack, once there is one.
+         */
+        private PackWriter writer;
+
+        /**
+         * Creates the receiving end of a stream.
+         */
+        Receiver() {
+            this.received = new ArrayList<>();
+            this.unpacked = new LinkedHashMap<>();
+        }
+
+        @Override
+        public void accept(String hash, InputStream payload, long length)
+                throws IOException {
+            this.received.add(hash);
+            if (this.writer == null && this.unpacked.size() >= UNPACK_LIMIT) {
+                this.toPack();
+            }
+            if (this.writer != null) {
+                this.writer.add(hash, payload, length);
+                return;
+            }
+            Path temp = Files.createTempFile(
+                    GitletObjectManager.this.getBaseDirectory(), "tmp-", "");
+            this.unpacked.put(hash, temp);
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                PackStream.copy(hash, payload, out, length);
+            }
+        }
+
+        /**
+         * Starts writing a pack, moving the objects unpacked so far into it.
+         * @throws IOException
+         *             If the pack could not be written.
+         */
+        void toPack() throws IOException {
+            this.writer = new PackWriter(
+                    GitletObjectManager.this.getBaseDirectory()
+                            .resolve(PACK_DIR));
+            for (Map.Entry<String, Path> entry : this.unpacked.entrySet()) {
+                this.writer.add(entry.getKey(), entry.getValue());
+                Files.delete(entry.getValue());
+            }
+            this.unpacked.clear();
+        }
+
+        /**
+         * Stores the objects received, once the stream has proven intact.
+         * @throws IOException
+         *             If they could not be stored.
+         */
+        void store() throws IOException {
+            if (this.writer != null) {
+                GitletObjectManager.this.packs.add(this.writer.finish());
+            }
+            for (Map.Entry<String, Path> entry : this.unpacked.entrySet()) {
+                GitletObjectManager.this.install(entry.getKey(),
+                        entry.getValue());
+            }
+        }
+
+        /**
+         * Deletes whatever temporary files are left.
+         * @throws IOException
+         *             If they could not be deleted.
+         */
+        void abandon() throws IOException {
+            if (this.writer != null) {
+                this.writer.close();
+            }
+            for (Path temp : this.unpacked.values()) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
 }
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Provides a set of hash tools for computing the SHA-1 of gitlet objects and
+ * converting between the hexadecimal and raw forms of a SHA-1.
+ * @author william
+ */
+public class HashUtils {
+
+    /**
+     * The length in bytes of a raw SHA-1.
+     */
+    public static final int HASH_BYTES = 20;
+
+    /**
+     * The length in characters of a hexadecimal SHA-1.
+     */
+    public static final int HASH_LENGTH = 2 * HASH_BYTES;
+
+    /**
+     * The hexadecimal digits.
+     */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The size of the buffer through which files are digested.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Creates a new SHA-1 digest.
+     * @return The digest.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Feeds the canonical header of an object to a digest. The header is the
+     * type name, a space, the decimal content length and a NUL byte.
+     * @param digest
+     *            The digest.
+     * @param type
+     *            The type name of the object.
+     * @param length
+     *            The length of the content.
+     */
+    public static void digestHeader(MessageDigest digest, String type,
+            long length) {
+        digest.update((type + " " + length + "\0")
+                .getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Computes the SHA-1 of an object from its canonical content.
+     * @param type
+     *            The type name of the object.
+     * @param content
+     *            The canonical content.
+     * @return The hexadecimal hash.
+     */
+    public static String sha1(String type, byte[] content) {
+        MessageDigest digest = newDigest();
+        digestHeader(digest, type, content.length);
+        digest.update(content);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-1 of an object whose canonical content is a file,
+     * streaming the file through the digest rather than reading it whole.
+     * @param type
+     *            The type name of the object.
+     * @param file
+     *            The file.
+     * @return The hexadecimal hash.
+     * @throws IOException
+     *             If the file could not be read.
+     */
+    public static String sha1(String type, Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel =
+                FileChannel.open(file, StandardOpenOption.READ)) {
+            digestHeader(digest, type, channel.size());
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Converts a raw hash to its hexadecimal form.
+     * @param raw
+     *            The raw bytes.
+     * @return The hexadecimal string.
+     */
+    public static String toHex(byte[] raw) {
+        return toHex(raw, 0, raw.length);
+    }
+
+    /**
+     * Converts a section of a byte array to its hexadecimal form.
+     * @param raw
+     *            The raw bytes.
+     * @param offset
+     *            The first byte to convert.
+     * @param length
+     *            The number of bytes to convert.
+     * @return The hexadecimal string.
+     */
+    public static String toHex(byte[] raw, int offset, int length) {
+        char[] hex = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            int b = raw[offset + i] & 0xff;
+            hex[2 * i] = DIGITS[b >>> 4];
+            hex[2 * i + 1] = DIGITS[b & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Converts a hexadecimal hash to its raw form.
+     * @param hex
+     *            The hexadecimal string.
+     * @return The raw bytes.
+     */
+    public static byte[] toBytes(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Malformed hash " + hex + ".");
+        }
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException(
+                        "Malformed hash " + hex + ".");
+            }
+            raw[i] = (byte) (hi << 4 | lo);
+        }
+        return raw;
+    }
+
+    /**
+     * Determines if a string is a well formed (possibly abbreviated)
+     * hexadecimal hash.
+     * @param hex
+     *            The string.
+     * @return If every character is a lowercase hexadecimal digit.
+     */
+    public static boolean isHex(String hex) {
+        if (hex.length() > HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -3,63 +3,155 @@
  */
 package gitlet;
 
-import java.io.Serializable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.BiConsumer;
 
 /**
+ * Represents the gitlet index: for every path, the blob it tracks, whether
+ * that blob is staged, the blob staged for its removal and the stat data of
+ * its working file. Entries are read from a mapped index file on demand and
+ * every change is kept in a sorted overlay, so that saving the index only
+ * re-encodes the entries which changed, and saving an unchanged index writes
+ * nothing at all. Paths whose tracked blob was changed since the head commit
+ * are marked, so that a commit only rewrites the trees along them.
  * @author william
  */
-public class Index implements Serializable {
+public class Index {
 
     /**
-     * Serialization ID for gitlet.
+     * The index file the entries are read from, or null if there is none.
      */
-    private static final long serialVersionUID = -8630621570840209428L;
+    private IndexFile file;
 
     /**
-     * Gets a list of blobs.
+     * The entries changed since the index file was read, null values
+     * marking removed entries.
      */
-    private HashMap<String, String> blobs;
+    private TreeMap<String, Entry> changes;
 
     /**
-     * A tree map of the staged files in the index.
+     * Creates an empty gitlet index.
      */
-    private TreeMap<String, String> staged;
+    public Index() {
+        this(null);
+    }
 
     /**
-     * A tree map of the removed (staged) files in the index.
+     * Creates a gitlet index over an index file.
+     * @param file
+     *            The index file, or null if there is none.
      */
-    private TreeMap<String, String> removed;
+    private Index(IndexFile file) {
+        this.file = file;
+        this.changes = new TreeMap<>();
+    }
 
     /**
-     * Creates a gitlet index.
+     * Opens the index stored at a path.
+     * @param path
+     *            The path of the index file.
+     * @return The index, empty if there is no file.
+     * @throws IOException
+     *             If the file is corrupt.
      */
-    public Index() {
-        this.blobs = new HashMap<String, String>();
-        this.removed = new TreeMap<>();
-        this.staged = new TreeMap<>();
+    public static Index open(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return new Index();
+        }
+        return new Index(IndexFile.open(path));
     }
 
     /**
-     * Gets the blob from the stage and clears the staging area.
-     * @return A hashmap of filenames to blobs.
+     * Saves the changes to the index, if there are any.
+     * @param path
+     *            The path of the index file.
+     * @throws IOException
+     *             If the file could not be written.
+     */
+    public void save(Path path) throws IOException {
+        if (this.changes.isEmpty()) {
+            return;
+        }
+        IndexFile.write(path, this.file, this.changes);
+        this.file = IndexFile.open(path);
+        this.changes.clear();
+    }
+
+    /**
+     * Gets the paths changed since the head commit and clears the staging
+     * area.
+     * @return A map of the changed paths to their tracked blobs, or to null
+     *         for paths which are no longer tracked.
      */
-    public HashMap<String, String> blobsFromStage() {
+    public TreeMap<String, String> changesFromStage() {
         if (!this.isChanged()) {
             throw new IllegalStateException("No changes added to the commit.");
         }
 
+        TreeMap<String, String> changed = new TreeMap<>();
+        this.forEachEntry((name, entry) -> {
+                if (entry.changed) {
+                    changed.put(name, entry.tracked);
+                }
+            });
+        for (String name : changed.keySet()) {
+            this.edit(name).changed = false;
+        }
         this.clearStage();
-        return this.blobs;
+        return changed;
     }
 
     /**
-     * Non destructiveley gets the tracked blobs.
-     * @return
+     * Non destructiveley gets a snapshot of the tracked blobs.
+     * @return A hashmap of filenames to blobs.
      */
     public HashMap<String, String> getBlobs() {
-        return this.blobs;
+        HashMap<String, String> blobs = new HashMap<>();
+        this.forEachEntry((name, entry) -> {
+                if (entry.tracked != null) {
+                    blobs.put(name, entry.tracked);
+                }
+            });
+        return blobs;
+    }
+
+    /**
+     * Determines if a file is tracked.
+     * @param fileName
+     *            The file.
+     * @return If it is.
+     */
+    public boolean isTracked(String fileName) {
+        return this.getTracked(fileName) != null;
+    }
+
+    /**
+     * Gets the blob tracked for a file.
+     * @param fileName
+     *            The file.
+     * @return The hash of the blob, or null if the file is not tracked.
+     */
+    public String getTracked(String fileName) {
+        Entry entry = this.lookup(fileName);
+        return entry == null ? null : entry.tracked;
+    }
+
+    /**
+     * Determines if a file is staged.
+     * @param fileName
+     *            The file.
+     * @return If it is.
+     */
+    public boolean isStaged(String fileName) {
+        Entry entry = this.lookup(fileName);
+        return entry != null && entry.tracked != null && entry.staged;
     }
 
     /**
@@ -74,15 +166,42 @@ public class Index implements Serializable {
         if (stage) {
             this.add(filename, hash);
         } else {
-            this.blobs.put(filename, hash);
-            this.staged.remove(filename);
-            this.removed.remove(filename);
+            Entry entry = this.edit(filename);
+            entry.tracked = hash;
+            entry.staged = false;
+            entry.removed = null;
+            entry.changed = true;
         }
     }
 
-    public void checkout(Commit commit) {
+    /**
+     * Moves the index to a new head commit and clears the stage.
+     * @param changes
+     *            The blobs of the new commit at every path which differs
+     *            from the old head or which the index changed, or null for
+     *            paths the new commit lacks.
+     */
+    public void checkout(Map<String, String> changes) {
         this.clearStage();
-        this.blobs = commit.getBlobs();
+        changes.forEach((name, hash) -> {
+                Entry entry = this.edit(name);
+                entry.tracked = hash;
+                entry.changed = false;
+            });
+    }
+
+    /**
+     * Lists the paths whose tracked blob may differ from the head commit.
+     * @return The paths.
+     */
+    public List<String> getChanged() {
+        List<String> changed = new ArrayList<>();
+        this.forEachEntry((name, entry) -> {
+                if (entry.changed) {
+                    changed.add(name);
+                }
+            });
+        return changed;
     }
 
     /**
@@ -93,15 +212,16 @@ public class Index implements Serializable {
      *            The hash of the blob.
      */
     public void add(String fileName, String hash) {
-        if (this.removed.containsKey(fileName)) {
-            String removedHash = this.removed.remove(fileName);
-            this.blobs.put(fileName, removedHash);
+        Entry entry = this.edit(fileName);
+        entry.changed = true;
+        if (entry.removed != null) {
+            entry.tracked = entry.removed;
+            entry.removed = null;
         } else {
-            if (!this.blobs.containsKey(fileName)
-                    || !this.blobs.get(fileName).equals(hash)) {
-                this.staged.put(fileName, hash);
+            if (!hash.equals(entry.tracked)) {
+                entry.staged = true;
             }
-            this.blobs.put(fileName, hash);
+            entry.tracked = hash;
         }
 
     }
@@ -111,45 +231,140 @@ public class Index implements Serializable {
      * @param fileName
      */
     public void remove(String fileName, boolean fromLastCommit) {
-        if (!this.blobs.containsKey(fileName)) {
+        if (!this.isTracked(fileName)) {
             throw new IllegalStateException("No reason to remove the file.");
         }
+        Entry entry = this.edit(fileName);
         if (fromLastCommit) {
-            this.removed.put(fileName, this.blobs.get(fileName));
+            entry.removed = entry.tracked;
         }
+        entry.changed = true;
 
-        this.staged.remove(fileName);
-        this.blobs.remove(fileName);
+        entry.staged = false;
+        entry.tracked = null;
     }
 
     public void unstage(String fileName) {
-        if (!this.blobs.containsKey(fileName)) {
+        if (!this.isTracked(fileName)) {
             throw new IllegalStateException("No reason to remove the file.");
         }
 
-        this.staged.remove(fileName);
+        this.edit(fileName).staged = false;
+    }
+
+    /**
+     * Gets the hash of a working file, reading it only if its stat data have
+     * changed since it was last hashed.
+     * @param fileName
+     *            The name of the file.
+     * @param file
+     *            The path of the file.
+     * @param stat
+     *            The current stat data of the file.
+     * @return The hash of its contents as a blob.
+     * @throws IOException
+     *             If the file could not be read.
+     */
+    public String hash(String fileName, Path file, FileStat stat)
+            throws IOException {
+        String hash = this.cachedHash(fileName, stat);
+        if (hash == null) {
+            hash = Blob.hash(file);
+            this.record(fileName, stat, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Gets the hash of a working file if its stat data prove it unchanged
+     * since it was last hashed. Safe to call concurrently so long as the
+     * index is not being changed.
+     * @param fileName
+     *            The name of the file.
+     * @param stat
+     *            The current stat data of the file.
+     * @return The hash, or null if the file must be hashed.
+     */
+    public String cachedHash(String fileName, FileStat stat) {
+        Entry entry = this.lookup(fileName);
+        if (entry == null || entry.stat == null
+                || !entry.stat.isUnchanged(stat)) {
+            return null;
+        }
+        return entry.statHash;
+    }
+
+    /**
+     * Records the hash of a working file along with the stat data read
+     * before it was hashed.
+     * @param fileName
+     *            The name of the file.
+     * @param stat
+     *            The stat data.
+     * @param hash
+     *            The hash.
+     */
+    public void record(String fileName, FileStat stat, String hash) {
+        Entry entry = this.edit(fileName);
+        entry.stat = stat;
+        entry.statHash = hash;
+    }
+
+    /**
+     * Forgets the stat data of a working file.
+     * @param fileName
+     *            The name of the file.
+     */
+    public void forget(String fileName) {
+        Entry entry = this.lookup(fileName);
+        if (entry != null && entry.stat != null) {
+            entry = this.edit(fileName);
+            entry.stat = null;
+            entry.statHash = null;
+        }
     }
 
     /**
      * Clears the stage.
      */
     private void clearStage() {
-        this.removed.clear();
-        this.staged.clear();
+        List<String> staged = new ArrayList<>();
+        this.forEachEntry((name, entry) -> {
+                if (entry.staged || entry.removed != null) {
+                    staged.add(name);
+                }
+            });
+        for (String name : staged) {
+            Entry entry = this.edit(name);
+            entry.staged = false;
+            entry.removed = null;
+        }
     }
 
     /**
      * @return the removed
      */
     public TreeMap<String, String> getRemoved() {
-        return this.removed;
+        TreeMap<String, String> removed = new TreeMap<>();
+        this.forEachEntry((name, entry) -> {
+                if (entry.removed != null) {
+                    removed.put(name, entry.removed);
+                }
+            });
+        return removed;
     }
 
     /**
      * @return the union of removed and modified.
      */
     public TreeMap<String, String> getStaged() {
-        return this.staged;
+        TreeMap<String, String> staged = new TreeMap<>();
+        this.forEachEntry((name, entry) -> {
+                if (entry.tracked != null && entry.staged) {
+                    staged.put(name, entry.tracked);
+                }
+            });
+        return staged;
     }
 
     /**
@@ -157,8 +372,100 @@ public class Index implements Serializable {
      * @return If it has changed.
      */
     public boolean isChanged() {
-        // TODO Auto-generated method stub
-        return this.removed.size() + this.staged.size() != 0;
+        return !this.getStaged().isEmpty() || !this.getRemoved().isEmpty();
+    }
+
+    /**
+     * Looks up the entry of a file, preferring changed entries to those of
+     * the index file.
+     * @param fileName
+     *            The file.
+     * @return The entry, or null if there is none.
+     */
+    private Entry lookup(String fileName) {
+        if (this.changes.containsKey(fileName)) {
+            return this.changes.get(fileName);
+        }
+        return this.file == null ? null : this.file.find(fileName);
+    }
+
+    /**
+     * Gets the entry of a file for changing, moving it into the changes.
+     * @param fileName
+     *            The file.
+     * @return The entry, created if there was none.
+     */
+    private Entry edit(String fileName) {
+        Entry entry = this.lookup(fileName);
+        if (entry == null) {
+            entry = new Entry();
+        }
+        this.changes.put(fileName, entry);
+        return entry;
+    }
+
+    /**
+     * Performs an action on every entry.
+     * @param action
+     *            The action.
+     */
+    private void forEachEntry(BiConsumer<String, Entry> action) {
+        if (this.file != null) {
+            this.file.forEach((name, entry) -> {
+                    if (!this.changes.containsKey(name)) {
+                        action.accept(name, entry);
+                    }
+                });
+        }
+        this.changes.forEach((name, entry) -> {
+                if (entry != null) {
+                    action.accept(name, entry);
+                }
+            });
+    }
+
+    /**
+     * Represents the entry of a single path in the index.
+     * @author william
+     */
+    static class Entry {
+        /**
+         * The hash of the tracked blob, or null if the path is not tracked.
+         */
+        String tracked;
+
+        /**
+         * If the tracked blob is staged.
+         */
+        boolean staged;
+
+        /**
+         * The hash of the blob staged for removal, or null if there is none.
+         */
+        String removed;
+
+        /**
+         * The stat data of the working file when it was last hashed, or null.
+         */
+        FileStat stat;
+
+        /**
+         * The hash of the working file when it was last hashed, or null.
+         */
+        String statHash;
+
+        /**
+         * If the tracked blob may differ from that of the head commit.
+         */
+        boolean changed;
+
+        /**
+         * @return if the entry holds nothing and need not be stored.
+         */
+        boolean isEmpty() {
+            return this.tracked == null && this.removed == null
+                    && this.stat == null && !this.changed;
+        }
     }
 
 }
@@ -0,0 +1,448 @@
+package gitlet;
+
+import static gitlet.HashUtils.HASH_BYTES;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Represents the on-disk form of the index: a header, one entry per path
+ * sorted by path, a table of entry offsets and a SHA-1 trailer over
+ * everything before it. The file is read with a single memory map and
+ * entries are found by a binary search over the offset table, decoding only
+ * the entries visited. Rewriting the file copies the bytes of every run of
+ * unchanged entries and encodes only the entries which changed.
+ * <p>
+ * Each entry holds the length of its path and the path in UTF-8, a flag byte
+ * (which also marks entries that may differ from the head commit), then the
+ * raw hash of the tracked blob and of the removed blob if it has them, then
+ * its stat data and the hash they vouch for if it has them.
+ * @author william
+ */
+public class IndexFile {
+
+    /**
+     * The magic number beginning every index file ("GINX").
+     */
+    static final int MAGIC = 0x47494e58;
+
+    /**
+     * The version of the index format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the header: magic, version and entry count.
+     */
+    private static final int HEADER = 12;
+
+    /**
+     * The flag of entries holding a tracked blob.
+     */
+    private static final int TRACKED = 1;
+
+    /**
+     * The flag of entries whose tracked blob is staged.
+     */
+    private static final int STAGED = 2;
+
+    /**
+     * The flag of entries holding a blob staged for removal.
+     */
+    private static final int REMOVED = 4;
+
+    /**
+     * The flag of entries holding stat data.
+     */
+    private static final int STAT = 8;
+
+    /**
+     * The flag of entries which may differ from the head commit.
+     */
+    private static final int CHANGED = 16;
+
+    /**
+     * The size of the buffer through which unchanged entries are copied.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The mapped file.
+     */
+    private MappedByteBuffer buffer;
+
+    /**
+     * The number of entries.
+     */
+    private int count;
+
+    /**
+     * The offset of the offset table.
+     */
+    private int table;
+
+    /**
+     * Creates an index file over its mapped contents.
+     * @param buffer
+     *            The mapped contents.
+     * @param count
+     *            The number of entries.
+     */
+    private IndexFile(MappedByteBuffer buffer, int count) {
+        this.buffer = buffer;
+        this.count = count;
+        this.table = buffer.capacity() - HASH_BYTES - 4 * count;
+    }
+
+    /**
+     * Maps an index file and verifies its trailer.
+     * @param path
+     *            The path of the file.
+     * @return The index file.
+     * @throws IOException
+     *             If the file could not be read or is corrupt.
+     */
+    public static IndexFile open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel =
+                FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = buffer.capacity();
+        if (size < HEADER + HASH_BYTES || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Corrupt index.");
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || HEADER + 4L * count + HASH_BYTES > size) {
+            throw new IOException("Corrupt index.");
+        }
+
+        MessageDigest digest = HashUtils.newDigest();
+        ByteBuffer contents = buffer.duplicate();
+        contents.limit(size - HASH_BYTES);
+        digest.update(contents);
+        byte[] trailer = new byte[HASH_BYTES];
+        buffer.duplicate().position(size - HASH_BYTES).get(trailer);
+        if (!Arrays.equals(digest.digest(), trailer)) {
+            throw new IOException("Corrupt index checksum.");
+        }
+        return new IndexFile(buffer, count);
+    }
+
+    /**
+     * @return the number of entries.
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Finds the entry of a path by binary search.
+     * @param name
+     *            The path.
+     * @return The entry, or null if there is none.
+     */
+    Index.Entry find(String name) {
+        int i = this.lowerBound(name);
+        if (i < this.count && this.nameAt(i).equals(name)) {
+            return this.entryAt(i);
+        }
+        return null;
+    }
+
+    /**
+     * Performs an action on every entry in order of path.
+     * @param action
+     *            The action.
+     */
+    void forEach(BiConsumer<String, Index.Entry> action) {
+        for (int i = 0; i < this.count; i++) {
+            action.accept(this.nameAt(i), this.entryAt(i));
+        }
+    }
+
+    /**
+     * Finds the first entry whose path is not less than a path.
+     * @param name
+     *            The path.
+     * @return The position of the entry, or the count if there is none.
+     */
+    private int lowerBound(String name) {
+        int lo = 0;
+        int hi = this.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.nameAt(mid).compareTo(name) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param i
+     *            The position of an entry.
+     * @return the offset of the entry within the file.
+     */
+    private int offset(int i) {
+        return this.buffer.getInt(this.table + 4 * i);
+    }
+
+    /**
+     * Decodes the path of an entry.
+     * @param i
+     *            The position of the entry.
+     * @return The path.
+     */
+    private String nameAt(int i) {
+        ByteBuffer entry = this.buffer.duplicate();
+        entry.position(this.offset(i));
+        byte[] name = new byte[entry.getShort() & 0xffff];
+        entry.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes an entry.
+     * @param i
+     *            The position of the entry.
+     * @return The entry.
+     */
+    private Index.Entry entryAt(int i) {
+        ByteBuffer in = this.buffer.duplicate();
+        in.position(this.offset(i));
+        int nameLength = in.getShort() & 0xffff;
+        in.position(in.position() + nameLength);
+
+        Index.Entry entry = new Index.Entry();
+        int flags = in.get();
+        if ((flags & TRACKED) != 0) {
+            entry.tracked = readHash(in);
+            entry.staged = (flags & STAGED) != 0;
+        }
+        entry.changed = (flags & CHANGED) != 0;
+        if ((flags & REMOVED) != 0) {
+            entry.removed = readHash(in);
+        }
+        if ((flags & STAT) != 0) {
+            long size = in.getLong();
+            long modified = in.getLong();
+            long recorded = in.getLong();
+            String key = null;
+            int keyLength = in.getShort();
+            if (keyLength >= 0) {
+                byte[] raw = new byte[keyLength];
+                in.get(raw);
+                key = new String(raw, StandardCharsets.UTF_8);
+            }
+            entry.stat = new FileStat(size, modified, key, recorded);
+            entry.statHash = readHash(in);
+        }
+        return entry;
+    }
+
+    /**
+     * Reads a raw hash.
+     * @param in
+     *            The buffer.
+     * @return The hexadecimal hash.
+     */
+    private static String readHash(ByteBuffer in) {
+        byte[] raw = new byte[HASH_BYTES];
+        in.get(raw);
+        return HashUtils.toHex(raw);
+    }
+
+    /**
+     * Writes an index file, atomically replacing whatever is at its path.
+     * Entries of the base file which have not changed are copied byte for
+     * byte in runs; changed entries are encoded, and empty ones are
+     * dropped.
+     * @param path
+     *            The path of the file.
+     * @param base
+     *            The file the changes apply to, or null if there is none.
+     * @param changes
+     *            The changed entries, null values marking removed entries.
+     * @throws IOException
+     *             If the file could not be written.
+     */
+    static void write(Path path, IndexFile base,
+            SortedMap<String, Index.Entry> changes) throws IOException {
+        int baseCount = base == null ? 0 : base.count;
+        int[] positions = new int[changes.size()];
+        boolean[] replaces = new boolean[changes.size()];
+        int count = baseCount;
+        int c = 0;
+        for (Map.Entry<String, Index.Entry> change : changes.entrySet()) {
+            if (base != null) {
+                positions[c] = base.lowerBound(change.getKey());
+                replaces[c] = positions[c] < baseCount && base
+                        .nameAt(positions[c]).equals(change.getKey());
+            }
+            if (replaces[c]) {
+                count--;
+            }
+            if (change.getValue() != null && !change.getValue().isEmpty()) {
+                count++;
+            }
+            c++;
+        }
+
+        Path temp = AtomicFiles.temp(path);
+        MessageDigest digest = HashUtils.newDigest();
+        int[] offsets = new int[count];
+        try (OutputStream file = Files.newOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(
+                        new DigestOutputStream(
+                                new BufferedOutputStream(file, BUFFER_SIZE),
+                                digest))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+
+            int written = 0;
+            int next = 0;
+            c = 0;
+            for (Map.Entry<String, Index.Entry> change : changes.entrySet()) {
+                written = base == null ? written
+                        : base.copy(next, positions[c], out, offsets, written);
+                next = replaces[c] ? positions[c] + 1 : positions[c];
+                Index.Entry entry = change.getValue();
+                if (entry != null && !entry.isEmpty()) {
+                    offsets[written++] = out.size();
+                    writeEntry(out, change.getKey(), entry);
+                }
+                c++;
+            }
+            if (base != null) {
+                written = base.copy(next, baseCount, out, offsets, written);
+            }
+
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            out.flush();
+            file.write(digest.digest());
+        } catch (IOException e) {
+            AtomicFiles.abort(temp);
+            throw e;
+        }
+        AtomicFiles.commit(temp, path);
+    }
+
+    /**
+     * Copies the bytes of a run of entries, recording their new offsets.
+     * @param from
+     *            The first entry of the run.
+     * @param to
+     *            One past the last entry of the run.
+     * @param out
+     *            The stream of the new file.
+     * @param offsets
+     *            The offsets of the entries of the new file.
+     * @param written
+     *            The number of entries of the new file written so far.
+     * @return The number of entries of the new file written after the run.
+     * @throws IOException
+     *             If the run could not be written.
+     */
+    private int copy(int from, int to, DataOutputStream out, int[] offsets,
+            int written) throws IOException {
+        if (from >= to) {
+            return written;
+        }
+        int start = this.offset(from);
+        int end = to < this.count ? this.offset(to) : this.table;
+        int shift = out.size() - start;
+        for (int i = from; i < to; i++) {
+            offsets[written++] = this.offset(i) + shift;
+        }
+
+        ByteBuffer run = this.buffer.duplicate();
+        run.position(start).limit(end);
+        byte[] chunk = new byte[Math.min(BUFFER_SIZE, end - start)];
+        while (run.hasRemaining()) {
+            int length = Math.min(chunk.length, run.remaining());
+            run.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+        return written;
+    }
+
+    /**
+     * Encodes an entry.
+     * @param out
+     *            The stream.
+     * @param name
+     *            The path of the entry.
+     * @param entry
+     *            The entry.
+     * @throws IOException
+     *             If the entry could not be written.
+     */
+    private static void writeEntry(DataOutputStream out, String name,
+            Index.Entry entry) throws IOException {
+        byte[] raw = name.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(raw.length);
+        out.write(raw);
+
+        int flags = 0;
+        if (entry.tracked != null) {
+            flags |= TRACKED;
+            if (entry.staged) {
+                flags |= STAGED;
+            }
+        }
+        if (entry.removed != null) {
+            flags |= REMOVED;
+        }
+        if (entry.stat != null) {
+            flags |= STAT;
+        }
+        if (entry.changed) {
+            flags |= CHANGED;
+        }
+        out.writeByte(flags);
+
+        if (entry.tracked != null) {
+            out.write(HashUtils.toBytes(entry.tracked));
+        }
+        if (entry.removed != null) {
+            out.write(HashUtils.toBytes(entry.removed));
+        }
+        if (entry.stat != null) {
+            out.writeLong(entry.stat.getSize());
+            out.writeLong(entry.stat.getModified());
+            out.writeLong(entry.stat.getRecorded());
+            if (entry.stat.getKey() == null) {
+                out.writeShort(-1);
+            } else {
+                byte[] key = entry.stat.getKey()
+                        .getBytes(StandardCharsets.UTF_8);
+                out.writeShort(key.length);
+                out.write(key);
+            }
+            out.write(HashUtils.toBytes(entry.statHash));
+        }
+    }
+}
@@ -5,6 +5,8 @@ package gitlet;
 
 import java.beans.XMLDecoder;
 import java.beans.XMLEncoder;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -14,15 +16,15 @@ import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * @author william Represents a general file object manager.
@@ -31,17 +33,23 @@ public abstract class LazySerialManager<T extends Serializable>
         implements Iterable<T> {
 
     /**
-     * The database name.
+     * The name of the file in which older stores listed their objects,
+     * which is never listed as an object itself.
      */
-    private static final String DB_NAME = "SERIAL";
+    static final String DB_NAME = "SERIAL";
+    /**
+     * The weight estimated for an added object unless it is weighed
+     * otherwise.
+     */
+    private static final long ADDED_WEIGHT = 1 << 8;
     /**
      * All loaded objects.
      */
-    private HashMap<String, Serializable> loadedObjects;
+    private ObjectCache cache;
     /**
-     * List of all objects that could possibly be loaded.
+     * The files of the loaded objects which must be written back.
      */
-    protected HashMap<Class<?>, Set<String>> tracker;
+    private Set<String> dirty;
     /** Base file object directory */
     private Path baseDirectory;
     /**
@@ -57,8 +65,8 @@ public abstract class LazySerialManager<T extends Serializable>
     public LazySerialManager(Path base) {
         this.baseDirectory = base;
         this.open = false;
-        this.loadedObjects = new HashMap<>();
-        this.tracker = new LinkedHashMap<>();
+        this.cache = new ObjectCache();
+        this.dirty = new HashSet<>();
     }
 
     /**
@@ -69,12 +77,7 @@ public abstract class LazySerialManager<T extends Serializable>
      */
     public <S extends T> S get(Class<S> type, String file) {
         try {
-            Serializable obj = this.loadedObjects.get(file);
-            if (obj == null) {
-                return this.load(type, file);
-            } else {
-                return type.cast(obj);
-            }
+            return this.fetch(type, file);
         } catch (ClassCastException e) {
             String name = type.getSimpleName();
             throw new IllegalArgumentException(
@@ -89,18 +92,41 @@ public abstract class LazySerialManager<T extends Serializable>
      */
     public <S extends T> void add(String file, S toAdd) {
 
-        if (this.loadedObjects.get(file) != null
-                || this.loadUnsafe(file) != null) {
+        if (this.holds(file)) {
             throw new IllegalStateException(toAdd.getClass().getSimpleName()
                     + " as specified already exists.");
         }
-        this.loadedObjects.put(file, toAdd);
-        Set<String> tracked = this.tracker.get(toAdd.getClass());
-        if (tracked == null) {
-            tracked = new LinkedHashSet<String>();
-            this.tracker.put(toAdd.getClass(), tracked);
+        this.cache.put(file, toAdd, this.weigh(toAdd), true);
+        this.markDirty(file);
+    }
+
+    /**
+     * Holds an object read by some means other than its own file as though
+     * it had been loaded from it, so that it is written back to that file if
+     * it changes.
+     * @param file
+     *            The file name of the object.
+     * @param object
+     *            The object.
+     * @param weight
+     *            The weight of the object in bytes.
+     */
+    protected void adopt(String file, T object, long weight) {
+        this.cache.put(file, object, weight, !this.isImmutable());
+    }
+
+    /**
+     * Marks a loaded object as changed, so that it is written back when the
+     * manager is closed. Objects which are not marked are never rewritten.
+     * @param file
+     *            The file name of the object.
+     */
+    protected void markDirty(String file) {
+        if (!this.cache.pin(file)) {
+            throw new IllegalStateException(
+                    "Only loaded objects can be written back.");
         }
-        tracked.add(file);
+        this.dirty.add(file);
     }
 
     /**
@@ -110,13 +136,7 @@ public abstract class LazySerialManager<T extends Serializable>
      * @return If ti does contain the file.
      */
     public boolean contains(String file) {
-        for (Class<?> type : this.tracker.keySet()) {
-            if (this.contains(type, file)) {
-                return true;
-            }
-        }
-
-        return false;
+        return this.holds(file);
     }
 
     /**
@@ -128,12 +148,89 @@ public abstract class LazySerialManager<T extends Serializable>
      * @return If it does.
      */
     public <S extends T> boolean contains(Class<?> type, String file) {
-        Set<String> files = this.tracker.get(type);
-        if (files == null) {
-            return false;
+        return this.holds(type, file);
+    }
+
+    /**
+     * Determines if the manager holds an object, whether stored or added.
+     * @param file
+     *            The file name of the object.
+     * @return If it does.
+     */
+    private boolean holds(String file) {
+        return this.cache.contains(file) || this.isStored(file);
+    }
+
+    /**
+     * Determines if the manager holds an object of a given type.
+     * @param type
+     *            The type.
+     * @param file
+     *            The file name of the object.
+     * @return If it does.
+     */
+    private boolean holds(Class<?> type, String file) {
+        Class<?> stored = this.typeOf(file);
+        return stored != null && type.isAssignableFrom(stored);
+    }
+
+    /**
+     * Determines if an object is stored.
+     * @param file
+     *            The file name of the object.
+     * @return If it is.
+     */
+    protected boolean isStored(String file) {
+        return Files.isRegularFile(this.baseDirectory.resolve(file));
+    }
+
+    /**
+     * Determines the type of an object held, loading it if need be.
+     * @param file
+     *            The file name of the object.
+     * @return The type, or null if there is no such object.
+     */
+    protected Class<?> typeOf(String file) {
+        Serializable obj = this.cache.peek(file);
+        if (obj == null) {
+            obj = this.loadUnsafe(file);
         }
+        return obj == null ? null : obj.getClass();
+    }
 
-        return files.contains(file);
+    /**
+     * Lists the file names of every stored object, which are the files
+     * beneath the base directory.
+     * @param files
+     *            The collection the file names are added to.
+     */
+    protected void listStored(Collection<String> files) {
+        if (!Files.isDirectory(this.baseDirectory)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(this.baseDirectory)) {
+            walk.filter(Files::isRegularFile).forEach(path -> {
+                    String name = path.getFileName().toString();
+                    if (!name.equals(DB_NAME)
+                            && !name.startsWith(AtomicFiles.TEMP_PREFIX)) {
+                        files.add(this.baseDirectory.relativize(path)
+                                .toString().replace(File.separatorChar, '/'));
+                    }
+                });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Lists the file names of every object held, stored or added.
+     * @return The file names, sorted.
+     */
+    protected TreeSet<String> files() {
+        TreeSet<String> files = new TreeSet<>();
+        this.listStored(files);
+        files.addAll(this.dirty);
+        return files;
     }
 
     /**
@@ -147,8 +244,7 @@ public abstract class LazySerialManager<T extends Serializable>
         try {
             Path filePath = this.baseDirectory.resolve(file);
 
-            if (!this.tracker.containsKey(type)
-                    || !this.tracker.get(type).contains(file)) {
+            if (!this.holds(type, file)) {
                 throw new IllegalArgumentException(type.getSimpleName()
                         + " as specified does not exist.");
             }
@@ -157,8 +253,8 @@ public abstract class LazySerialManager<T extends Serializable>
                 Files.delete(filePath);
             }
 
-            this.tracker.get(type).remove(file);
-            this.loadedObjects.remove(file);
+            this.cache.remove(file);
+            this.dirty.remove(file);
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -168,7 +264,38 @@ public abstract class LazySerialManager<T extends Serializable>
     protected abstract boolean niceSerialization();
 
     /**
-     * Opens a lazy serial manager.
+     * Determines if the objects of the manager never change once stored, so
+     * that a loaded object may be evicted from the cache and read back when
+     * it is next needed. Managers whose objects may change keep every object
+     * they load until they are closed.
+     * @return If they never change.
+     */
+    protected boolean isImmutable() {
+        return false;
+    }
+
+    /**
+     * Determines if a loaded object was changed in place since it was read,
+     * beyond those marked dirty.
+     * @param object
+     *            The object.
+     * @return If it was.
+     */
+    protected boolean isChanged(Serializable object) {
+        return false;
+    }
+
+    /**
+     * @return the cache of loaded objects, with its counters.
+     */
+    public ObjectCache cache() {
+        return this.cache;
+    }
+
+    /**
+     * Opens a lazy serial manager. Nothing is read until an object is
+     * needed, as the objects held are those found beneath the base
+     * directory.
      */
     public void open() {
         this.open = true;
@@ -180,17 +307,6 @@ public abstract class LazySerialManager<T extends Serializable>
                 e.printStackTrace();
             }
         }
-
-        @SuppressWarnings("unchecked")
-        HashMap<Class<?>, Set<String>> trck =
-                (HashMap<Class<?>, Set<String>>) this.loadUnsafe(DB_NAME);
-
-        if (trck == null) {
-            this.loadedObjects.put(DB_NAME, this.tracker);
-        } else {
-            this.tracker = trck;
-        }
-
     }
 
     /**
@@ -202,14 +318,18 @@ public abstract class LazySerialManager<T extends Serializable>
     }
 
     /**
-     * Closes a repository and serializes every loaded object.
+     * Closes a repository, writing back every loaded object which was added
+     * or changed. Nothing is written if only reads were made.
      */
     public void close() {
         if (this.isOpen()) {
             this.open = false;
-            this.save(DB_NAME, this.tracker);
-            this.loadedObjects.forEach((file, obj) -> this.save(file, obj));
-
+            this.cache.forEach((file, obj) -> {
+                    if (this.dirty.contains(file) || this.isChanged(obj)) {
+                        this.save(file, obj);
+                    }
+                });
+            this.dirty.clear();
         }
     }
 
@@ -229,12 +349,18 @@ public abstract class LazySerialManager<T extends Serializable>
      */
     public <S extends T> void lazyForEach(Class<S> type,
             Consumer<? super String> action) {
-        if (!this.tracker.containsKey(type)) {
+        List<String> files = new ArrayList<>();
+        for (String file : this.files()) {
+            if (this.holds(type, file)) {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
             String name = type.getSimpleName();
             throw new IllegalStateException(
                     "No " + name.toLowerCase() + "s exist.");
         }
-        this.tracker.get(type).forEach(action);
+        files.forEach(action);
     }
 
     /**
@@ -246,13 +372,8 @@ public abstract class LazySerialManager<T extends Serializable>
      */
     public <S extends T> void forEach(Class<S> type,
             final BiConsumer<? super String, ? super S> action) {
-        if (!this.tracker.containsKey(type)) {
-            String name = type.getSimpleName();
-            throw new IllegalStateException(
-                    "No " + name.toLowerCase() + "s exist.");
-        }
-        this.tracker.get(type)
-                .forEach(file -> action.accept(file, this.load(type, file)));
+        this.lazyForEach(type,
+                file -> action.accept(file, this.fetch(type, file)));
     }
 
     /**
@@ -260,14 +381,7 @@ public abstract class LazySerialManager<T extends Serializable>
      */
     @Override
     public Iterator<T> iterator() {
-        List<Iterator<String>> iterators = new ArrayList<Iterator<String>>();
-        this.tracker.forEach((type, files) -> iterators.add(files.iterator()));
-
-        List<Iterator<T>> fileIterators =
-                iterators.stream().map(x -> this.new LoadingIterator(x))
-                        .collect(Collectors.toList());
-
-        return new ConcatIterator<>(fileIterators);
+        return this.new LoadingIterator(this.files().iterator());
     }
 
     /**
@@ -310,55 +424,51 @@ public abstract class LazySerialManager<T extends Serializable>
     }
 
     /**
-     * Loads an object into the lazy cache.
+     * Gets an object from the cache, loading it if it is not held.
+     * @param type
+     *            The type of the object.
      * @param file
-     * @return
+     *            The file name of the object.
+     * @return The object, or null if there is no such object.
      */
-    private <S extends T> S load(Class<S> type, String file)
+    private <S extends T> S fetch(Class<S> type, String file)
             throws ClassCastException {
-        Path filePath = this.baseDirectory.resolve(file);
-        try {
-            InputStream fin = Files.newInputStream(filePath);
-            ObjectInputStream oin = new ObjectInputStream(fin);
-
-            Object unsafe;
-            if (this.niceSerialization()) {
-                XMLDecoder e = new XMLDecoder(oin);
-                unsafe = e.readObject();
-                e.close();
-            } else {
-                unsafe = oin.readObject();
-            }
-
-            S loaded = type.cast(unsafe);
-
-            oin.close();
-            fin.close();
-
-            this.loadedObjects.put(file, loaded);
-            return loaded;
-
-        } catch (IOException i) {
-            return null;
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-            return null;
+        Serializable obj = this.cache.get(file);
+        if (obj == null) {
+            return this.load(type, file);
         }
+        return type.cast(obj);
+    }
 
+    /**
+     * Loads an object into the lazy cache.
+     * @param type
+     *            The type of the object.
+     * @param file
+     *            The file to load.
+     * @return The loaded object.
+     */
+    private <S extends T> S load(Class<S> type, String file)
+            throws ClassCastException {
+        return type.cast(this.loadUnsafe(file));
     }
 
     /**
-     * Loads a file unsafeley.
+     * Loads a file unsafeley. The object is weighed by the bytes of its
+     * serialized form.
      * @param file
      *            The file to load.
      * @return The loaded gile.
      */
     @SuppressWarnings("unchecked")
     private T loadUnsafe(String file) {
-        Path filePath = this.baseDirectory.resolve(file);
         try {
-            InputStream fin = Files.newInputStream(filePath);
-            ObjectInputStream oin = new ObjectInputStream(fin);
+            InputStream fin = this.openObject(file);
+            if (fin == null) {
+                return null;
+            }
+            CountingInputStream counted = new CountingInputStream(fin);
+            ObjectInputStream oin = new ObjectInputStream(counted);
 
             Object unsafe;
             if (this.niceSerialization()) {
@@ -374,7 +484,7 @@ public abstract class LazySerialManager<T extends Serializable>
             oin.close();
             fin.close();
 
-            this.loadedObjects.put(file, loaded);
+            this.cache.put(file, loaded, counted.count, !this.isImmutable());
             return loaded;
 
         } catch (IOException i) {
@@ -386,32 +496,116 @@ public abstract class LazySerialManager<T extends Serializable>
     }
 
     /**
-     * Saves a serilizable object object.
+     * Estimates the weight of an added object. Added objects are pinned
+     * until they are written, so their weight only counts toward the bytes
+     * held, and serializing each one just to weigh it would double the
+     * cost of adding it.
+     * @param object
+     *            The object.
+     * @return The weight in bytes.
+     */
+    protected long weigh(T object) {
+        return ADDED_WEIGHT;
+    }
+
+    /**
+     * Opens the stored form of an object for reading.
+     * @param file
+     *            The file name/relative path.
+     * @return The stream, or null if the object is not stored.
+     * @throws IOException
+     *             If the object could not be opened.
+     */
+    protected InputStream openObject(String file) throws IOException {
+        return Files.newInputStream(this.baseDirectory.resolve(file));
+    }
+
+    /**
+     * Creates the stored form of an object for writing.
+     * @param path
+     *            The file the object is written to.
+     * @param object
+     *            The object about to be written.
+     * @return The stream.
+     * @throws IOException
+     *             If the object could not be created.
+     */
+    protected OutputStream createObject(Path path, Object object)
+            throws IOException {
+        return Files.newOutputStream(path);
+    }
+
+    /**
+     * Saves a serilizable object object. The object is written to a
+     * temporary file which replaces the old one only once it is complete,
+     * so a write which fails midway leaves the old object in place.
      * @param file
      *            The file name/relative path.
      * @param object
      *            The object to save.
      */
-    private void save(String file, Object object) {
-        Path filePath = this.baseDirectory.resolve(file);
+    protected void save(String file, Object object) {
+        Path target = this.baseDirectory.resolve(file);
+        Path temp = null;
         try {
-            if (!Files.exists(filePath.getParent())) {
-                Files.createDirectories(filePath.getParent());
+            temp = AtomicFiles.temp(target);
+            try (OutputStream fin = this.createObject(temp, object);
+                    ObjectOutputStream oin = new ObjectOutputStream(fin)) {
+                if (this.niceSerialization()) {
+                    XMLEncoder e = new XMLEncoder(oin);
+                    e.writeObject(object);
+                    e.close();
+                } else {
+                    oin.writeObject(object);
+                }
             }
-            OutputStream fin = Files.newOutputStream(filePath);
-            ObjectOutputStream oin = new ObjectOutputStream(fin);
-            if (this.niceSerialization()) {
-                XMLEncoder e = new XMLEncoder(oin);
-                e.writeObject(object);
-                e.close();
-            } else {
-                oin.writeObject(object);
-            }
-            oin.close();
-            fin.close();
+            AtomicFiles.commit(temp, target);
+            temp = null;
 
         } catch (IOException i) {
             i.printStackTrace();
+        } finally {
+            if (temp != null) {
+                AtomicFiles.abort(temp);
+            }
+        }
+    }
+
+    /**
+     * Represents a stream which counts the bytes read through it.
+     * @author william
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        /**
+         * The number of bytes read.
+         */
+        private long count;
+
+        /**
+         * Creates a counting stream.
+         * @param in
+         *            The stream to read through.
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return n;
         }
     }
 
@@ -28,9 +28,10 @@ public class LsCommitCommand implements Command {
         }
 
         System.out.println(commit.toString());
-        commit.forEach((name, hash) -> {
-            System.out.println(name + "\t" + hash);
-        });
+        Tree.flatten(repo.objects(), commit.getTree())
+                .forEach((name, hash) -> {
+                    System.out.println(name + "\t" + hash);
+                });
 
     }
 
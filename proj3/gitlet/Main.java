@@ -27,6 +27,8 @@ public class Main {
         processor.add("rm-branch", new RemoveBranchCommand());
         processor.add("reset", new ResetCommand());
         processor.add("merge", new MergeCommand());
+        processor.add("repack", new RepackCommand());
+        processor.add("gc", new GarbageCollectCommand());
 
         processor.add("add-remote", new AddRemoteCommand());
         processor.add("rm-remote", new RemoveRemoteCommand());
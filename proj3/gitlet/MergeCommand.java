@@ -8,13 +8,17 @@ import static gitlet.ReferenceType.HEAD;
 import static gitlet.ReferenceType.TAG;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author william
@@ -58,6 +62,7 @@ public class MergeCommand implements Command {
         if (splitHash.equals(headHash)) {
             ResetCommand.reset(repo, otherHash);
             System.out.println("Current branch fast-forwarded.");
+            return;
         }
         if (splitHash.isEmpty()) {
             splitHash = repo.refs().resolve(TAG, "initial");
@@ -70,14 +75,17 @@ public class MergeCommand implements Command {
         boolean conflicts = mergeCompare(repo, head, other, split);
         if (!conflicts) {
             repo.addCommitAtHead("Merged " + repo.refs().get(HEAD).target()
-                    + " with " + branch + ".", repo.index().blobsFromStage());
+                    + " with " + branch + ".", repo.index().changesFromStage(),
+                    Collections.singletonList(otherHash));
         } else {
             throw new IllegalStateException("Encountered a merge conflict.");
         }
     }
 
     /**
-     * Handles the actual checkout of the merge.
+     * Handles the actual checkout of the merge. Only the paths the other
+     * commit changed since the split point, and which the head does not
+     * already match, are considered.
      * @param repo
      *            The repository.
      * @param head
@@ -91,48 +99,24 @@ public class MergeCommand implements Command {
     private static boolean mergeCompare(Repository repo, Commit head,
             Commit other, Commit split) {
 
-        List<String> toCheckout = new ArrayList<String>();
+        List<TreeDiff.MergeChange> toCheckout = new ArrayList<>();
         List<String> toRemove = new ArrayList<String>();
-        List<String> inConflict = new ArrayList<String>();
-
-        other.forEach((file, otherHash) -> {
-                String splitHash = split.get(file);
-                String headHash = head.get(file);
-    
-                if (splitHash == null) {
-                    if (headHash == null) {
-                        toCheckout.add(file);
-                    } else if (!headHash.equals(otherHash)) {
-                        inConflict.add(file);
-                    }
-                } else if (!otherHash.equals(headHash)) {
-                    if (headHash == null) {
-                        if (!otherHash.equals(splitHash)) {
-                            inConflict.add(file);
-                        }
-                    } else if (headHash.equals(splitHash)) {
-                        toCheckout.add(file);
-                    } else if (!otherHash.equals(headHash)) {
-                        inConflict.add(file);
-                    }
-                }
-            });
-
-        head.forEach((file, headHash) -> {
-                String splitHash = split.get(file);
-                String otherHash = other.get(file);
-                if (splitHash != null && otherHash == null) {
-                    if (headHash.equals(splitHash)) {
-                        toRemove.add(file);
-                    } else {
-                        inConflict.add(file);
-                    }
-                }
-            });
+        List<TreeDiff.MergeChange> inConflict = new ArrayList<>();
+
+        for (TreeDiff.MergeChange change : TreeDiff.diff3(repo.objects(),
+                split.getTree(), head.getTree(), other.getTree())) {
+            if (!change.isClean()) {
+                inConflict.add(change);
+            } else if (change.getTheirs() == null) {
+                toRemove.add(change.getPath());
+            } else {
+                toCheckout.add(change);
+            }
+        }
 
-        mergeCheckout(repo, other, toCheckout);
+        mergeCheckout(repo, toCheckout);
         mergeRemove(repo, head, toRemove);
-        mergeConflict(repo, head, other, inConflict);
+        mergeConflict(repo, inConflict);
 
         return !inConflict.isEmpty();
     }
@@ -141,25 +125,25 @@ public class MergeCommand implements Command {
      * Checks out all files that mergeCompare deems mergable.
      * @param repo
      *            The repository.
-     * @param other
-     *            The commit from which to checkout.
      * @param toCheckout
-     *            The files to checkout.
+     *            The changes to checkout.
      */
-    private static void mergeCheckout(Repository repo, Commit other,
-            Collection<String> toCheckout) {
+    private static void mergeCheckout(Repository repo,
+            Collection<TreeDiff.MergeChange> toCheckout) {
         Path workingDir = repo.getWorkingDir();
         Index index = repo.index();
 
-        for (String file : toCheckout) {
+        for (TreeDiff.MergeChange change : toCheckout) {
+            String file = change.getPath();
             if (Files.exists(workingDir.resolve(file))
-                    && !index.getBlobs().containsKey(file)) {
+                    && !index.isTracked(file)) {
                 throw new IllegalStateException("There is an untracked "
                         + "file in the way; delete it or add it first.");
             }
         }
 
-        toCheckout.forEach(x -> repo.checkout(other, x, true));
+        toCheckout.forEach(x -> repo.checkout(x.getPath(), x.getTheirs(),
+                true));
     }
 
     /**
@@ -167,8 +151,6 @@ public class MergeCommand implements Command {
      * removable.
      * @param repo
      * @param head
-     * @param other
-     * @param split
      * @param toRemove
      */
     private static void mergeRemove(Repository repo, Commit head,
@@ -180,44 +162,40 @@ public class MergeCommand implements Command {
      * Merges the conflicts by displaying their differences.
      * @param repo
      *            The repository.
-     * @param head
-     *            The head.
-     * @param other
-     *            The other.
      * @param inConflict
-     *            The files in conflict.
+     *            The changes in conflict.
      */
-    private static void mergeConflict(Repository repo, Commit head,
-            Commit other, Collection<String> inConflict) {
+    private static void mergeConflict(Repository repo,
+            Collection<TreeDiff.MergeChange> inConflict) {
         Index index = repo.index();
-        for (String file : inConflict) {
+        for (TreeDiff.MergeChange change : inConflict) {
+            String file = change.getPath();
             Path filePath = repo.getWorkingDir().resolve(file);
 
             try {
-                Files.write(filePath, "<<<<<<< HEAD\n".getBytes());
+                Files.createDirectories(filePath.getParent());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try (OutputStream out = Files.newOutputStream(filePath)) {
+                out.write("<<<<<<< HEAD\n".getBytes());
 
-                if (head.containsKey(file)) {
-                    Blob headVersion = repo.objects().get(Blob.class,
-                            head.getBlobs().get(file));
-                    Files.write(filePath, headVersion.getContents(),
-                            StandardOpenOption.APPEND);
+                if (change.getOurs() != null) {
+                    repo.objects().get(Blob.class, change.getOurs())
+                            .writeTo(out);
                 }
 
-                Files.write(filePath, "=======\n".getBytes(),
-                        StandardOpenOption.APPEND);
+                out.write("=======\n".getBytes());
 
-                if (other.getBlobs().containsKey(file)) {
-                    Blob otherVersion = repo.objects().get(Blob.class,
-                            other.getBlobs().get(file));
-                    Files.write(filePath, otherVersion.getContents(),
-                            StandardOpenOption.APPEND);
+                if (change.getTheirs() != null) {
+                    repo.objects().get(Blob.class, change.getTheirs())
+                            .writeTo(out);
                 }
 
-                Files.write(filePath, ">>>>>>>\n".getBytes(),
-                        StandardOpenOption.APPEND);
+                out.write(">>>>>>>\n".getBytes());
 
                 // unstage the file.
-                if (index.getBlobs().containsKey(file)) {
+                if (index.isTracked(file)) {
                     index.unstage(file);
                 }
 
@@ -243,21 +221,13 @@ public class MergeCommand implements Command {
             return a;
         }
 
-        List<String> aHistory =
-                (List<String>) getHistory(repoA, a, new ArrayList<String>());
-        Collection<String> bHistory =
-                getHistory(repoA, b, new HashSet<String>());
-
-        aHistory.retainAll(bHistory);
-        if (aHistory.isEmpty()) {
-            return "";
-        } else {
-            return aHistory.get(0);
-        }
+        String split = repoA.objects().graph().mergeBase(a, b);
+        return split == null ? "" : split;
     }
 
     /**
-     * Gets the commit history from a starting point.
+     * Gets the commit history from a starting point, following every parent
+     * of merge commits.
      * @param repo
      * @param start
      * @param history
@@ -265,10 +235,20 @@ public class MergeCommand implements Command {
      */
     public static Collection<String> getHistory(Repository repo, String start,
             Collection<String> history) {
-        String cur = start;
-        while (!cur.isEmpty()) {
+        Set<String> seen = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            String cur = pending.pop();
+            if (cur.isEmpty() || !seen.add(cur)) {
+                continue;
+            }
             history.add(cur);
-            cur = repo.objects().get(Commit.class, cur).getParent();
+            List<String> parents =
+                    repo.objects().get(Commit.class, cur).getParents();
+            for (int i = parents.size() - 1; i >= 0; i--) {
+                pending.push(parents.get(i));
+            }
         }
         return history;
     }
@@ -0,0 +1,620 @@
+package gitlet;
+
+import static gitlet.HashUtils.HASH_BYTES;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+
+/**
+ * Represents an inverted index from the words of commit messages to the
+ * commits whose messages hold them, so that commits can be found by their
+ * messages without loading every commit. Only the few commits holding
+ * every word of a search are loaded, to check their messages in full.
+ * <p>
+ * The index is kept in two files beside the object store. The index file
+ * holds a header, the raw hashes of the indexed commits, the offset of each
+ * word and then each word, sorted, followed by the positions of the commits
+ * holding it; it is mapped and searched in place. Commits stored since the
+ * index file was written are appended to a log of their hashes and messages,
+ * which is folded into the index file once it grows long or the store is
+ * repacked. The index is derived from the commits, so a store without an
+ * index file is searched by loading every commit, as it was before the
+ * index existed, until commits are next stored and the index is built.
+ * @author william
+ */
+public class MessageIndex {
+
+    /**
+     * The magic number beginning every message index file ("GMSI").
+     */
+    static final int MAGIC = 0x474d5349;
+
+    /**
+     * The version of the message index format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the header: magic, version, commit and word counts.
+     */
+    private static final int HEADER = 16;
+
+    /**
+     * The number of logged commits beyond which the log is folded into the
+     * index file.
+     */
+    static final int COMPACT_THRESHOLD = 1 << 12;
+
+    /**
+     * The longest word indexed; longer words are indexed by their start.
+     */
+    private static final int MAX_WORD = 64;
+
+    /**
+     * The store the commits are loaded from.
+     */
+    private GitletObjectManager objects;
+
+    /**
+     * The path of the index file.
+     */
+    private Path indexPath;
+
+    /**
+     * The path of the log.
+     */
+    private Path logPath;
+
+    /**
+     * The mapped index file, or null if there is none.
+     */
+    private ByteBuffer index;
+
+    /**
+     * The number of commits in the index file.
+     */
+    private int commitCount;
+
+    /**
+     * The number of words in the index file.
+     */
+    private int wordCount;
+
+    /**
+     * The position of the word offsets in the index file.
+     */
+    private int offsetsStart;
+
+    /**
+     * The position of the words in the index file.
+     */
+    private int wordsStart;
+
+    /**
+     * The commits holding each word, for the commits in the log.
+     */
+    private HashMap<String, Set<String>> logged;
+
+    /**
+     * The number of commits in the log.
+     */
+    private int loggedCount;
+
+    /**
+     * The length of the log up to its last complete record.
+     */
+    private long logLength;
+
+    /**
+     * The hashes and messages of the commits added since the log was read.
+     */
+    private List<String[]> pending;
+
+    /**
+     * Creates an empty message index.
+     * @param objects
+     *            The store the commits are loaded from.
+     * @param indexPath
+     *            The path of the index file.
+     * @param logPath
+     *            The path of the log.
+     */
+    private MessageIndex(GitletObjectManager objects, Path indexPath,
+            Path logPath) {
+        this.objects = objects;
+        this.indexPath = indexPath;
+        this.logPath = logPath;
+        this.logged = new HashMap<>();
+        this.pending = new ArrayList<>();
+    }
+
+    /**
+     * Reads the message index stored at two paths.
+     * @param objects
+     *            The store the commits are loaded from.
+     * @param indexPath
+     *            The path of the index file.
+     * @param logPath
+     *            The path of the log.
+     * @return The message index.
+     * @throws IOException
+     *             If the index file is corrupt.
+     */
+    public static MessageIndex open(GitletObjectManager objects,
+            Path indexPath, Path logPath) throws IOException {
+        MessageIndex messages = new MessageIndex(objects, indexPath, logPath);
+        messages.map();
+        messages.readLog();
+        return messages;
+    }
+
+    /**
+     * Maps the index file, if there is one.
+     * @throws IOException
+     *             If it is corrupt.
+     */
+    private void map() throws IOException {
+        this.index = null;
+        if (!Files.exists(this.indexPath)) {
+            return;
+        }
+        ByteBuffer in;
+        try (FileChannel channel =
+                FileChannel.open(this.indexPath, StandardOpenOption.READ)) {
+            in = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.capacity() < HEADER || in.getInt(0) != MAGIC
+                || in.getInt(4) != VERSION) {
+            throw new IOException("Corrupt message index.");
+        }
+        this.commitCount = in.getInt(8);
+        this.wordCount = in.getInt(12);
+        this.offsetsStart = HEADER + HASH_BYTES * this.commitCount;
+        this.wordsStart = this.offsetsStart + 4 * (this.wordCount + 1);
+        if (this.commitCount < 0 || this.wordCount < 0
+                || this.wordsStart > in.capacity() || this.wordsStart
+                        + in.getInt(this.wordsStart - 4) != in.capacity()) {
+            throw new IOException("Corrupt message index.");
+        }
+        this.index = in;
+    }
+
+    /**
+     * Reads the log, ignoring a record cut short by a crash.
+     */
+    private void readLog() throws IOException {
+        if (!Files.exists(this.logPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(this.logPath))) {
+            while (true) {
+                byte[] raw = new byte[HASH_BYTES];
+                in.readFully(raw);
+                byte[] message = new byte[in.readInt()];
+                in.readFully(message);
+                this.log(HashUtils.toHex(raw),
+                        new String(message, StandardCharsets.UTF_8));
+                this.logLength += HASH_BYTES + 4 + message.length;
+            }
+        } catch (EOFException e) {
+            return;
+        }
+    }
+
+    /**
+     * Records the words of a logged commit.
+     * @param hash
+     *            The hash of the commit.
+     * @param message
+     *            The message of the commit.
+     */
+    private void log(String hash, String message) {
+        for (String word : words(message)) {
+            this.logged.computeIfAbsent(word, w -> new TreeSet<>()).add(hash);
+        }
+        this.loggedCount++;
+    }
+
+    /**
+     * Adds a newly stored commit to the index.
+     * @param hash
+     *            The hash of the commit.
+     * @param message
+     *            The message of the commit.
+     */
+    public void add(String hash, String message) {
+        this.log(hash, message);
+        this.pending.add(new String[] { hash, message });
+    }
+
+    /**
+     * @return if commits were added since the index was read.
+     */
+    public boolean isChanged() {
+        return !this.pending.isEmpty();
+    }
+
+    /**
+     * Appends the commits added since the index was read to the log,
+     * folding the log into the index file if it grew too long. A store
+     * without an index file has it built from every commit instead.
+     * @throws IOException
+     *             If the log could not be written.
+     */
+    public void flush() throws IOException {
+        if (this.pending.isEmpty()) {
+            return;
+        } else if (this.index == null) {
+            this.rebuild();
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String[] commit : this.pending) {
+            byte[] message = commit[1].getBytes(StandardCharsets.UTF_8);
+            out.write(HashUtils.toBytes(commit[0]));
+            out.writeInt(message.length);
+            out.write(message);
+        }
+        try (FileChannel log = FileChannel.open(this.logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            log.truncate(this.logLength);
+            log.position(this.logLength);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            log.force(true);
+        }
+        this.logLength += bytes.size();
+        this.pending.clear();
+
+        if (this.loggedCount > COMPACT_THRESHOLD) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Folds the log into the index file. A store without an index file
+     * has it built from every commit instead.
+     * @throws IOException
+     *             If the index could not be written.
+     */
+    public void compact() throws IOException {
+        if (this.index == null) {
+            this.rebuild();
+            return;
+        }
+        if (this.loggedCount == 0) {
+            return;
+        }
+        TreeMap<String, Set<String>> words = new TreeMap<>();
+        for (int w = 0; w < this.wordCount; w++) {
+            Set<String> commits = new TreeSet<>();
+            this.postings(w, commits);
+            words.put(this.wordAt(w), commits);
+        }
+        this.logged.forEach((word, commits) -> words
+                .computeIfAbsent(word, x -> new TreeSet<>()).addAll(commits));
+        this.write(words);
+    }
+
+    /**
+     * Builds the index file from every commit in the store.
+     * @throws IOException
+     *             If the index could not be written.
+     */
+    public void rebuild() throws IOException {
+        TreeMap<String, Set<String>> words = new TreeMap<>();
+        try {
+            this.objects.forEach(Commit.class, (hash, commit) -> {
+                    for (String word : words(commit.getMessage())) {
+                        words.computeIfAbsent(word, x -> new TreeSet<>())
+                                .add(hash);
+                    }
+                });
+        } catch (IllegalStateException e) {
+            // No commits are stored, so the index is empty.
+        }
+        this.write(words);
+    }
+
+    /**
+     * Writes the index file and empties the log.
+     * @param words
+     *            The commits holding each word, sorted by word.
+     * @throws IOException
+     *             If the index could not be written.
+     */
+    private void write(TreeMap<String, Set<String>> words)
+            throws IOException {
+        TreeSet<String> hashes = new TreeSet<>();
+        words.values().forEach(hashes::addAll);
+        HashMap<String, Integer> ids = new HashMap<>();
+        for (String hash : hashes) {
+            ids.put(hash, ids.size());
+        }
+
+        Path temp = AtomicFiles.temp(this.indexPath);
+        try (OutputStream file = Files.newOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(hashes.size());
+            out.writeInt(words.size());
+            for (String hash : hashes) {
+                out.write(HashUtils.toBytes(hash));
+            }
+            int offset = 0;
+            out.writeInt(offset);
+            for (Map.Entry<String, Set<String>> entry : words.entrySet()) {
+                offset += 2 + entry.getKey()
+                        .getBytes(StandardCharsets.UTF_8).length + 4
+                        + 4 * entry.getValue().size();
+                out.writeInt(offset);
+            }
+            for (Map.Entry<String, Set<String>> entry : words.entrySet()) {
+                byte[] word =
+                        entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(word.length);
+                out.write(word);
+                out.writeInt(entry.getValue().size());
+                for (String hash : entry.getValue()) {
+                    out.writeInt(ids.get(hash));
+                }
+            }
+        } catch (IOException e) {
+            AtomicFiles.abort(temp);
+            throw e;
+        }
+        AtomicFiles.commit(temp, this.indexPath);
+        Files.deleteIfExists(this.logPath);
+
+        this.logged.clear();
+        this.loggedCount = 0;
+        this.logLength = 0;
+        this.pending.clear();
+        this.map();
+    }
+
+    /**
+     * Finds the commits whose message is exactly some message.
+     * @param message
+     *            The message.
+     * @return The hashes of the commits, sorted.
+     */
+    public List<String> find(String message) {
+        return this.search(message, false, String::equals);
+    }
+
+    /**
+     * Finds the commits whose message contains some text.
+     * @param text
+     *            The text.
+     * @return The hashes of the commits, sorted.
+     */
+    public List<String> findContaining(String text) {
+        return this.search(text, true, String::contains);
+    }
+
+    /**
+     * Finds the commits whose message starts with some text.
+     * @param text
+     *            The text.
+     * @return The hashes of the commits, sorted.
+     */
+    public List<String> findStarting(String text) {
+        return this.search(text, true, String::startsWith);
+    }
+
+    /**
+     * Finds the commits whose messages match a query. The commits holding
+     * every word of the query are gathered from the index, then loaded to
+     * check their messages. Without an index file every commit is loaded,
+     * and nothing is written.
+     * @param query
+     *            The query.
+     * @param partial
+     *            If a word of the query may be part of a word of a message.
+     * @param matches
+     *            If a message matches the query.
+     * @return The hashes of the commits, sorted.
+     */
+    private List<String> search(String query, boolean partial,
+            BiPredicate<String, String> matches) {
+        List<String> found = new ArrayList<>();
+        if (this.index == null) {
+            try {
+                this.objects.forEach(Commit.class, (hash, commit) -> {
+                        if (matches.test(commit.getMessage(), query)) {
+                            found.add(hash);
+                        }
+                    });
+            } catch (IllegalStateException e) {
+                // No commits are stored, so none match.
+            }
+            return found;
+        }
+
+        Set<String> candidates = null;
+        for (String word : words(query)) {
+            if (partial && (word.isEmpty() || word.length() >= MAX_WORD)) {
+                continue;
+            }
+            Set<String> holding = new TreeSet<>();
+            this.holding(word, partial, holding);
+            if (candidates == null) {
+                candidates = holding;
+            } else {
+                candidates.retainAll(holding);
+            }
+        }
+        if (candidates == null) {
+            candidates = new TreeSet<>();
+            this.holding(null, true, candidates);
+        }
+
+        for (String hash : candidates) {
+            if (this.objects.contains(Commit.class, hash) && matches.test(
+                    this.objects.get(Commit.class, hash).getMessage(),
+                    query)) {
+                found.add(hash);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gathers the commits holding a word. A word may be part of any word
+     * cut short at the longest length indexed, since its rest is unknown.
+     * @param word
+     *            The word, or null for every word.
+     * @param partial
+     *            If the word may be part of a word of a message.
+     * @param commits
+     *            The collection the hashes of the commits are added to.
+     */
+    private void holding(String word, boolean partial,
+            Collection<String> commits) {
+        if (partial) {
+            for (int w = 0; w < this.wordCount; w++) {
+                if (word == null || matchesPart(this.wordAt(w), word)) {
+                    this.postings(w, commits);
+                }
+            }
+            this.logged.forEach((logWord, hashes) -> {
+                    if (word == null || matchesPart(logWord, word)) {
+                        commits.addAll(hashes);
+                    }
+                });
+        } else {
+            int w = this.findWord(word);
+            if (w >= 0) {
+                this.postings(w, commits);
+            }
+            commits.addAll(this.logged.getOrDefault(word, new TreeSet<>()));
+        }
+    }
+
+    /**
+     * Determines if a part of a word may be in an indexed word.
+     * @param indexed
+     *            The indexed word, perhaps cut short.
+     * @param part
+     *            The part.
+     * @return If the indexed word holds the part or was cut short.
+     */
+    private static boolean matchesPart(String indexed, String part) {
+        return indexed.length() >= MAX_WORD || indexed.contains(part);
+    }
+
+    /**
+     * Finds a word in the index file by binary search.
+     * @param word
+     *            The word.
+     * @return Its position, or -1 if the index file lacks it.
+     */
+    private int findWord(String word) {
+        int low = 0;
+        int high = this.wordCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = this.wordAt(mid).compareTo(word);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a word of the index file.
+     * @param w
+     *            The position of the word.
+     * @return The word.
+     */
+    private String wordAt(int w) {
+        int start = this.wordsStart + this.index.getInt(this.offsetsStart
+                + 4 * w);
+        byte[] word = new byte[this.index.getShort(start) & 0xffff];
+        this.index.duplicate().position(start + 2).get(word);
+        return new String(word, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gathers the commits the index file holds under a word.
+     * @param w
+     *            The position of the word.
+     * @param commits
+     *            The collection the hashes of the commits are added to.
+     */
+    private void postings(int w, Collection<String> commits) {
+        int start = this.wordsStart + this.index.getInt(this.offsetsStart
+                + 4 * w);
+        int pos = start + 2 + (this.index.getShort(start) & 0xffff);
+        int count = this.index.getInt(pos);
+        byte[] raw = new byte[HASH_BYTES];
+        for (int i = 0; i < count; i++) {
+            int id = this.index.getInt(pos + 4 + 4 * i);
+            this.index.duplicate().position(HEADER + HASH_BYTES * id)
+                    .get(raw);
+            commits.add(HashUtils.toHex(raw));
+        }
+    }
+
+    /**
+     * Splits a message into its words: its runs of letters and digits, in
+     * lower case. A message without any is indexed under the empty word.
+     * @param message
+     *            The message.
+     * @return The words.
+     */
+    static Set<String> words(String message) {
+        Set<String> words = new TreeSet<>();
+        int start = -1;
+        for (int i = 0; i <= message.length(); i++) {
+            boolean letter = i < message.length()
+                    && Character.isLetterOrDigit(message.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                String word = message.substring(start,
+                        Math.min(i, start + MAX_WORD));
+                words.add(word.toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        if (words.isEmpty()) {
+            words.add("");
+        }
+        return words;
+    }
+}
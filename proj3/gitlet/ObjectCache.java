@@ -0,0 +1,297 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Holds the objects a serial manager has loaded or been given, bounded by
+ * their total weight in bytes. Objects which can be read back from the
+ * store are kept in least recently used order and evicted once the cache
+ * outgrows its capacity; objects which must still be saved are pinned and
+ * never evicted. The cache counts its hits, misses and evictions and the
+ * bytes it holds.
+ * @author william
+ */
+public class ObjectCache {
+
+    /**
+     * The capacity of a cache in bytes unless it is set otherwise.
+     */
+    public static final long DEFAULT_CAPACITY = 1L << 26;
+
+    /**
+     * The weight of each evictable object in least recently used order.
+     */
+    private LinkedHashMap<String, Entry> evictable;
+
+    /**
+     * The weight of each pinned object.
+     */
+    private HashMap<String, Entry> pinned;
+
+    /**
+     * The most bytes of evictable objects held at once.
+     */
+    private long capacity;
+
+    /**
+     * The bytes of the pinned objects held.
+     */
+    private long pinnedBytes;
+
+    /**
+     * The bytes of the evictable objects held.
+     */
+    private long evictableBytes;
+
+    /**
+     * The number of lookups which found their object.
+     */
+    private long hits;
+
+    /**
+     * The number of lookups which did not.
+     */
+    private long misses;
+
+    /**
+     * The number of objects evicted.
+     */
+    private long evictions;
+
+    /**
+     * Creates an empty cache of the default capacity.
+     */
+    public ObjectCache() {
+        this.evictable = new LinkedHashMap<>(16, 0.75f, true);
+        this.pinned = new HashMap<>();
+        this.capacity = DEFAULT_CAPACITY;
+    }
+
+    /**
+     * Looks up an object, counting a hit or a miss.
+     * @param file
+     *            The file name of the object.
+     * @return The object, or null if it is not held.
+     */
+    public Serializable get(String file) {
+        Entry entry = this.pinned.get(file);
+        if (entry == null) {
+            entry = this.evictable.get(file);
+        }
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.object;
+    }
+
+    /**
+     * Looks up an object without counting a lookup.
+     * @param file
+     *            The file name of the object.
+     * @return The object, or null if it is not held.
+     */
+    public Serializable peek(String file) {
+        Entry entry = this.pinned.get(file);
+        if (entry == null) {
+            entry = this.evictable.get(file);
+        }
+        return entry == null ? null : entry.object;
+    }
+
+    /**
+     * Determines if an object is held, without counting a lookup.
+     * @param file
+     *            The file name of the object.
+     * @return If it is.
+     */
+    public boolean contains(String file) {
+        return this.pinned.containsKey(file)
+                || this.evictable.containsKey(file);
+    }
+
+    /**
+     * Holds an object, replacing any held under the same name, then evicts
+     * the least recently used objects until the cache fits its capacity.
+     * @param file
+     *            The file name of the object.
+     * @param object
+     *            The object.
+     * @param weight
+     *            The weight of the object in bytes.
+     * @param pin
+     *            If the object must not be evicted.
+     */
+    public void put(String file, Serializable object, long weight,
+            boolean pin) {
+        this.remove(file);
+        Entry entry = new Entry(object, weight);
+        if (pin) {
+            this.pinned.put(file, entry);
+            this.pinnedBytes += weight;
+        } else {
+            this.evictable.put(file, entry);
+            this.evictableBytes += weight;
+            this.evict();
+        }
+    }
+
+    /**
+     * Pins an object held, so that it is no longer evicted.
+     * @param file
+     *            The file name of the object.
+     * @return If the object is held.
+     */
+    public boolean pin(String file) {
+        Entry entry = this.evictable.remove(file);
+        if (entry != null) {
+            this.evictableBytes -= entry.weight;
+            this.pinned.put(file, entry);
+            this.pinnedBytes += entry.weight;
+            return true;
+        }
+        return this.pinned.containsKey(file);
+    }
+
+    /**
+     * Stops holding an object.
+     * @param file
+     *            The file name of the object.
+     */
+    public void remove(String file) {
+        Entry entry = this.pinned.remove(file);
+        if (entry != null) {
+            this.pinnedBytes -= entry.weight;
+            return;
+        }
+        entry = this.evictable.remove(file);
+        if (entry != null) {
+            this.evictableBytes -= entry.weight;
+        }
+    }
+
+    /**
+     * Performs an action on every object held.
+     * @param action
+     *            The action.
+     */
+    public void forEach(BiConsumer<String, Serializable> action) {
+        this.pinned.forEach((file, entry) -> action.accept(file,
+                entry.object));
+        this.evictable.forEach((file, entry) -> action.accept(file,
+                entry.object));
+    }
+
+    /**
+     * Evicts the least recently used objects until the evictable objects
+     * fit the capacity.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest =
+                this.evictable.entrySet().iterator();
+        while (this.evictableBytes > this.capacity && eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            this.evictableBytes -= entry.weight;
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Sets the most bytes of evictable objects held at once, evicting
+     * objects if the cache no longer fits.
+     * @param bytes
+     *            The capacity.
+     */
+    public void setCapacity(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException(
+                    "The capacity of a cache cannot be negative.");
+        }
+        this.capacity = bytes;
+        this.evict();
+    }
+
+    /**
+     * @return the most bytes of evictable objects held at once.
+     */
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the bytes of every object held.
+     */
+    public long getResident() {
+        return this.pinnedBytes + this.evictableBytes;
+    }
+
+    /**
+     * @return the number of objects held.
+     */
+    public int size() {
+        return this.pinned.size() + this.evictable.size();
+    }
+
+    /**
+     * @return the number of lookups which found their object.
+     */
+    public long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of lookups which did not.
+     */
+    public long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * @return the number of objects evicted.
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    @Override
+    public String toString() {
+        return this.hits + " hits, " + this.misses + " misses, "
+                + this.evictions + " evictions, " + this.getResident()
+                + " bytes resident";
+    }
+
+    /**
+     * Represents an object held along with its weight.
+     * @author william
+     */
+    private static class Entry {
+        /**
+         * The object.
+         */
+        private Serializable object;
+
+        /**
+         * The weight of the object in bytes.
+         */
+        private long weight;
+
+        /**
+         * Creates an entry.
+         * @param object
+         *            The object.
+         * @param weight
+         *            The weight in bytes.
+         */
+        Entry(Serializable object, long weight) {
+            this.object = object;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Describes the stored form of gitlet objects. Every loose object file and
+ * every pack payload begins with a two byte header: the type of the object,
+ * then the encoding of the bytes which follow it in the low four bits and the
+ * codec which compresses them in the high four bits. Blobs are stored as
+ * their raw contents so that they can be streamed in and out of the store,
+ * or as a delta against an earlier version: the raw hash of the base and the
+ * depth of the delta chain follow the header uncompressed, then the delta.
+ * Every other object is stored through Java serialization.
+ * @author william
+ */
+public class ObjectFormat {
+
+    /**
+     * The type code of objects which are not gitlet objects.
+     */
+    public static final int TYPE_NONE = 0;
+
+    /**
+     * The type code of blobs.
+     */
+    public static final int TYPE_BLOB = 1;
+
+    /**
+     * The type code of commits.
+     */
+    public static final int TYPE_COMMIT = 2;
+
+    /**
+     * The type code of trees.
+     */
+    public static final int TYPE_TREE = 3;
+
+    /**
+     * The encoding of objects stored through Java serialization.
+     */
+    public static final int ENCODING_SERIAL = 0;
+
+    /**
+     * The encoding of objects stored as their raw contents.
+     */
+    public static final int ENCODING_RAW = 1;
+
+    /**
+     * The encoding of blobs stored as a delta against another blob.
+     */
+    public static final int ENCODING_DELTA = 2;
+
+    /**
+     * The codec of objects stored uncompressed.
+     */
+    public static final int CODEC_NONE = 0;
+
+    /**
+     * The codec of objects compressed with zlib deflate.
+     */
+    public static final int CODEC_DEFLATE = 1;
+
+    /**
+     * The size of the header.
+     */
+    public static final int HEADER_SIZE = 2;
+
+    /**
+     * The size of the buffer placed beneath inflating streams.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Gets the type code of an object.
+     * @param object
+     *            The object.
+     * @return The type code.
+     */
+    public static int typeOf(Object object) {
+        if (object instanceof Blob) {
+            return TYPE_BLOB;
+        } else if (object instanceof Commit) {
+            return TYPE_COMMIT;
+        } else if (object instanceof Tree) {
+            return TYPE_TREE;
+        }
+        return TYPE_NONE;
+    }
+
+    /**
+     * Gets the class of the objects stored under a type code.
+     * @param type
+     *            The type code.
+     * @return The class, or null if the code names no type.
+     */
+    public static Class<? extends GitletObject> classOf(int type) {
+        if (type == TYPE_BLOB) {
+            return Blob.class;
+        } else if (type == TYPE_COMMIT) {
+            return Commit.class;
+        } else if (type == TYPE_TREE) {
+            return Tree.class;
+        }
+        return null;
+    }
+
+    /**
+     * Represents the header of a stored object.
+     * @author william
+     */
+    public static class Header {
+        /**
+         * The type code.
+         */
+        private int type;
+
+        /**
+         * The encoding.
+         */
+        private int encoding;
+
+        /**
+         * The codec.
+         */
+        private int codec;
+
+        /**
+         * Creates a header.
+         * @param type
+         *            The type code.
+         * @param encoding
+         *            The encoding.
+         * @param codec
+         *            The codec.
+         */
+        public Header(int type, int encoding, int codec) {
+            this.type = type;
+            this.encoding = encoding;
+            this.codec = codec;
+        }
+
+        /**
+         * Reads a header from the start of a stored object.
+         * @param in
+         *            The stream over the stored object.
+         * @return The header.
+         * @throws IOException
+         *             If the header is truncated.
+         */
+        public static Header read(InputStream in) throws IOException {
+            int type = in.read();
+            int format = in.read();
+            if (type < 0 || format < 0) {
+                throw new IOException("Truncated object header.");
+            }
+            int codec = format >>> 4;
+            if (codec != CODEC_NONE && codec != CODEC_DEFLATE) {
+                throw new IOException("Unknown object codec " + codec + ".");
+            }
+            return new Header(type, format & 0xf, codec);
+        }
+
+        /**
+         * @return the bytes of the header.
+         */
+        public byte[] toBytes() {
+            return new byte[] { (byte) this.type,
+                (byte) (this.codec << 4 | this.encoding) };
+        }
+
+        /**
+         * Wraps a stream so that what is written through it is compressed
+         * with the codec of this header.
+         * @param out
+         *            The stream following the header.
+         * @return The compressing stream.
+         */
+        public OutputStream compress(OutputStream out) {
+            if (this.codec == CODEC_DEFLATE) {
+                return new DeflaterOutputStream(out);
+            }
+            return out;
+        }
+
+        /**
+         * Wraps a stream so that what is read through it is decompressed with
+         * the codec of this header.
+         * @param in
+         *            The stream following the header.
+         * @return The decompressing stream.
+         */
+        public InputStream decompress(InputStream in) {
+            if (this.codec == CODEC_DEFLATE) {
+                return new InflaterInputStream(
+                        new BufferedInputStream(in, BUFFER_SIZE));
+            }
+            return in;
+        }
+
+        /**
+         * @return the type code.
+         */
+        public int getType() {
+            return this.type;
+        }
+
+        /**
+         * @return the encoding.
+         */
+        public int getEncoding() {
+            return this.encoding;
+        }
+
+        /**
+         * @return the codec.
+         */
+        public int getCodec() {
+            return this.codec;
+        }
+    }
+}
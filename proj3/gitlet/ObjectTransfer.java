@@ -0,0 +1,456 @@
+package gitlet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Moves the history of a branch from one object store to another. The
+ * stores first settle which commits the receiver lacks, walking back from
+ * the head being sent and stopping at the first commit the receiver holds,
+ * as it holds everything that commit reaches. The lacking commits and the
+ * trees and blobs beneath them are then written by the sender to a single
+ * pack stream, which the receiver stores as it reads it, so that neither
+ * store loads the blobs or touches them one file at a time.
+ * @author william
+ */
+public class ObjectTransfer {
+
+    /**
+     * The option printing a report of the objects transferred.
+     */
+    public static final String VERBOSE_OPTION = "--verbose";
+
+    /**
+     * The size of the pipe between the sender and the receiver.
+     */
+    private static final int PIPE_SIZE = 1 << 16;
+
+    /**
+     * The most objects queued for the sender at once.
+     */
+    private static final int QUEUE_SIZE = 1 << 10;
+
+    /**
+     * The hash queued once the walk has ended.
+     */
+    private static final String END = new String();
+
+    /**
+     * Lists the commits reachable from a head which a store lacks, nearest
+     * first.
+     * @param from
+     *            The store holding the head.
+     * @param to
+     *            The store receiving it.
+     * @param head
+     *            The hash of the head.
+     * @return The hashes of the lacking commits.
+     */
+    public static List<String> negotiate(GitletObjectManager from,
+            GitletObjectManager to, String head) {
+        return negotiate(from, to, head, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Lists the commits within some depth of a head which a store lacks,
+     * nearest first, along with those it holds without their parents so
+     * that they can be deepened. The walk visits commits in order of their
+     * depth, the head being at depth one, and stops at each commit the
+     * store holds whole. A store holding shallow commits may hold whole
+     * commits whose history runs into them, so the walk passes through the
+     * commits it holds until it is past them.
+     * @param from
+     *            The store holding the head.
+     * @param to
+     *            The store receiving it.
+     * @param head
+     *            The hash of the head.
+     * @param depth
+     *            The depth of the deepest commits listed.
+     * @return The hashes of the commits.
+     */
+    public static List<String> negotiate(GitletObjectManager from,
+            GitletObjectManager to, String head, int depth) {
+        List<String> wants = new ArrayList<>();
+        Map<String, Integer> depths = new HashMap<>();
+        Deque<String> pending = new ArrayDeque<>();
+        if (!head.isEmpty()) {
+            depths.put(head, 1);
+            pending.add(head);
+        }
+        boolean deepening = to.hasShallow();
+        while (!pending.isEmpty()) {
+            String cur = pending.poll();
+            if (!to.contains(Commit.class, cur) || to.isShallow(cur)) {
+                wants.add(cur);
+            } else if (!deepening) {
+                continue;
+            }
+            int next = depths.get(cur) + 1;
+            if (next > depth) {
+                continue;
+            }
+            for (String parent : from.get(Commit.class, cur).getParents()) {
+                if (depths.putIfAbsent(parent, next) == null) {
+                    pending.add(parent);
+                }
+            }
+        }
+        return wants;
+    }
+
+    /**
+     * Records which of the commits sent the receiver holds without their
+     * parents: those it lacks a parent of, and those the sender held
+     * without theirs. Commits which were shallow and now have every parent
+     * are made whole.
+     * @param from
+     *            The store which sent the commits.
+     * @param to
+     *            The store which received them.
+     * @param commits
+     *            The hashes of the commits.
+     */
+    public static void graft(GitletObjectManager from,
+            GitletObjectManager to, List<String> commits) {
+        for (String hash : commits) {
+            boolean cut = from.isShallow(hash);
+            for (String parent : from.get(Commit.class, hash).getParents()) {
+                cut |= !to.contains(Commit.class, parent);
+            }
+            to.setShallow(hash, cut);
+        }
+    }
+
+    /**
+     * Sends commits, and the trees and blobs beneath them which the
+     * receiver lacks, between stores. Blobs stored as deltas are sent as
+     * deltas, along with their bases unless the receiver holds them.
+     * <p>
+     * The transfer runs as a pipeline of three threads: one walks the trees
+     * of the commits and queues the objects to send, one reads them from
+     * the sender and writes them to a pack stream, and the calling thread
+     * stores them in the receiver as the stream arrives. The queue and the
+     * pipe between the threads are bounded, so a faster stage waits on a
+     * slower one rather than buffering what it has done.
+     * @param from
+     *            The store holding the commits.
+     * @param to
+     *            The store receiving them.
+     * @param commits
+     *            The hashes of the commits, newest first.
+     * @return The report of what was sent.
+     */
+    public static Report send(GitletObjectManager from,
+            GitletObjectManager to, List<String> commits) {
+        return send(from, to, commits, true);
+    }
+
+    /**
+     * Sends commits and the trees beneath them, and the blobs too unless
+     * the receiver is to fetch them from the sender as it needs them.
+     * @param from
+     *            The store holding the commits.
+     * @param to
+     *            The store receiving them.
+     * @param commits
+     *            The hashes of the commits, newest first.
+     * @param blobs
+     *            If the blobs are sent.
+     * @return The report of what was sent.
+     */
+    public static Report send(GitletObjectManager from,
+            GitletObjectManager to, List<String> commits, boolean blobs) {
+        long start = System.nanoTime();
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        List<String> unwritten = new ArrayList<>();
+        Exception[] failures = new Exception[2];
+        long[] bytes = new long[1];
+
+        Thread walker = new Thread(() -> {
+                try {
+                    walk(from, to, commits, blobs, queue, unwritten);
+                } catch (IOException | RuntimeException e) {
+                    failures[0] = e;
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    queue.put(END);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            });
+
+        List<String> received;
+        try {
+            PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+            PipedOutputStream pipe = new PipedOutputStream(in);
+            Thread sender = new Thread(() -> {
+                    try (OutputStream out = pipe) {
+                        bytes[0] = PackStream.write(from, () -> {
+                                String hash = take(queue);
+                                if (hash != END) {
+                                    return hash;
+                                } else if (failures[0] != null) {
+                                    throw new IOException(
+                                            failures[0].getMessage());
+                                }
+                                return null;
+                            }, PackStream.UNKNOWN_COUNT, out);
+                    } catch (IOException | RuntimeException e) {
+                        failures[1] = e;
+                        walker.interrupt();
+                    }
+                });
+            walker.start();
+            sender.start();
+            received = receive(to, in, walker, sender, failures);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Could not send objects: " + e.getMessage());
+        }
+
+        for (String hash : unwritten) {
+            to.copy(from, hash);
+        }
+        return new Report(received.size() + unwritten.size(), bytes[0],
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Walks the trees of commits, queueing the objects the receiver lacks
+     * in an order in which every commit follows the objects it reaches.
+     * @param from
+     *            The store holding the commits.
+     * @param to
+     *            The store receiving them.
+     * @param commits
+     *            The hashes of the commits, newest first.
+     * @param blobs
+     *            If the blobs are sent.
+     * @param queue
+     *            The queue of the objects to stream.
+     * @param unwritten
+     *            The list of the objects to put instead.
+     * @throws IOException
+     *             If an object could not be read.
+     * @throws InterruptedException
+     *             If the transfer failed elsewhere.
+     */
+    private static void walk(GitletObjectManager from,
+            GitletObjectManager to, List<String> commits, boolean blobs,
+            BlockingQueue<String> queue, List<String> unwritten)
+            throws IOException, InterruptedException {
+        Set<String> seen = new HashSet<>();
+        Set<String> planned = new HashSet<>();
+        for (int i = commits.size() - 1; i >= 0; i--) {
+            String hash = commits.get(i);
+            List<String> objects = new ArrayList<>();
+            Tree.collect(from, to, from.get(Commit.class, hash).getTree(),
+                    seen, objects, blobs);
+            objects.add(hash);
+            for (String object : objects) {
+                plan(from, to, object, planned, queue, unwritten);
+            }
+        }
+    }
+
+    /**
+     * Plans to send an object the receiver lacks, after the base it is a
+     * delta against. A blob a partial sender lacks is first fetched from
+     * where it was promised. Objects the sender has yet to write cannot be
+     * streamed and are put once the stream has arrived.
+     * @param from
+     *            The store holding the object.
+     * @param to
+     *            The store receiving it.
+     * @param hash
+     *            The hash of the object.
+     * @param planned
+     *            The hashes of the objects already planned.
+     * @param queue
+     *            The queue of the objects to stream.
+     * @param unwritten
+     *            The list of the objects to put instead.
+     * @throws IOException
+     *             If the object could not be read.
+     * @throws InterruptedException
+     *             If the transfer failed elsewhere.
+     */
+    private static void plan(GitletObjectManager from,
+            GitletObjectManager to, String hash, Set<String> planned,
+            BlockingQueue<String> queue, List<String> unwritten)
+            throws IOException, InterruptedException {
+        if (!planned.add(hash) || to.contains(hash)) {
+            return;
+        }
+        String file = GitletObjectManager.hashToFile(hash);
+        if (!from.isStored(file) && !from.fetchPromised(hash)) {
+            unwritten.add(hash);
+            return;
+        }
+        if (from.typeOf(file) == Blob.class) {
+            String base = from.deltaBase(hash);
+            if (base != null) {
+                plan(from, to, base, planned, queue, unwritten);
+            }
+        }
+        queue.put(hash);
+    }
+
+    /**
+     * Takes the next object queued for the sender, waiting for the walk.
+     * @param queue
+     *            The queue.
+     * @return The hash of the object.
+     * @throws IOException
+     *             If the transfer failed elsewhere.
+     */
+    private static String take(BlockingQueue<String> queue)
+            throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("The transfer was interrupted.");
+        }
+    }
+
+    /**
+     * Stores the objects of the pack stream in the receiver, then waits for
+     * the other stages to finish.
+     * @param to
+     *            The store receiving the objects.
+     * @param in
+     *            The pipe carrying the stream.
+     * @param walker
+     *            The thread walking the trees.
+     * @param sender
+     *            The thread writing the stream.
+     * @param failures
+     *            The failures of the walker and the sender, if any.
+     * @return The hashes of the objects received.
+     * @throws IOException
+     *             If any stage failed.
+     */
+    private static List<String> receive(GitletObjectManager to,
+            InputStream in, Thread walker, Thread sender,
+            Exception[] failures) throws IOException {
+        List<String> received = null;
+        IOException failed = null;
+        try (InputStream stream = in) {
+            received = to.receive(stream);
+        } catch (IOException e) {
+            failed = e;
+        } finally {
+            try {
+                sender.join();
+                walker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (Exception failure : failures) {
+            if (failure != null
+                    && (failed == null || failed instanceof EOFException)) {
+                throw new IOException(failure.getMessage());
+            }
+        }
+        if (failed != null) {
+            throw failed;
+        }
+        return received;
+    }
+
+    /**
+     * Determines if a command was given a leading verbose option.
+     * @param args
+     *            The operands of the command.
+     * @return If it was.
+     */
+    public static boolean isVerbose(String[] args) {
+        return args.length > 0 && args[0].equals(VERBOSE_OPTION);
+    }
+
+    /**
+     * Represents the number of objects and bytes a transfer sent, and how
+     * long it took.
+     * @author william
+     */
+    public static class Report {
+        /**
+         * The number of objects sent.
+         */
+        private int objects;
+
+        /**
+         * The number of bytes streamed.
+         */
+        private long bytes;
+
+        /**
+         * The time taken in nanoseconds.
+         */
+        private long nanos;
+
+        /**
+         * Creates a report.
+         * @param objects
+         *            The number of objects sent.
+         * @param bytes
+         *            The number of bytes streamed.
+         * @param nanos
+         *            The time taken in nanoseconds.
+         */
+        Report(int objects, long bytes, long nanos) {
+            this.objects = objects;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return the number of objects sent.
+         */
+        public int getObjects() {
+            return this.objects;
+        }
+
+        /**
+         * @return the number of bytes streamed.
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+        /**
+         * @return the time taken in milliseconds.
+         */
+        public double getMillis() {
+            return this.nanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(this.nanos, 1) / 1e9;
+            return String.format("%d objects, %d bytes in %.1f ms, %.1f MB/s",
+                    this.objects, this.bytes, this.getMillis(),
+                    this.bytes / seconds / 1e6);
+        }
+    }
+}
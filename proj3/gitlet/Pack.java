@@ -0,0 +1,497 @@
+package gitlet;
+
+import static gitlet.HashUtils.HASH_BYTES;
+import static gitlet.HashUtils.HASH_LENGTH;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Represents an append-only pack of gitlet objects along with its sorted
+ * hash index. The pack file holds a header followed by one entry per object
+ * (the raw hash, the payload length and the payload exactly as it would be
+ * stored as a loose object). The index file holds a fan-out table keyed by
+ * the first byte of each hash, the sorted hashes and their offsets within the
+ * pack, so that a lookup is a single binary search over a memory mapped
+ * region.
+ * @author william
+ */
+public class Pack implements Closeable {
+
+    /**
+     * The extension of pack files.
+     */
+    public static final String PACK_EXT = ".pack";
+
+    /**
+     * The extension of pack index files.
+     */
+    public static final String IDX_EXT = ".idx";
+
+    /**
+     * The magic number beginning every pack file ("GPAK").
+     */
+    static final int PACK_MAGIC = 0x4750414b;
+
+    /**
+     * The magic number beginning every pack index file ("GIDX").
+     */
+    static final int IDX_MAGIC = 0x47494458;
+
+    /**
+     * The version of the pack and index formats.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the pack header: magic, version and entry count.
+     */
+    static final int PACK_HEADER = 12;
+
+    /**
+     * The number of fan-out buckets, one per value of the first hash byte.
+     */
+    static final int FANOUT = 256;
+
+    /**
+     * The size of the index header: magic, version and fan-out table.
+     */
+    private static final int IDX_HEADER = 8 + 4 * FANOUT;
+
+    /**
+     * The path of the pack file.
+     */
+    private Path packPath;
+
+    /**
+     * The path of the index file.
+     */
+    private Path indexPath;
+
+    /**
+     * The channel through which entries are read.
+     */
+    private FileChannel pack;
+
+    /**
+     * The memory mapped index.
+     */
+    private MappedByteBuffer index;
+
+    /**
+     * The number of objects in the pack.
+     */
+    private int count;
+
+    /**
+     * Creates a pack from its opened parts.
+     * @param packPath
+     *            The pack file.
+     * @param indexPath
+     *            The index file.
+     * @param pack
+     *            The channel of the pack file.
+     * @param index
+     *            The mapped index.
+     */
+    private Pack(Path packPath, Path indexPath, FileChannel pack,
+            MappedByteBuffer index) {
+        this.packPath = packPath;
+        this.indexPath = indexPath;
+        this.pack = pack;
+        this.index = index;
+        this.count = this.fanout(FANOUT - 1);
+    }
+
+    /**
+     * Opens the pack described by an index file.
+     * @param indexPath
+     *            The path of the index.
+     * @return The pack.
+     * @throws IOException
+     *             If the pack or its index are missing or malformed.
+     */
+    public static Pack open(Path indexPath) throws IOException {
+        String name = indexPath.getFileName().toString();
+        Path packPath = indexPath.resolveSibling(
+                name.substring(0, name.length() - IDX_EXT.length())
+                        + PACK_EXT);
+
+        MappedByteBuffer index;
+        try (FileChannel channel =
+                FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            index = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (index.capacity() < IDX_HEADER || index.getInt(0) != IDX_MAGIC
+                || index.getInt(4) != VERSION) {
+            throw new IOException("Corrupt pack index " + name + ".");
+        }
+
+        FileChannel pack = FileChannel.open(packPath, StandardOpenOption.READ);
+        return new Pack(packPath, indexPath, pack, index);
+    }
+
+    /**
+     * @return the number of objects in the pack.
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return the path of the pack file.
+     */
+    public Path getPackPath() {
+        return this.packPath;
+    }
+
+    /**
+     * @return the path of the index file.
+     */
+    public Path getIndexPath() {
+        return this.indexPath;
+    }
+
+    /**
+     * Determines if the pack holds an object.
+     * @param hash
+     *            The hash of the object.
+     * @return If it does.
+     */
+    public boolean contains(String hash) {
+        return this.indexOf(hash) >= 0;
+    }
+
+    /**
+     * Opens the stored payload of an object.
+     * @param hash
+     *            The hash of the object.
+     * @return A stream over the payload, or null if the pack does not hold
+     *         the object.
+     * @throws IOException
+     *             If the pack could not be read.
+     */
+    public InputStream open(String hash) throws IOException {
+        long[] region = this.locate(hash);
+        if (region == null) {
+            return null;
+        }
+        return new ChannelInputStream(this.pack, region[0], region[1]);
+    }
+
+    /**
+     * Measures the stored payload of an object.
+     * @param hash
+     *            The hash of the object.
+     * @return The length of the payload, or -1 if the pack does not hold the
+     *         object.
+     * @throws IOException
+     *             If the pack could not be read.
+     */
+    public long sizeOf(String hash) throws IOException {
+        long[] region = this.locate(hash);
+        return region == null ? -1 : region[1];
+    }
+
+    /**
+     * Transfers the payload of an object, less its first bytes, to a channel.
+     * @param hash
+     *            The hash of the object.
+     * @param skip
+     *            The number of leading payload bytes to skip.
+     * @param target
+     *            The channel to write to.
+     * @return If the pack holds the object.
+     * @throws IOException
+     *             If the pack could not be read.
+     */
+    public boolean transferTo(String hash, long skip,
+            WritableByteChannel target) throws IOException {
+        long[] region = this.locate(hash);
+        if (region == null) {
+            return false;
+        }
+        transfer(this.pack, region[0] + skip, region[1] - skip, target);
+        return true;
+    }
+
+    /**
+     * Transfers a region of a file channel to another channel, looping until
+     * every byte has been moved.
+     * @param source
+     *            The source channel.
+     * @param position
+     *            The start of the region.
+     * @param count
+     *            The length of the region.
+     * @param target
+     *            The channel to write to.
+     * @throws IOException
+     *             If the transfer failed.
+     */
+    static void transfer(FileChannel source, long position, long count,
+            WritableByteChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long moved = source.transferTo(position, end - position, target);
+            if (moved <= 0 && position >= source.size()) {
+                throw new IOException("Unexpected end of file.");
+            }
+            position += moved;
+        }
+    }
+
+    /**
+     * Finds every hash in the pack beginning with a prefix.
+     * @param prefix
+     *            The hexadecimal prefix.
+     * @return The matching hashes in sorted order.
+     */
+    public List<String> findPrefix(String prefix) {
+        List<String> found = new ArrayList<>();
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < HASH_LENGTH) {
+            padded.append('0');
+        }
+
+        byte[] key = HashUtils.toBytes(padded.toString());
+        int i;
+        if (prefix.length() >= 2) {
+            i = this.lowerBound(key);
+        } else {
+            i = this.lowerBound(key, 0, this.count);
+        }
+        for (; i < this.count; i++) {
+            String hash = this.hashAt(i);
+            if (!hash.startsWith(prefix)) {
+                break;
+            }
+            found.add(hash);
+        }
+        return found;
+    }
+
+    /**
+     * Performs an action for every hash in the pack, in sorted order.
+     * @param action
+     *            The action.
+     */
+    public void forEach(Consumer<? super String> action) {
+        for (int i = 0; i < this.count; i++) {
+            action.accept(this.hashAt(i));
+        }
+    }
+
+    /**
+     * Closes the pack.
+     */
+    @Override
+    public void close() throws IOException {
+        this.pack.close();
+    }
+
+    /**
+     * Locates the payload of an object within the pack.
+     * @param hash
+     *            The hash of the object.
+     * @return The offset and length of the payload, or null if the pack does
+     *         not hold the object.
+     * @throws IOException
+     *             If the pack could not be read.
+     */
+    private long[] locate(String hash) throws IOException {
+        int i = this.indexOf(hash);
+        if (i < 0) {
+            return null;
+        }
+        long offset = this.offset(i) + HASH_BYTES;
+        ByteBuffer length = ByteBuffer.allocate(Long.BYTES);
+        while (length.hasRemaining()) {
+            if (this.pack.read(length, offset + length.position()) < 0) {
+                throw new IOException("Truncated pack " + this.packPath);
+            }
+        }
+        return new long[] { offset + Long.BYTES, length.getLong(0) };
+    }
+
+    /**
+     * Finds the position of a hash in the index.
+     * @param hash
+     *            The hash.
+     * @return The position, or -1 if it is absent.
+     */
+    private int indexOf(String hash) {
+        if (hash.length() != HASH_LENGTH || !HashUtils.isHex(hash)) {
+            return -1;
+        }
+        byte[] key = HashUtils.toBytes(hash);
+        int i = this.lowerBound(key);
+        if (i < this.count && this.compare(i, key) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first position whose hash is not less than KEY, narrowing the
+     * search with the fan-out table.
+     * @param key
+     *            The raw key.
+     * @return The position.
+     */
+    private int lowerBound(byte[] key) {
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : this.fanout(first - 1);
+        return this.lowerBound(key, lo, this.fanout(first));
+    }
+
+    /**
+     * Finds the first position in [LO, HI) whose hash is not less than KEY.
+     * @param key
+     *            The raw key.
+     * @param lo
+     *            The first candidate position.
+     * @param hi
+     *            One past the last candidate position.
+     * @return The position.
+     */
+    private int lowerBound(byte[] key, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Compares the hash at a position with a raw key.
+     * @param i
+     *            The position.
+     * @param key
+     *            The key.
+     * @return The unsigned comparison of the two.
+     */
+    private int compare(int i, byte[] key) {
+        int base = IDX_HEADER + i * HASH_BYTES;
+        for (int j = 0; j < HASH_BYTES; j++) {
+            int diff = (this.index.get(base + j) & 0xff) - (key[j] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the hash at a position.
+     * @param i
+     *            The position.
+     * @return The hexadecimal hash.
+     */
+    private String hashAt(int i) {
+        byte[] raw = new byte[HASH_BYTES];
+        int base = IDX_HEADER + i * HASH_BYTES;
+        for (int j = 0; j < HASH_BYTES; j++) {
+            raw[j] = this.index.get(base + j);
+        }
+        return HashUtils.toHex(raw);
+    }
+
+    /**
+     * Gets the offset of the entry at a position.
+     * @param i
+     *            The position.
+     * @return The offset within the pack file.
+     */
+    private long offset(int i) {
+        return this.index.getLong(
+                IDX_HEADER + this.count * HASH_BYTES + i * Long.BYTES);
+    }
+
+    /**
+     * Gets a cumulative fan-out count.
+     * @param bucket
+     *            The value of the first hash byte.
+     * @return The number of hashes whose first byte is at most BUCKET.
+     */
+    private int fanout(int bucket) {
+        return this.index.getInt(8 + 4 * bucket);
+    }
+
+    /**
+     * Represents a stream over a region of a file channel which reads with
+     * absolute positions, so that several may share one channel.
+     * @author william
+     */
+    static class ChannelInputStream extends InputStream {
+        /**
+         * The channel.
+         */
+        private FileChannel channel;
+
+        /**
+         * The next position to read.
+         */
+        private long position;
+
+        /**
+         * The end of the region.
+         */
+        private long end;
+
+        /**
+         * Creates a channel input stream.
+         * @param channel
+         *            The channel.
+         * @param start
+         *            The start of the region.
+         * @param length
+         *            The length of the region.
+         */
+        ChannelInputStream(FileChannel channel, long start, long length) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.position >= this.end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, this.end - this.position);
+            int read = this.channel.read(ByteBuffer.wrap(b, off, toRead),
+                    this.position);
+            if (read > 0) {
+                this.position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, this.end - this.position);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package gitlet;
+
+import static gitlet.HashUtils.HASH_BYTES;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads and writes pack streams, through which objects travel between
+ * stores in one sequential pass. A stream is laid out exactly as a pack
+ * file, its header holding the number of entries up front so that it can be
+ * written to a pipe, followed by the entries and a SHA-1 trailer over them.
+ * A stream whose objects are still being found as it is written holds an
+ * unknown count instead, and its entries end with an entry of negative
+ * length.
+ * Entries hold objects in their stored form, so a blob stored as a delta
+ * travels as that delta whenever the receiver holds its base; the stream is
+ * then thin, and cannot be read without the receiver's store.
+ * @author william
+ */
+public class PackStream {
+
+    /**
+     * The size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The count of a stream whose entries end with an end entry.
+     */
+    public static final int UNKNOWN_COUNT = -1;
+
+    /**
+     * The length of the end entry.
+     */
+    private static final long END = -1;
+
+    /**
+     * Yields the hashes of the objects to write to a pack stream.
+     * @author william
+     */
+    public interface Source {
+        /**
+         * Yields the next hash, waiting for it if need be.
+         * @return The hash, or null once there are no more.
+         * @throws IOException
+         *             If the hashes could not be found.
+         */
+        String next() throws IOException;
+    }
+
+    /**
+     * Receives the entries of a pack stream as they are read.
+     * @author william
+     */
+    public interface Sink {
+        /**
+         * Receives an entry, consuming exactly its payload.
+         * @param hash
+         *            The hash of the object.
+         * @param payload
+         *            The stream, positioned at the payload.
+         * @param length
+         *            The length of the payload.
+         * @throws IOException
+         *             If the payload could not be consumed.
+         */
+        void accept(String hash, InputStream payload, long length)
+                throws IOException;
+    }
+
+    /**
+     * Writes objects held by a store to a pack stream.
+     * @param from
+     *            The store holding the objects, which must all be stored.
+     * @param hashes
+     *            The hashes of the objects.
+     * @param out
+     *            The stream to write to, left open.
+     * @return The number of bytes written.
+     * @throws IOException
+     *             If an object could not be read or the stream written.
+     */
+    public static long write(GitletObjectManager from, List<String> hashes,
+            OutputStream out) throws IOException {
+        Iterator<String> iter = hashes.iterator();
+        return write(from, () -> iter.hasNext() ? iter.next() : null,
+                hashes.size(), out);
+    }
+
+    /**
+     * Writes objects held by a store to a pack stream as their hashes are
+     * yielded.
+     * @param from
+     *            The store holding the objects, which must all be stored.
+     * @param hashes
+     *            The source of the hashes.
+     * @param count
+     *            The number of hashes, or UNKNOWN_COUNT.
+     * @param out
+     *            The stream to write to, left open.
+     * @return The number of bytes written.
+     * @throws IOException
+     *             If an object could not be read or the stream written.
+     */
+    public static long write(GitletObjectManager from, Source hashes,
+            int count, OutputStream out) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(Pack.PACK_MAGIC);
+        header.writeInt(Pack.VERSION);
+        header.writeInt(count);
+        long written = Pack.PACK_HEADER;
+
+        MessageDigest digest = HashUtils.newDigest();
+        DataOutputStream entries =
+                new DataOutputStream(new DigestOutputStream(out, digest));
+        for (String hash = hashes.next(); hash != null;
+                hash = hashes.next()) {
+            try (InputStream payload =
+                    from.openStored(GitletObjectManager.hashToFile(hash))) {
+                if (payload == null) {
+                    throw new IOException("No object " + hash + " exists.");
+                }
+                long length = from.storedLength(hash);
+                entries.write(HashUtils.toBytes(hash));
+                entries.writeLong(length);
+                copy(hash, payload, entries, length);
+                written += HASH_BYTES + Long.BYTES + length;
+            }
+        }
+        if (count == UNKNOWN_COUNT) {
+            entries.write(new byte[HASH_BYTES]);
+            entries.writeLong(END);
+            written += HASH_BYTES + Long.BYTES;
+        }
+        entries.flush();
+        out.write(digest.digest());
+        out.flush();
+        return written + HASH_BYTES;
+    }
+
+    /**
+     * Reads the header of a pack stream.
+     * @param in
+     *            The stream.
+     * @return The number of entries which follow.
+     * @throws IOException
+     *             If the header is malformed.
+     */
+    public static int readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != Pack.PACK_MAGIC || in.readInt() != Pack.VERSION) {
+            throw new IOException("Corrupt pack stream.");
+        }
+        int count = in.readInt();
+        if (count < 0 && count != UNKNOWN_COUNT) {
+            throw new IOException("Corrupt pack stream.");
+        }
+        return count;
+    }
+
+    /**
+     * Reads the entries of a pack stream following its header, handing
+     * each to a sink, then checks the trailer.
+     * @param in
+     *            The stream.
+     * @param count
+     *            The number of entries, or UNKNOWN_COUNT.
+     * @param sink
+     *            The sink.
+     * @throws IOException
+     *             If the stream is truncated or its trailer does not match,
+     *             in which case whatever the sink received is not to be
+     *             trusted.
+     */
+    public static void readEntries(DataInputStream in, int count, Sink sink)
+            throws IOException {
+        MessageDigest digest = HashUtils.newDigest();
+        DataInputStream entries =
+                new DataInputStream(new DigestInputStream(in, digest));
+        byte[] raw = new byte[HASH_BYTES];
+        for (int i = 0; count == UNKNOWN_COUNT || i < count; i++) {
+            entries.readFully(raw);
+            long length = entries.readLong();
+            if (length == END && count == UNKNOWN_COUNT) {
+                break;
+            } else if (length < 0) {
+                throw new IOException("Corrupt pack stream.");
+            }
+            sink.accept(HashUtils.toHex(raw), entries, length);
+        }
+        byte[] trailer = new byte[HASH_BYTES];
+        in.readFully(trailer);
+        if (!Arrays.equals(digest.digest(), trailer)) {
+            throw new IOException("Corrupt pack stream checksum.");
+        }
+    }
+
+    /**
+     * Copies the payload of an object between streams.
+     * @param hash
+     *            The hash of the object, for reporting.
+     * @param in
+     *            The stream over the payload.
+     * @param out
+     *            The stream to copy to.
+     * @param length
+     *            The length of the payload.
+     * @throws IOException
+     *             If the payload is truncated or could not be written.
+     */
+    static void copy(String hash, InputStream in, OutputStream out,
+            long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0,
+                    (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Object " + hash + " was truncated.");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package gitlet;
+
+import static gitlet.HashUtils.HASH_BYTES;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes a new pack and its index. Entries are appended to a temporary pack
+ * file as they are added; finishing the writer sorts the hashes, writes the
+ * index and moves both into place, named after the checksum of the pack.
+ * @author william
+ */
+public class PackWriter implements Closeable {
+
+    /**
+     * The size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The directory holding the packs.
+     */
+    private Path directory;
+
+    /**
+     * The temporary pack file.
+     */
+    private Path temp;
+
+    /**
+     * The digest of every entry written.
+     */
+    private MessageDigest digest;
+
+    /**
+     * The output stream to the temporary pack.
+     */
+    private DataOutputStream out;
+
+    /**
+     * The offset of every entry written, sorted by hash.
+     */
+    private TreeMap<String, Long> offsets;
+
+    /**
+     * The current length of the pack.
+     */
+    private long position;
+
+    /**
+     * Creates a pack writer.
+     * @param directory
+     *            The directory in which to place the pack.
+     * @throws IOException
+     *             If the temporary pack could not be created.
+     */
+    public PackWriter(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.temp = Files.createTempFile(directory, "tmp-", Pack.PACK_EXT);
+        this.offsets = new TreeMap<>();
+
+        try {
+            this.digest = MessageDigest.getInstance("SHA1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        OutputStream file = new BufferedOutputStream(
+                Files.newOutputStream(this.temp), BUFFER_SIZE);
+        this.out = new DataOutputStream(file);
+        this.out.writeInt(Pack.PACK_MAGIC);
+        this.out.writeInt(Pack.VERSION);
+        this.out.writeInt(0);
+        this.out.flush();
+        this.out = new DataOutputStream(
+                new DigestOutputStream(file, this.digest));
+        this.position = Pack.PACK_HEADER;
+    }
+
+    /**
+     * Determines if an object has already been written to this pack.
+     * @param hash
+     *            The hash of the object.
+     * @return If it has.
+     */
+    public boolean contains(String hash) {
+        return this.offsets.containsKey(hash);
+    }
+
+    /**
+     * @return the number of objects written so far.
+     */
+    public int size() {
+        return this.offsets.size();
+    }
+
+    /**
+     * Appends an object to the pack.
+     * @param hash
+     *            The hash of the object.
+     * @param payload
+     *            The stored form of the object.
+     * @param length
+     *            The length of the payload.
+     * @throws IOException
+     *             If the payload could not be copied.
+     */
+    public void add(String hash, InputStream payload, long length)
+            throws IOException {
+        if (this.contains(hash)) {
+            return;
+        }
+        this.offsets.put(hash, this.position);
+        this.out.write(HashUtils.toBytes(hash));
+        this.out.writeLong(length);
+        PackStream.copy(hash, payload, this.out, length);
+        this.position += HASH_BYTES + Long.BYTES + length;
+    }
+
+    /**
+     * Appends a loose object file to the pack.
+     * @param hash
+     *            The hash of the object.
+     * @param file
+     *            The loose object.
+     * @throws IOException
+     *             If the file could not be read.
+     */
+    public void add(String hash, Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            this.add(hash, in, Files.size(file));
+        }
+    }
+
+    /**
+     * Finishes the pack, writing its index and moving both into place.
+     * @return The finished pack, opened for reading.
+     * @throws IOException
+     *             If the pack could not be written.
+     */
+    public Pack finish() throws IOException {
+        byte[] checksum = this.digest.digest();
+        this.out.write(checksum);
+        this.out.close();
+
+        try (FileChannel channel = FileChannel.open(this.temp,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer count = ByteBuffer.allocate(Integer.BYTES);
+            count.putInt(0, this.offsets.size());
+            channel.write(count, 8);
+            channel.force(true);
+        }
+
+        String name = "pack-" + HashUtils.toHex(checksum);
+        Path packPath = this.directory.resolve(name + Pack.PACK_EXT);
+        Path indexPath = this.directory.resolve(name + Pack.IDX_EXT);
+        Files.move(this.temp, packPath, StandardCopyOption.REPLACE_EXISTING);
+        this.writeIndex(indexPath, checksum);
+
+        return Pack.open(indexPath);
+    }
+
+    /**
+     * Abandons the pack, deleting the temporary file.
+     */
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+        Files.deleteIfExists(this.temp);
+    }
+
+    /**
+     * Writes the sorted index of the pack.
+     * @param indexPath
+     *            The index file.
+     * @param checksum
+     *            The checksum of the pack.
+     * @throws IOException
+     *             If the index could not be written.
+     */
+    private void writeIndex(Path indexPath, byte[] checksum)
+            throws IOException {
+        int[] fanout = new int[Pack.FANOUT];
+        for (String hash : this.offsets.keySet()) {
+            fanout[Integer.parseInt(hash.substring(0, 2), 16)]++;
+        }
+        for (int i = 1; i < fanout.length; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        Path tempIndex =
+                Files.createTempFile(this.directory, "tmp-", Pack.IDX_EXT);
+        try (DataOutputStream idx = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempIndex),
+                        BUFFER_SIZE))) {
+            idx.writeInt(Pack.IDX_MAGIC);
+            idx.writeInt(Pack.VERSION);
+            for (int bucket : fanout) {
+                idx.writeInt(bucket);
+            }
+            for (String hash : this.offsets.keySet()) {
+                idx.write(HashUtils.toBytes(hash));
+            }
+            for (Map.Entry<String, Long> entry : this.offsets.entrySet()) {
+                idx.writeLong(entry.getValue());
+            }
+            idx.write(checksum);
+        }
+        Files.move(tempIndex, indexPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
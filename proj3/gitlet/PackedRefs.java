@@ -0,0 +1,143 @@
+package gitlet;
+
+import static gitlet.HashUtils.HASH_BYTES;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Reads and writes the packed-refs file, which holds many references in one
+ * file sorted by name so that they can be read with a single read rather
+ * than a file each. A loose reference file of the same name overrides the
+ * packed one. The file holds a header, then for each reference its name, the
+ * type of its target, its creation time and its target, and a SHA-1
+ * trailer.
+ * @author william
+ */
+public class PackedRefs {
+
+    /**
+     * The magic number beginning every packed-refs file ("GPRF").
+     */
+    static final int MAGIC = 0x47505246;
+
+    /**
+     * The version of the packed-refs format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the header: magic, version and reference count.
+     */
+    private static final int HEADER = 12;
+
+    /**
+     * Reads the packed-refs file at a path.
+     * @param path
+     *            The path of the file.
+     * @return The references by file name, empty if there is no file.
+     * @throws IOException
+     *             If the file is corrupt.
+     */
+    public static TreeMap<String, Reference> read(Path path)
+            throws IOException {
+        TreeMap<String, Reference> refs = new TreeMap<>();
+        if (!Files.exists(path)) {
+            return refs;
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < HEADER + HASH_BYTES) {
+            throw new IOException("Corrupt packed refs.");
+        }
+        MessageDigest digest = HashUtils.newDigest();
+        digest.update(bytes, 0, bytes.length - HASH_BYTES);
+        if (!Arrays.equals(digest.digest(), Arrays.copyOfRange(bytes,
+                bytes.length - HASH_BYTES, bytes.length))) {
+            throw new IOException("Corrupt packed refs checksum.");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                bytes, 0, bytes.length - HASH_BYTES));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Corrupt packed refs.");
+        }
+        int count = in.readInt();
+        ReferenceType[] types = ReferenceType.values();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            int type = in.readUnsignedByte();
+            if (type >= types.length) {
+                throw new IOException("Corrupt packed refs.");
+            }
+            long created = in.readLong();
+            String target = in.readUTF();
+            refs.put(name, new Reference(types[type], target, created));
+        }
+        return refs;
+    }
+
+    /**
+     * Measures the bytes a reference takes in the packed-refs file.
+     * @param name
+     *            The file name of the reference.
+     * @param ref
+     *            The reference.
+     * @return The size in bytes.
+     */
+    public static int sizeOf(String name, Reference ref) {
+        return 2 + name.getBytes(StandardCharsets.UTF_8).length + 1
+                + Long.BYTES + 2
+                + ref.target().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Writes the packed-refs file, atomically replacing whatever is at its
+     * path.
+     * @param path
+     *            The path of the file.
+     * @param refs
+     *            The references by file name.
+     * @throws IOException
+     *             If the file could not be written.
+     */
+    public static void write(Path path, SortedMap<String, Reference> refs)
+            throws IOException {
+        Path temp = AtomicFiles.temp(path);
+        MessageDigest digest = HashUtils.newDigest();
+        try (OutputStream file = Files.newOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(
+                        new DigestOutputStream(
+                                new BufferedOutputStream(file), digest))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(refs.size());
+            for (Map.Entry<String, Reference> entry : refs.entrySet()) {
+                Reference ref = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeByte(ref.targetType().ordinal());
+                out.writeLong(ref.created());
+                out.writeUTF(ref.target());
+            }
+            out.flush();
+            file.write(digest.digest());
+        } catch (IOException e) {
+            AtomicFiles.abort(temp);
+            throw e;
+        }
+        AtomicFiles.commit(temp, path);
+    }
+}
@@ -14,8 +14,13 @@ public class PullCommand implements Command {
      */
     @Override
     public void run(Repository repo, String[] args) {
-        FetchCommand.fetch(repo, args[0], args[1]);
-        MergeCommand.merge(repo, args[0] + "/" + args[1]);
+        int i = ObjectTransfer.isVerbose(args) ? 1 : 0;
+        ObjectTransfer.Report report =
+                FetchCommand.fetch(repo, args[i], args[i + 1]);
+        if (i == 1) {
+            System.out.println("Fetched " + report);
+        }
+        MergeCommand.merge(repo, args[i] + "/" + args[i + 1]);
     }
 
     /*
@@ -33,7 +38,7 @@ public class PullCommand implements Command {
      */
     @Override
     public boolean checkOperands(String[] args) {
-        return args.length == 2;
+        return args.length == (ObjectTransfer.isVerbose(args) ? 3 : 2);
     }
 
 }
@@ -9,11 +9,7 @@ import static gitlet.ReferenceType.REMOTE;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * @author william
@@ -26,7 +22,11 @@ public class PushCommand implements Command {
      */
     @Override
     public void run(final Repository repo, String[] args) {
-        push(repo, args[0], args[1]);
+        int i = ObjectTransfer.isVerbose(args) ? 1 : 0;
+        ObjectTransfer.Report report = push(repo, args[i], args[i + 1]);
+        if (i == 1) {
+            System.out.println("Pushed " + report);
+        }
     }
 
     /**
@@ -37,8 +37,10 @@ public class PushCommand implements Command {
      *            The remote path.
      * @param remoteBranch
      *            The remote branch.
+     * @return The report of the objects sent.
      */
-    public static void push(final Repository repo, String remoteName,
+    public static ObjectTransfer.Report push(final Repository repo,
+            String remoteName,
             String remoteBranch) {
         Reference remoteRef = repo.refs().get(REMOTE, remoteName);
 
@@ -65,19 +67,23 @@ public class PushCommand implements Command {
         }
 
         if (head.equals(remoteHead)) {
-            return;
+            remote.close();
+            return new ObjectTransfer.Report(0, 0, 0);
         }
 
-        Collection<String> intersecting =
+        List<String> intersecting =
                 intersectBranches(repo, remote, head, remoteHead);
-        pushCommits(repo, remote, intersecting);
+        ObjectTransfer.Report report =
+                pushCommits(repo, remote, intersecting);
         fastForward(remote, remoteBranch, head);
 
         remote.close();
+        return report;
     }
 
     /**
-     * Intersects two branches.
+     * Finds the commits of the local branch the remote branch lacks, by
+     * walking the local commit graph.
      * @param repo
      *            The repo.
      * @param remote
@@ -86,21 +92,20 @@ public class PushCommand implements Command {
      *            The head.
      * @param remoteHead
      *            The remote head.
-     * @return The commits in the intersection.
+     * @return The outgoing commits.
      */
-    private static Collection<String> intersectBranches(Repository repo,
+    private static List<String> intersectBranches(Repository repo,
             Repository remote, String head, String remoteHead) {
-        Collection<String> localHistory = MergeCommand.getHistory(repo, head,
-                new LinkedHashSet<String>());
-        if (!localHistory.contains(remoteHead) && !remoteHead.isEmpty()) {
+        CommitGraph graph = repo.objects().graph();
+        if (!remoteHead.isEmpty()
+                && (!repo.objects().contains(Commit.class, remoteHead)
+                        || !graph.isAncestor(remoteHead, head))) {
             remote.close();
             throw new IllegalStateException(
                     "Please pull down remote changes before pushing.");
         }
-        localHistory.remove(MergeCommand.getHistory(remote, remoteHead,
-                new LinkedHashSet<String>()));
 
-        return localHistory;
+        return graph.difference(head, remoteHead);
     }
 
     /**
@@ -126,23 +131,16 @@ public class PushCommand implements Command {
      * @param remote
      *            The remote.
      * @param outGoingCommits
-     *            The outgoing commits.
+     *            The outgoing commits, newest first.
+     * @return The report of the objects sent.
      */
-    private static void pushCommits(Repository repo, Repository remote,
-            Collection<String> outGoingCommits) {
-        Collection<GitletObject> outgoing = new HashSet<GitletObject>();
-
-        for (String hash : outGoingCommits) {
-
-            Commit c = repo.objects().get(Commit.class, hash);
-            List<GitletObject> blobs = c.values().stream().map((x) -> {
-                return repo.objects().get(Blob.class, x);
-            }).collect(Collectors.toList());
-
-            outgoing.add(c);
-            outgoing.addAll(blobs);
-        }
-        remote.objects().putAll(outgoing);
+    private static ObjectTransfer.Report pushCommits(Repository repo,
+            Repository remote, List<String> outGoingCommits) {
+        ObjectTransfer.Report report = ObjectTransfer.send(repo.objects(),
+                remote.objects(), outGoingCommits);
+        ObjectTransfer.graft(repo.objects(), remote.objects(),
+                outGoingCommits);
+        return report;
     }
 
     /*
@@ -160,7 +158,7 @@ public class PushCommand implements Command {
      */
     @Override
     public boolean checkOperands(String[] args) {
-        return args.length == 2;
+        return args.length == (ObjectTransfer.isVerbose(args) ? 3 : 2);
     }
 
 }
@@ -25,9 +25,38 @@ public class Reference implements Serializable {
      */
     private ReferenceType targetType;
 
+    /**
+     * The time the reference was created, by which references are listed.
+     */
+    private long created;
+
+    /**
+     * If the target was set since the reference was read.
+     */
+    private transient boolean changed;
+
+    /**
+     * The action run whenever the target is set, or null.
+     */
+    private transient Runnable listener;
+
     public Reference(ReferenceType targetType, String targetRef) {
+        this(targetType, targetRef, System.currentTimeMillis());
+    }
+
+    /**
+     * Constructs a reference as it was read from a file.
+     * @param targetType
+     *            The type of the target.
+     * @param targetRef
+     *            The target.
+     * @param created
+     *            The time the reference was created.
+     */
+    Reference(ReferenceType targetType, String targetRef, long created) {
         this.targetType = targetType;
         this.target = targetRef;
+        this.created = created;
     }
 
     /**
@@ -40,8 +69,7 @@ public class Reference implements Serializable {
     }
 
     public Reference() {
-        this.target = "";
-        this.targetType = ReferenceType.NONE;
+        this(ReferenceType.NONE, "");
     }
 
     /**
@@ -58,7 +86,36 @@ public class Reference implements Serializable {
      *            The reference target.
      */
     public void setTarget(String target) {
-        this.target = target;
+        if (!target.equals(this.target)) {
+            this.target = target;
+            this.changed = true;
+            if (this.listener != null) {
+                this.listener.run();
+            }
+        }
+    }
+
+    /**
+     * Sets the action run whenever the target is set.
+     * @param listener
+     *            The action.
+     */
+    void setListener(Runnable listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return if the target was set since the reference was read.
+     */
+    public boolean isChanged() {
+        return this.changed;
+    }
+
+    /**
+     * @return the time the reference was created.
+     */
+    public long created() {
+        return this.created;
     }
 
     /**
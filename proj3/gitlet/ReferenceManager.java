@@ -3,16 +3,58 @@
  */
 package gitlet;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.function.BiConsumer;
 
 /**
+ * Manages the references of a repository. References are read from a single
+ * packed-refs file, overridden by loose files of their own, which is where
+ * references are written when they are added or their targets are set.
+ * Once the packed references are read, iterating over references only reads
+ * the loose ones, and resolved references are remembered until the target
+ * of any reference is next set.
  * @author william
  */
 public class ReferenceManager extends LazySerialManager<Reference> {
 
+    /**
+     * The file, relative to the base, holding the packed references.
+     */
+    private static final String PACKED_REFS = "packed-refs";
+
+    /**
+     * The packed references by file name, once they have been read.
+     */
+    private TreeMap<String, Reference> packed;
+
+    /**
+     * If references were removed from the packed references since they
+     * were read.
+     */
+    private boolean packedChanged;
+
+    /**
+     * The target each reference resolved to by file name.
+     */
+    private HashMap<String, String> resolved;
+
     public ReferenceManager(Path base) {
         super(base);
+        this.resolved = new HashMap<>();
     }
 
     public Reference add(ReferenceType type, String fileName, Reference ref) {
@@ -23,6 +65,7 @@ public class ReferenceManager extends LazySerialManager<Reference> {
                     "A " + type.toString().toLowerCase()
                             + " with that name already exists.");
         }
+        ref.setListener(this::forgetResolved);
         return ref;
     }
 
@@ -56,19 +99,131 @@ public class ReferenceManager extends LazySerialManager<Reference> {
     }
 
     public String resolve(ReferenceType type, String fileName) {
+        String file = type.getBaseDir() + fileName;
+        String target = this.resolved.get(file);
+        if (target != null) {
+            return target;
+        }
+
         Reference cur = this.get(type, fileName);
         while (cur.targetIsReference()) {
             cur = this.get(cur.targetType(), cur.target());
         }
 
+        this.resolved.put(file, cur.target());
         return cur.target();
 
     }
 
+    /**
+     * Forgets every resolved reference, as the target of one was set.
+     */
+    private void forgetResolved() {
+        this.resolved.clear();
+    }
+
+    /**
+     * Gets a reference, from its loose file if there is one and from the
+     * packed references otherwise.
+     */
+    @Override
+    public <S extends Reference> S get(Class<S> type, String file) {
+        if (!this.cache().contains(file) && !super.isStored(file)) {
+            this.adoptPacked(file);
+        }
+        S ref = super.get(type, file);
+        if (ref != null) {
+            ref.setListener(this::forgetResolved);
+        }
+        return ref;
+    }
+
+    /**
+     * Holds a packed reference as though it was loaded, so that it is
+     * written to a loose file if its target is set.
+     * @param file
+     *            The file name of the reference.
+     */
+    private void adoptPacked(String file) {
+        Reference ref = this.packed().get(file);
+        if (ref != null) {
+            this.adopt(file, ref, PackedRefs.sizeOf(file, ref));
+        }
+    }
+
+    /**
+     * Gets the packed references, reading them on first use.
+     * @return The packed references by file name.
+     */
+    private TreeMap<String, Reference> packed() {
+        if (this.packed == null) {
+            try {
+                this.packed = PackedRefs
+                        .read(this.getBaseDirectory().resolve(PACKED_REFS));
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+        return this.packed;
+    }
+
+    /**
+     * Folds every loose reference into the packed references and deletes
+     * the loose files.
+     * @return The number of references packed.
+     */
+    public int pack() {
+        Set<String> loose = this.listLoose();
+        if (loose.isEmpty()) {
+            return 0;
+        }
+        TreeMap<String, Reference> refs = new TreeMap<>(this.packed());
+        for (String file : loose) {
+            refs.put(file, this.get(Reference.class, file));
+        }
+
+        Path base = this.getBaseDirectory();
+        try {
+            PackedRefs.write(base.resolve(PACKED_REFS), refs);
+            this.packed = refs;
+            this.packedChanged = false;
+            for (String file : loose) {
+                Files.delete(base.resolve(file));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return loose.size();
+    }
+
+    /**
+     * Lists the file names of the loose references.
+     * @return The file names.
+     */
+    private Set<String> listLoose() {
+        Set<String> loose = new HashSet<>();
+        super.listStored(loose);
+        loose.remove(PACKED_REFS);
+        return loose;
+    }
+
     public String resolve(ReferenceType type) {
         return this.resolve(type, type.toString());
     }
 
+    /**
+     * Removes a reference, from the packed references as well as its loose
+     * file.
+     */
+    @Override
+    public <S extends Reference> void remove(Class<S> type, String file) {
+        super.remove(type, file);
+        if (this.packed().remove(file) != null) {
+            this.packedChanged = true;
+        }
+        this.forgetResolved();
+    }
+
     public void remove(ReferenceType type, String fileName) {
         try {
             this.remove(Reference.class, type.getBaseDir() + fileName);
@@ -80,7 +235,8 @@ public class ReferenceManager extends LazySerialManager<Reference> {
     }
 
     /**
-     * Iterates over the references of a certain type within the manager.
+     * Iterates over the references of a certain type within the manager in
+     * the order they were created.
      * @param type
      *            The type of reference.
      * @param action
@@ -88,11 +244,25 @@ public class ReferenceManager extends LazySerialManager<Reference> {
      */
     public void forEach(ReferenceType type,
             BiConsumer<? super String, Reference> action) {
-        this.forEach(Reference.class, (file, ref) -> {
-            if (file.startsWith(type.getBaseDir())) {
-                action.accept(file.replace(type.getBaseDir(), ""), ref);
+        String prefix = type.getBaseDir();
+        Set<String> loose = this.listLoose();
+        TreeSet<String> files = new TreeSet<>(loose);
+        files.addAll(this.packed().keySet());
+        this.cache().forEach((file, ref) -> files.add(file));
+
+        List<Map.Entry<String, Reference>> refs = new ArrayList<>();
+        for (String file : files.subSet(prefix,
+                prefix + Character.MAX_VALUE)) {
+            if (!this.cache().contains(file) && !loose.contains(file)) {
+                this.adoptPacked(file);
             }
-        });
+            refs.add(new SimpleEntry<>(file.substring(prefix.length()),
+                    this.get(Reference.class, file)));
+        }
+        refs.sort(Comparator.comparingLong(entry -> entry.getValue()
+                .created()));
+        refs.forEach(entry -> action.accept(entry.getKey(),
+                entry.getValue()));
     }
 
     @Override
@@ -100,4 +270,57 @@ public class ReferenceManager extends LazySerialManager<Reference> {
         return false;
     }
 
+    /**
+     * References are written back only when their target was set.
+     */
+    @Override
+    protected boolean isChanged(Serializable object) {
+        return ((Reference) object).isChanged();
+    }
+
+    /**
+     * A reference is stored if it has a loose file or is packed.
+     */
+    @Override
+    protected boolean isStored(String file) {
+        return super.isStored(file) || this.packed().containsKey(file);
+    }
+
+    /**
+     * Everything the manager holds is a reference, so references are never
+     * loaded just to learn their type.
+     */
+    @Override
+    protected Class<?> typeOf(String file) {
+        return this.contains(file) ? Reference.class : null;
+    }
+
+    /**
+     * Lists the loose references and the packed ones.
+     */
+    @Override
+    protected void listStored(Collection<String> files) {
+        files.addAll(this.listLoose());
+        files.addAll(this.packed().keySet());
+    }
+
+    /**
+     * Closes the manager, rewriting the packed references if any were
+     * removed.
+     */
+    @Override
+    public void close() {
+        if (this.isOpen() && this.packedChanged) {
+            try {
+                PackedRefs.write(
+                        this.getBaseDirectory().resolve(PACKED_REFS),
+                        this.packed);
+                this.packedChanged = false;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        super.close();
+    }
+
 }
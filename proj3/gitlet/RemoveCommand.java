@@ -6,7 +6,6 @@ package gitlet;
 import static gitlet.ReferenceType.HEAD;
 
 import java.io.IOException;
-import java.nio.file.Files;
 
 /**
  * @author william
@@ -26,12 +25,11 @@ public class RemoveCommand implements Command {
     public static void remove(Repository repo, String file, Commit head) {
         Index index = repo.index();
 
-        if (head.containsKey(file)) {
+        if (Tree.lookup(repo.objects(), head.getTree(), file) != null) {
             try {
                 index.remove(file, true);
-                if (Files.exists(repo.getWorkingDir().resolve(file))) {
-                    Files.delete(repo.getWorkingDir().resolve(file));
-                }
+                repo.deleteWorkingFile(file);
+                index.forget(file);
             } catch (IOException e) {
                 e.printStackTrace();
             }
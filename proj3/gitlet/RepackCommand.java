@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package gitlet;
+
+/**
+ * @author william Represents a repack command which folds every loose object
+ *         into a pack and every loose reference into the packed references.
+ */
+public class RepackCommand implements Command {
+
+    /*
+     * (non-Javadoc)
+     * @see gitlet.Command#run(gitlet.Repository, java.lang.String[])
+     */
+    @Override
+    public void run(Repository repo, String[] args) {
+        repo.objects().repack();
+        repo.refs().pack();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gitlet.Command#requiresRepo()
+     */
+    @Override
+    public boolean requiresRepo() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see gitlet.Command#checkOperands(java.lang.String[])
+     */
+    @Override
+    public boolean checkOperands(String[] args) {
+        return args.length == 0;
+    }
+
+}
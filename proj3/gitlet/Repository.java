@@ -6,19 +6,30 @@ import static gitlet.ReferenceType.TAG;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /**
  * Represents a Gitlet repository.
  * @author william
  */
 public class Repository extends LazySerialManager<Serializable> {
-    private static final String GITLET_DIR = ".gitlet";
+    static final String GITLET_DIR = ".gitlet";
     private static final String INDEX = "index";
+    private static final String LOCK = "lock";
     private static final String OBJ_DIR = "objects/";
     private static final String REFS_DIR = "refs/";
 
@@ -42,6 +53,16 @@ public class Repository extends LazySerialManager<Serializable> {
      */
     private ReferenceManager refMan;
 
+    /**
+     * The index, once it has been read.
+     */
+    private Index index;
+
+    /**
+     * The lock held on the repository while it is open, or null.
+     */
+    private FileLock lock;
+
     /**
      * Declares a repository at the workingDIR.
      * @param workingDir
@@ -69,7 +90,14 @@ public class Repository extends LazySerialManager<Serializable> {
      * @return The index.
      */
     public Index index() {
-        return this.get(Index.class, INDEX);
+        if (this.index == null) {
+            try {
+                this.index = Index.open(this.gitletDir.resolve(INDEX));
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+        return this.index;
     }
 
     /**
@@ -96,67 +124,115 @@ public class Repository extends LazySerialManager<Serializable> {
                     "A gitlet version-control system already exists in the current directory.");
         }
 
+        this.lock();
         super.open();
         this.objectMan.open();
         this.refMan.open();
 
-        String initialCommit = this.objects()
-                .put(new Commit("initial commit", LocalDateTime.now()));
+        String emptyTree = this.objects().put(new Tree());
+        String initialCommit = this.objects().put(new Commit(
+                "initial commit", LocalDateTime.now(), "", emptyTree));
 
         this.refs().add(BRANCH, "master", new Reference(initialCommit));
         this.refs().add(HEAD, new Reference(BRANCH, "master"));
         this.refs().add(TAG, "initial", new Reference(initialCommit));
 
-        this.add(INDEX, new Index());
+        this.index = new Index();
 
     }
 
     /**
-     * Checks out a given commit.
+     * Checks out a given commit in place of the head commit. The paths
+     * which differ between the two commits, or which the index changed
+     * since the head, are found from the trees without examining the rest,
+     * and are written or deleted. Every other tracked file is still statted
+     * so that one modified in the working directory is restored; it is
+     * reread only if its stat data changed and rewritten only if its
+     * contents did, but the stat calls make a checkout linear in the number
+     * of tracked files. The caller moves the head to the commit afterwards.
      * @param commit
      *            The commit to checkout.
+     * @return The counts of the files written, deleted and left untouched.
      */
-    public void checkout(Commit commit) {
+    public CheckoutReport checkout(Commit commit) {
 
         Index index = this.index();
+        Commit head = this.objects().get(Commit.class,
+                this.refs().resolve(HEAD));
 
-        try {
-            for (Path entry : Files.newDirectoryStream(this.getWorkingDir(),
-                    x -> !Files.isDirectory(x))) {
-                String fileName = entry.getFileName().toString();
+        TreeMap<String, String> targets = new TreeMap<>();
+        for (TreeDiff.Change change : TreeDiff.diff(this.objects(),
+                head.getTree(), commit.getTree())) {
+            targets.put(change.getPath(), change.getNewHash());
+        }
+        for (String name : index.getChanged()) {
+            if (!targets.containsKey(name)) {
+                targets.put(name,
+                        Tree.lookup(this.objects(), commit.getTree(), name));
+            }
+        }
 
-                if (commit.containsKey(fileName)
-                        && (!index.getBlobs().containsKey(fileName)
-                                || index.getStaged().containsKey(fileName))) {
+        targets.forEach((fileName, hash) -> {
+                if (hash != null
+                        && Files.exists(this.getWorkingDir().resolve(fileName))
+                        && (!index.isTracked(fileName)
+                                || index.isStaged(fileName))) {
                     throw new IllegalStateException("There is an untracked "
                             + "file in the way; delete it or add it first.");
                 }
-            }
+            });
 
-            for (Path entry : Files.newDirectoryStream(this.getWorkingDir(),
-                    x -> !Files.isDirectory(x))) {
-                String name = entry.getFileName().toString();
+        CheckoutReport report = new CheckoutReport();
+        Map<String, String> kept = index.getBlobs();
+        kept.keySet().removeAll(targets.keySet());
+        try {
+            for (Map.Entry<String, String> target : targets.entrySet()) {
+                String name = target.getKey();
+                if (target.getValue() != null) {
+                    this.writeWorkingFile(name, target.getValue());
+                    report.written++;
+                } else if (index.isTracked(name)) {
+                    this.deleteWorkingFile(name);
+                    index.forget(name);
+                    report.deleted++;
+                }
+            }
 
-                if (index.getBlobs().containsKey(name)) {
-                    Files.delete(entry);
+            for (Map.Entry<String, String> entry : kept.entrySet()) {
+                String name = entry.getKey();
+                Path filePath = this.getWorkingDir().resolve(name);
+                if (Files.isRegularFile(filePath) && entry.getValue().equals(
+                        index.hash(name, filePath, FileStat.of(filePath)))) {
+                    report.unchanged++;
+                } else {
+                    this.writeWorkingFile(name, entry.getValue());
+                    report.written++;
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        commit.getBlobs().forEach((file, hash) -> {
-                Blob blob = this.objects().get(Blob.class, hash);
-                Path filePath = this.getWorkingDir().resolve(file);
-                try {
-                    Files.write(filePath, blob.getContents());
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
-
-        index.checkout(commit);
+        index.checkout(targets);
+        return report;
+    }
 
+    /**
+     * Writes a blob out as a file of the working directory and records its
+     * stat data.
+     * @param fileName
+     *            The path of the file.
+     * @param hash
+     *            The hash of the blob.
+     * @throws IOException
+     *             If the file could not be written.
+     */
+    private void writeWorkingFile(String fileName, String hash)
+            throws IOException {
+        Path filePath = this.getWorkingDir().resolve(fileName);
+        Files.createDirectories(filePath.getParent());
+        this.objects().checkoutBlob(hash, filePath);
+        this.index().record(fileName, FileStat.of(filePath), hash);
     }
 
     /**
@@ -165,35 +241,98 @@ public class Repository extends LazySerialManager<Serializable> {
      * @param filename
      */
     public void checkout(Commit commit, String filename, boolean stage) {
-        String blobHash = commit.get(filename);
+        String blobHash =
+                Tree.lookup(this.objects(), commit.getTree(), filename);
         if (blobHash == null) {
             throw new IllegalArgumentException(
                     "File does not exist in that commit.");
         }
+        this.checkout(filename, blobHash, stage);
+    }
 
-        Blob blob = this.objects().get(Blob.class, blobHash);
-        Path filePath = this.getWorkingDir().resolve(filename);
+    /**
+     * Checks out a blob as a given file.
+     * @param filename
+     *            The file.
+     * @param blobHash
+     *            The hash of the blob.
+     * @param stage
+     *            If the blob should be staged.
+     */
+    public void checkout(String filename, String blobHash, boolean stage) {
         try {
-            Files.write(filePath, blob.getContents());
+            this.writeWorkingFile(filename, blobHash);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        Index index = this.index();
-        index.checkout(filename, blobHash, stage);
+        this.index().checkout(filename, blobHash, stage);
+    }
+
+    /**
+     * Deletes a file of the working directory if it exists, along with the
+     * directories it leaves empty.
+     * @param fileName
+     *            The path of the file.
+     * @throws IOException
+     *             If the file could not be deleted.
+     */
+    public void deleteWorkingFile(String fileName) throws IOException {
+        Path filePath = this.getWorkingDir().resolve(fileName);
+        if (!Files.deleteIfExists(filePath)) {
+            return;
+        }
+        Path dir = filePath.getParent();
+        while (!dir.equals(this.getWorkingDir())) {
+            try (DirectoryStream<Path> rest = Files.newDirectoryStream(dir)) {
+                if (rest.iterator().hasNext()) {
+                    return;
+                }
+            }
+            Files.delete(dir);
+            dir = dir.getParent();
+        }
     }
 
     /**
      * Adds a commit to the head.
-     * @param commit
-     *            The commit to add to the head.
+     * @param message
+     *            The commit message.
+     * @param changes
+     *            The blobs of the paths changed since the head, or null for
+     *            paths which were removed.
      * @return The Sha-1 of the commit.
      */
     public String addCommitAtHead(String message,
-            HashMap<String, String> blobs) {
+            SortedMap<String, String> changes) {
+        return this.addCommitAtHead(message, changes,
+                Collections.emptyList());
+    }
+
+    /**
+     * Adds a commit to the head with further parents, as for a merge. Only
+     * the trees along the changed paths are written.
+     * @param message
+     *            The commit message.
+     * @param changes
+     *            The blobs of the paths changed since the head, or null for
+     *            paths which were removed.
+     * @param merged
+     *            The hashes of the parents besides the head.
+     * @return The Sha-1 of the commit.
+     */
+    public String addCommitAtHead(String message,
+            SortedMap<String, String> changes, List<String> merged) {
         String headHash = this.refs().resolve(HEAD);
+        Commit head = this.objects().get(Commit.class, headHash);
+        String tree =
+                Tree.update(this.objects(), head.getTree(), changes);
+
+        List<String> parents = new ArrayList<>();
+        parents.add(headHash);
+        parents.addAll(merged);
         LocalDateTime now = LocalDateTime.now();
         String commitHash =
-                this.objects().put(new Commit(message, now, headHash, blobs));
+                this.objects().put(new Commit(message, now, parents, tree));
 
         this.getCurrentBranch().setTarget(commitHash);
         return commitHash;
@@ -222,6 +361,7 @@ public class Repository extends LazySerialManager<Serializable> {
      */
     @Override
     public void open() {
+        this.lock();
         super.open();
         this.refMan.open();
         this.objectMan.open();
@@ -229,13 +369,67 @@ public class Repository extends LazySerialManager<Serializable> {
     }
 
     /**
-     * Closes a repository and serializes every loaded object.
+     * Closes a repository, saving the index and writing back every object
+     * which was added or changed, then releases its lock.
      */
     @Override
     public void close() {
+        if (this.isOpen() && this.index != null) {
+            try {
+                this.index.save(this.gitletDir.resolve(INDEX));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.index = null;
         super.close();
         this.refMan.close();
         this.objectMan.close();
+        this.unlock();
+    }
+
+    /**
+     * Locks the repository, waiting for any other process which holds it,
+     * so that two processes working in the same repository take turns
+     * rather than interleave their writes. The lock is released by the
+     * operating system if the process dies.
+     */
+    private void lock() {
+        if (this.lock != null) {
+            return;
+        }
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(this.gitletDir);
+            channel = FileChannel.open(this.gitletDir.resolve(LOCK),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            this.lock = channel.lock();
+        } catch (IOException | OverlappingFileLockException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException c) {
+                    c.printStackTrace();
+                }
+            }
+            throw new IllegalStateException(
+                    "Could not lock the repository.");
+        }
+    }
+
+    /**
+     * Releases the lock on the repository.
+     */
+    private void unlock() {
+        if (this.lock == null) {
+            return;
+        }
+        try {
+            this.lock.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.lock = null;
     }
 
     /** Gets the working directory */
@@ -248,4 +442,51 @@ public class Repository extends LazySerialManager<Serializable> {
         return false;
     }
 
+    /**
+     * Represents the counts of the files a checkout touched.
+     * @author william
+     */
+    public static class CheckoutReport {
+        /**
+         * The number of files written.
+         */
+        private int written;
+
+        /**
+         * The number of files deleted.
+         */
+        private int deleted;
+
+        /**
+         * The number of tracked files verified unchanged and left alone.
+         */
+        private int unchanged;
+
+        /**
+         * @return the number of files written.
+         */
+        public int getWritten() {
+            return this.written;
+        }
+
+        /**
+         * @return the number of files deleted.
+         */
+        public int getDeleted() {
+            return this.deleted;
+        }
+
+        /**
+         * @return the number of files left untouched.
+         */
+        public int getUnchanged() {
+            return this.unchanged;
+        }
+
+        @Override
+        public String toString() {
+            return this.written + " written, " + this.deleted + " deleted, "
+                    + this.unchanged + " unchanged";
+        }
+    }
 }
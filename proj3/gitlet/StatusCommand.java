@@ -7,14 +7,21 @@ import static gitlet.ReferenceType.BRANCH;
 import static gitlet.ReferenceType.HEAD;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * @author william
+ * @author william Represents a status command. Unlike checkout and merge,
+ *         which compare the trees of two commits with {@link TreeDiff},
+ *         status compares the index with the head commit and the working
+ *         directory, neither of which is a stored tree. The staged and
+ *         removed files are read from the flags the index keeps against
+ *         the head commit as files are added and removed, so no snapshot
+ *         is compared for them, and building trees of the index only to
+ *         diff them would write objects during a command which only
+ *         reads.
  */
 public class StatusCommand implements Command {
 
@@ -44,7 +51,7 @@ public class StatusCommand implements Command {
         index.getRemoved().forEach((name, hash) -> System.out.println(name));
 
         try {
-            this.diff(index, workingDir);
+            this.diff(index, workingDir, WorkingTree.jobs(args));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -52,34 +59,31 @@ public class StatusCommand implements Command {
     }
 
     /**
-     * Outputs the diff between the index and the working dir.
+     * Outputs the diff between the index and the working dir. Files whose
+     * stat data are unchanged since they were last hashed are not read, and
+     * the rest are hashed concurrently.
      * @param index The index.
      * @param workingDir The working ditrectory.
+     * @param jobs The number of threads to hash with.
      */
-    private void diff(Index index, Path workingDir) throws IOException {
-        HashMap<String, String> curBlobs = new HashMap<String, String>();
-
-        for (Path entry : Files.newDirectoryStream(workingDir)) {
-            if (!Files.isDirectory(entry)) {
-                String name = entry.getFileName().toString();
-                Blob entryBlob = new Blob(Files.readAllBytes(entry));
-
-                curBlobs.put(name, entryBlob.sha1());
-            }
-        }
+    private void diff(Index index, Path workingDir, int jobs)
+            throws IOException {
+        Map<String, String> curBlobs =
+                new WorkingTree(workingDir, jobs).hashAll(index);
+        Map<String, String> tracked = index.getBlobs();
 
         List<String> untracked = new ArrayList<>();
         List<String> notStaged = new ArrayList<>();
 
         curBlobs.forEach((name, hash) -> {
-                if (!index.getBlobs().containsKey(name)) {
+                if (!tracked.containsKey(name)) {
                     untracked.add(name);
-                } else if (!index.getBlobs().get(name).equals(hash)) {
+                } else if (!tracked.get(name).equals(hash)) {
                     notStaged.add(name + " (modified)");
                 }
             });
 
-        index.getBlobs().forEach((name, hash) -> {
+        tracked.forEach((name, hash) -> {
                 if (!curBlobs.containsKey(name)) {
                     notStaged.add(name + " (deleted)");
                 }
@@ -110,7 +114,7 @@ public class StatusCommand implements Command {
      */
     @Override
     public boolean checkOperands(String[] args) {
-        return args.length == 0;
+        return args.length == WorkingTree.jobsOperands(args);
     }
 
 }
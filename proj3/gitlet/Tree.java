@@ -0,0 +1,285 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Represents the snapshot of a single directory: the blob of every file and
+ * the tree of every subdirectory directly within it. A tree is identified by
+ * the hash of its entries, so a directory which did not change between two
+ * commits is stored once and shared by both, and a commit only writes the
+ * trees along the paths it changed.
+ * @author william
+ */
+public class Tree extends GitletObject {
+
+    /**
+     * The type name of trees in their canonical encoding.
+     */
+    public static final String TYPE = "tree";
+
+    /**
+     * The separator between the directories of a path.
+     */
+    public static final char SEPARATOR = '/';
+
+    /**
+     * The serial version ID for the tree class.
+     */
+    private static final long serialVersionUID = -4304787393245516305L;
+
+    /**
+     * The hashes of the blobs of the files in the directory by name.
+     */
+    private TreeMap<String, String> blobs;
+
+    /**
+     * The hashes of the trees of the subdirectories by name.
+     */
+    private TreeMap<String, String> trees;
+
+    /**
+     * Creates the tree of an empty directory.
+     */
+    public Tree() {
+        this(new TreeMap<>(), new TreeMap<>());
+    }
+
+    /**
+     * Creates a tree.
+     * @param blobs
+     *            The hashes of the blobs of the files by name.
+     * @param trees
+     *            The hashes of the trees of the subdirectories by name.
+     */
+    private Tree(TreeMap<String, String> blobs,
+            TreeMap<String, String> trees) {
+        this.blobs = blobs;
+        this.trees = trees;
+    }
+
+    /**
+     * @return the hashes of the blobs of the files by name.
+     */
+    public SortedMap<String, String> getBlobs() {
+        return Collections.unmodifiableSortedMap(this.blobs);
+    }
+
+    /**
+     * @return the hashes of the trees of the subdirectories by name.
+     */
+    public SortedMap<String, String> getTrees() {
+        return Collections.unmodifiableSortedMap(this.trees);
+    }
+
+    /**
+     * @return if the directory holds nothing.
+     */
+    public boolean isEmpty() {
+        return this.blobs.isEmpty() && this.trees.isEmpty();
+    }
+
+    /**
+     * Encodes the tree canonically: a line per file, then a line per
+     * subdirectory, each sorted by name.
+     * @return The canonical encoding.
+     */
+    public byte[] encode() {
+        StringBuilder sb = new StringBuilder();
+        this.blobs.forEach((name, hash) -> {
+                sb.append(Blob.TYPE).append(' ').append(hash).append(' ')
+                        .append(name).append('\n');
+            });
+        this.trees.forEach((name, hash) -> {
+                sb.append(TYPE).append(' ').append(hash).append(' ')
+                        .append(name).append('\n');
+            });
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The SHA-1 of a tree is that of its canonical encoding.
+     */
+    @Override
+    protected String computeSha1() {
+        return this.sha1(TYPE, this.encode());
+    }
+
+    /**
+     * Looks up the blob of a file, reading only the trees along its path.
+     * @param objects
+     *            The store holding the trees.
+     * @param root
+     *            The hash of the root tree.
+     * @param path
+     *            The path of the file.
+     * @return The hash of the blob, or null if there is no such file.
+     */
+    public static String lookup(GitletObjectManager objects, String root,
+            String path) {
+        Tree tree = objects.get(Tree.class, root);
+        int start = 0;
+        int slash = path.indexOf(SEPARATOR);
+        while (tree != null && slash >= 0) {
+            String sub = tree.trees.get(path.substring(start, slash));
+            tree = sub == null ? null : objects.get(Tree.class, sub);
+            start = slash + 1;
+            slash = path.indexOf(SEPARATOR, start);
+        }
+        return tree == null ? null : tree.blobs.get(path.substring(start));
+    }
+
+    /**
+     * Lists every file beneath a tree.
+     * @param objects
+     *            The store holding the trees.
+     * @param root
+     *            The hash of the root tree.
+     * @return A map of paths to the hashes of their blobs, sorted by path.
+     */
+    public static TreeMap<String, String> flatten(
+            GitletObjectManager objects, String root) {
+        TreeMap<String, String> files = new TreeMap<>();
+        flatten(objects, root, "", files);
+        return files;
+    }
+
+    /**
+     * Lists every file beneath a tree into a map.
+     * @param objects
+     *            The store holding the trees.
+     * @param hash
+     *            The hash of the tree.
+     * @param prefix
+     *            The path of the tree followed by a separator, or the empty
+     *            string for the root.
+     * @param files
+     *            The map of paths to hashes.
+     */
+    private static void flatten(GitletObjectManager objects, String hash,
+            String prefix, Map<String, String> files) {
+        Tree tree = objects.get(Tree.class, hash);
+        if (tree == null) {
+            throw new IllegalStateException("Missing tree " + hash + ".");
+        }
+        tree.blobs.forEach((name, blob) -> files.put(prefix + name, blob));
+        tree.trees.forEach((name, sub) -> flatten(objects, sub,
+                prefix + name + SEPARATOR, files));
+    }
+
+    /**
+     * Applies changes to the files beneath a tree, storing new trees only
+     * for the directories along the changed paths. Directories left empty
+     * are dropped.
+     * @param objects
+     *            The store holding the trees.
+     * @param root
+     *            The hash of the root tree.
+     * @param changes
+     *            The new hash of the blob of each changed path, or null for
+     *            paths which were removed.
+     * @return The hash of the new root tree.
+     */
+    public static String update(GitletObjectManager objects, String root,
+            SortedMap<String, String> changes) {
+        Tree tree = objects.get(Tree.class, root);
+        if (tree == null) {
+            throw new IllegalStateException("Missing tree " + root + ".");
+        }
+        return objects.put(update(objects, tree, changes));
+    }
+
+    /**
+     * Applies changes to a tree.
+     * @param objects
+     *            The store holding the trees.
+     * @param tree
+     *            The tree.
+     * @param changes
+     *            The changes, relative to the directory of the tree.
+     * @return The changed tree, with its subtrees stored.
+     */
+    private static Tree update(GitletObjectManager objects, Tree tree,
+            SortedMap<String, String> changes) {
+        Tree updated = new Tree(new TreeMap<>(tree.blobs),
+                new TreeMap<>(tree.trees));
+        SortedMap<String, String> rest = changes;
+        while (!rest.isEmpty()) {
+            String path = rest.firstKey();
+            int slash = path.indexOf(SEPARATOR);
+            if (slash < 0) {
+                String hash = rest.get(path);
+                if (hash == null) {
+                    updated.blobs.remove(path);
+                } else {
+                    updated.blobs.put(path, hash);
+                    updated.trees.remove(path);
+                }
+                rest = rest.tailMap(path + '\0');
+                continue;
+            }
+
+            String dir = path.substring(0, slash);
+            String end = dir + (char) (SEPARATOR + 1);
+            SortedMap<String, String> sub = new TreeMap<>();
+            rest.subMap(dir + SEPARATOR, end).forEach((p, hash) -> sub
+                    .put(p.substring(slash + 1), hash));
+            rest = rest.tailMap(end);
+
+            String old = updated.trees.get(dir);
+            Tree child = old == null ? new Tree()
+                    : objects.get(Tree.class, old);
+            child = update(objects, child, sub);
+            if (child.isEmpty()) {
+                updated.trees.remove(dir);
+            } else {
+                updated.trees.put(dir, objects.put(child));
+                updated.blobs.remove(dir);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Gathers the trees and blobs beneath a tree which another store lacks.
+     * A tree the other store already holds, or which was already seen, is
+     * not descended into, as everything beneath it is held or gathered as
+     * well. Every tree is gathered after the objects beneath it.
+     * @param from
+     *            The store holding the tree.
+     * @param to
+     *            The store to which the objects are headed.
+     * @param root
+     *            The hash of the tree.
+     * @param seen
+     *            The hashes of the objects already gathered, to which those
+     *            gathered now are added.
+     * @param missing
+     *            The collection the hashes of the missing objects are added
+     *            to.
+     * @param blobs
+     *            If blobs are gathered as well as trees.
+     */
+    public static void collect(GitletObjectManager from,
+            GitletObjectManager to, String root, Set<String> seen,
+            Collection<String> missing, boolean blobs) {
+        if (to.contains(Tree.class, root) || !seen.add(root)) {
+            return;
+        }
+        Tree tree = from.get(Tree.class, root);
+        for (String blob : tree.blobs.values()) {
+            if (blobs && !to.contains(Blob.class, blob) && seen.add(blob)) {
+                missing.add(blob);
+            }
+        }
+        for (String sub : tree.trees.values()) {
+            collect(from, to, sub, seen, missing, blobs);
+        }
+        missing.add(root);
+    }
+}
@@ -0,0 +1,313 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * Compares the trees of commits. Trees are walked together directory by
+ * directory, and a subdirectory whose tree hash is the same on the sides
+ * that matter is skipped without being read, so the cost of a comparison
+ * depends on the paths which differ rather than on the size of the
+ * snapshots.
+ * @author william
+ */
+public class TreeDiff {
+
+    /**
+     * Lists the paths whose blobs differ between two trees.
+     * @param objects
+     *            The store holding the trees.
+     * @param oldTree
+     *            The hash of the old tree, or null for an empty tree.
+     * @param newTree
+     *            The hash of the new tree, or null for an empty tree.
+     * @return The changes, directory by directory.
+     */
+    public static List<Change> diff(GitletObjectManager objects,
+            String oldTree, String newTree) {
+        List<Change> changes = new ArrayList<>();
+        diff(objects, oldTree, newTree, "", changes);
+        return changes;
+    }
+
+    /**
+     * Lists the paths whose blobs differ between two trees.
+     * @param objects
+     *            The store holding the trees.
+     * @param oldTree
+     *            The hash of the old tree, or null.
+     * @param newTree
+     *            The hash of the new tree, or null.
+     * @param prefix
+     *            The path of the trees followed by a separator, or the empty
+     *            string for the root.
+     * @param changes
+     *            The list the changes are added to.
+     */
+    private static void diff(GitletObjectManager objects, String oldTree,
+            String newTree, String prefix, List<Change> changes) {
+        if (Objects.equals(oldTree, newTree)) {
+            return;
+        }
+        Tree before = load(objects, oldTree);
+        Tree after = load(objects, newTree);
+
+        for (String name : names(before.getBlobs(), after.getBlobs())) {
+            String oldHash = before.getBlobs().get(name);
+            String newHash = after.getBlobs().get(name);
+            if (!Objects.equals(oldHash, newHash)) {
+                changes.add(new Change(prefix + name, oldHash, newHash));
+            }
+        }
+        for (String name : names(before.getTrees(), after.getTrees())) {
+            diff(objects, before.getTrees().get(name),
+                    after.getTrees().get(name),
+                    prefix + name + Tree.SEPARATOR, changes);
+        }
+    }
+
+    /**
+     * Lists the paths whose blobs one side of a merge, theirs, changed since
+     * the base and the other side, ours, does not already hold. A
+     * subdirectory is skipped whenever theirs is unchanged from the base or
+     * identical to ours.
+     * @param objects
+     *            The store holding the trees.
+     * @param base
+     *            The hash of the tree of the common ancestor, or null.
+     * @param ours
+     *            The hash of our tree, or null.
+     * @param theirs
+     *            The hash of their tree, or null.
+     * @return The changes, directory by directory.
+     */
+    public static List<MergeChange> diff3(GitletObjectManager objects,
+            String base, String ours, String theirs) {
+        List<MergeChange> changes = new ArrayList<>();
+        diff3(objects, base, ours, theirs, "", changes);
+        return changes;
+    }
+
+    /**
+     * Lists the paths their side changed which our side lacks.
+     * @param objects
+     *            The store holding the trees.
+     * @param base
+     *            The hash of the tree of the common ancestor, or null.
+     * @param ours
+     *            The hash of our tree, or null.
+     * @param theirs
+     *            The hash of their tree, or null.
+     * @param prefix
+     *            The path of the trees followed by a separator, or the empty
+     *            string for the root.
+     * @param changes
+     *            The list the changes are added to.
+     */
+    private static void diff3(GitletObjectManager objects, String base,
+            String ours, String theirs, String prefix,
+            List<MergeChange> changes) {
+        if (Objects.equals(theirs, base) || Objects.equals(theirs, ours)) {
+            return;
+        }
+        Tree split = load(objects, base);
+        Tree head = load(objects, ours);
+        Tree other = load(objects, theirs);
+
+        for (String name : names(split.getBlobs(), head.getBlobs(),
+                other.getBlobs())) {
+            String baseHash = split.getBlobs().get(name);
+            String ourHash = head.getBlobs().get(name);
+            String theirHash = other.getBlobs().get(name);
+            if (!Objects.equals(theirHash, baseHash)
+                    && !Objects.equals(theirHash, ourHash)) {
+                changes.add(new MergeChange(prefix + name, baseHash,
+                        ourHash, theirHash));
+            }
+        }
+        for (String name : names(split.getTrees(), head.getTrees(),
+                other.getTrees())) {
+            diff3(objects, split.getTrees().get(name),
+                    head.getTrees().get(name), other.getTrees().get(name),
+                    prefix + name + Tree.SEPARATOR, changes);
+        }
+    }
+
+    /**
+     * Loads a tree.
+     * @param objects
+     *            The store holding the tree.
+     * @param hash
+     *            The hash of the tree, or null for an empty tree.
+     * @return The tree.
+     */
+    private static Tree load(GitletObjectManager objects, String hash) {
+        if (hash == null) {
+            return new Tree();
+        }
+        Tree tree = objects.get(Tree.class, hash);
+        if (tree == null) {
+            throw new IllegalStateException("Missing tree " + hash + ".");
+        }
+        return tree;
+    }
+
+    /**
+     * Gathers the names of the entries of several directories.
+     * @param entries
+     *            The entries of each directory.
+     * @return The names, sorted.
+     */
+    @SafeVarargs
+    private static TreeSet<String> names(
+            SortedMap<String, String>... entries) {
+        TreeSet<String> names = new TreeSet<>();
+        for (Map<String, String> map : entries) {
+            names.addAll(map.keySet());
+        }
+        return names;
+    }
+
+    /**
+     * Represents a path whose blob differs between two trees.
+     * @author william
+     */
+    public static class Change {
+        /**
+         * The path.
+         */
+        private String path;
+
+        /**
+         * The hash of the old blob, or null if the path was added.
+         */
+        private String oldHash;
+
+        /**
+         * The hash of the new blob, or null if the path was removed.
+         */
+        private String newHash;
+
+        /**
+         * Creates a change.
+         * @param path
+         *            The path.
+         * @param oldHash
+         *            The hash of the old blob, or null.
+         * @param newHash
+         *            The hash of the new blob, or null.
+         */
+        public Change(String path, String oldHash, String newHash) {
+            this.path = path;
+            this.oldHash = oldHash;
+            this.newHash = newHash;
+        }
+
+        /**
+         * @return the path.
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+        /**
+         * @return the hash of the old blob, or null if the path was added.
+         */
+        public String getOldHash() {
+            return this.oldHash;
+        }
+
+        /**
+         * @return the hash of the new blob, or null if the path was removed.
+         */
+        public String getNewHash() {
+            return this.newHash;
+        }
+    }
+
+    /**
+     * Represents a path their side of a merge changed.
+     * @author william
+     */
+    public static class MergeChange {
+        /**
+         * The path.
+         */
+        private String path;
+
+        /**
+         * The hash of the blob of the common ancestor, or null.
+         */
+        private String base;
+
+        /**
+         * The hash of our blob, or null.
+         */
+        private String ours;
+
+        /**
+         * The hash of their blob, or null.
+         */
+        private String theirs;
+
+        /**
+         * Creates a merge change.
+         * @param path
+         *            The path.
+         * @param base
+         *            The hash of the blob of the common ancestor, or null.
+         * @param ours
+         *            The hash of our blob, or null.
+         * @param theirs
+         *            The hash of their blob, or null.
+         */
+        public MergeChange(String path, String base, String ours,
+                String theirs) {
+            this.path = path;
+            this.base = base;
+            this.ours = ours;
+            this.theirs = theirs;
+        }
+
+        /**
+         * @return the path.
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+        /**
+         * @return the hash of the blob of the common ancestor, or null.
+         */
+        public String getBase() {
+            return this.base;
+        }
+
+        /**
+         * @return the hash of our blob, or null.
+         */
+        public String getOurs() {
+            return this.ours;
+        }
+
+        /**
+         * @return the hash of their blob, or null.
+         */
+        public String getTheirs() {
+            return this.theirs;
+        }
+
+        /**
+         * Determines if only their side changed the path, so that their blob
+         * can be taken as it is.
+         * @return If our blob is that of the common ancestor.
+         */
+        public boolean isClean() {
+            return Objects.equals(this.ours, this.base);
+        }
+    }
+}
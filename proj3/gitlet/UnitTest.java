@@ -1,12 +1,34 @@
 package gitlet;
 
+import static gitlet.ReferenceType.BRANCH;
 import static gitlet.ReferenceType.HEAD;
 import static gitlet.ReferenceType.TAG;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.time.LocalDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -53,7 +75,7 @@ public class UnitTest {
 
     @Test
     public void refsTest() {
-        HashMap<String, String> firstBlobs = new HashMap<>();
+        TreeMap<String, String> firstBlobs = new TreeMap<>();
         firstBlobs.put("lol.file", "a");
         firstBlobs.put("friend.file", "b");
 
@@ -71,22 +93,1188 @@ public class UnitTest {
 
     }
 
+    /**
+     * Tests that a file streamed into the store hashes as it would in memory
+     * and can be checked back out unchanged.
+     */
+    @Test
+    public void blobTest() throws IOException {
+        byte[] contents = "streamed contents\n".getBytes();
+        Path file = tempDir.getPath().resolve("hashed.file");
+        Path copy = tempDir.getPath().resolve("copied.file");
+        Files.write(file, contents);
+
+        String hash = this.repo.objects().putFile(file);
+        assertEquals(HashUtils.sha1(Blob.TYPE, contents), hash);
+        assertEquals(hash, Blob.hash(file));
+
+        this.repo.objects().get(Blob.class, hash).writeTo(copy);
+        assertArrayEquals(contents, Files.readAllBytes(copy));
+        Files.delete(file);
+        Files.delete(copy);
+    }
+
+    /**
+     * Benchmarks storing and checking out a text heavy file with and without
+     * compression, checking that compression writes under a quarter of the
+     * bytes.
+     */
+    @Test
+    public void compressionBenchmark() throws IOException {
+        Path source = tempDir.getPath().resolve("bench.txt");
+        try (BufferedWriter out = Files.newBufferedWriter(source)) {
+            for (int i = 0; i < 100000; i++) {
+                out.write("line " + i + " of a rather text heavy history\n");
+            }
+        }
+
+        long[] written = new long[2];
+        for (int pass = 0; pass < 2; pass++) {
+            boolean compress = pass == 1;
+            Path base = tempDir.getPath().resolve("bench" + pass);
+            GitletObjectManager store = new GitletObjectManager(base);
+            store.open();
+            store.setCompression(compress);
+
+            String hash = store.putFile(source);
+            Path copy = base.resolve("checkout.txt");
+            store.checkoutBlob(hash, copy);
+
+            assertEquals(hash, Blob.hash(copy));
+            written[pass] = Files.size(base.resolve(hash.substring(0, 2))
+                    .resolve(hash.substring(2)));
+            store.close();
+        }
+        Files.delete(source);
+        assertTrue(written[1] * 4 < written[0]);
+    }
+
+    /**
+     * Tests that successive versions of a file are stored as delta chains no
+     * longer than the bound, and resolve back to identical contents.
+     */
+    @Test
+    public void deltaTest() throws IOException {
+        Path base = tempDir.getPath().resolve("delta");
+        GitletObjectManager store = new GitletObjectManager(base);
+        store.open();
+        store.setMaxDeltaChain(2);
+
+        byte[] contents = new byte[1 << 20];
+        new Random(61).nextBytes(contents);
+        Path file = base.resolve("version.bin");
+        String[] hashes = new String[4];
+        for (int v = 0; v < hashes.length; v++) {
+            contents[v * 1000] ^= 1;
+            byte[] version = new byte[contents.length + v];
+            System.arraycopy(contents, 0, version, v, contents.length);
+            Files.write(file, version);
+            hashes[v] = store.putFile(file, v == 0 ? null : hashes[v - 1]);
+            assertEquals(Blob.hash(file), hashes[v]);
+        }
+
+        assertEquals(0, store.deltaDepth(hashes[0]));
+        assertEquals(1, store.deltaDepth(hashes[1]));
+        assertEquals(2, store.deltaDepth(hashes[2]));
+        assertEquals(0, store.deltaDepth(hashes[3]));
+        assertEquals(hashes[1], store.deltaBase(hashes[2]));
+        assertTrue(Files.size(base.resolve(hashes[2].substring(0, 2))
+                .resolve(hashes[2].substring(2))) < contents.length / 100);
+
+        for (String hash : hashes) {
+            store.checkoutBlob(hash, file);
+            assertEquals(hash, Blob.hash(file));
+            try (InputStream in = store.openBlob(hash)) {
+                assertArrayEquals(Files.readAllBytes(file), in.readAllBytes());
+            }
+        }
+        store.close();
+    }
+
+    @Test
+    public void statCacheTest() throws IOException {
+        Index index = new Index();
+        Path file = tempDir.getPath().resolve("stat.txt");
+        Files.write(file, "first".getBytes());
+
+        FileStat fresh = FileStat.of(file);
+        assertTrue(fresh.isRacy());
+        String hash = index.hash("stat.txt", file, fresh);
+        assertNull(index.cachedHash("stat.txt", FileStat.of(file)));
+
+        Files.setLastModifiedTime(file,
+                FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        FileStat old = FileStat.of(file);
+        assertFalse(old.isRacy());
+        assertEquals(hash, index.hash("stat.txt", file, old));
+        assertEquals(hash, index.cachedHash("stat.txt", FileStat.of(file)));
+
+        Files.write(file, "second".getBytes());
+        assertNull(index.cachedHash("stat.txt", FileStat.of(file)));
+        assertEquals(Blob.hash(file),
+                index.hash("stat.txt", file, FileStat.of(file)));
+        Files.delete(file);
+    }
+
+    @Test
+    public void indexFileTest() throws IOException {
+        Path path = tempDir.getPath().resolve("index.bin");
+        Index index = new Index();
+        for (int i = 0; i < 1000; i++) {
+            index.add("file" + i, HashUtils.sha1(Blob.TYPE, new byte[i]));
+        }
+        index.save(path);
+
+        Index reread = Index.open(path);
+        assertEquals(1000, reread.getStaged().size());
+        assertEquals(HashUtils.sha1(Blob.TYPE, new byte[500]),
+                reread.getTracked("file500"));
+        assertNull(reread.getTracked("file5000"));
+
+        String hash = HashUtils.sha1(Blob.TYPE, new byte[0]);
+        reread.remove("file10", true);
+        reread.add("zzz", hash);
+        reread.save(path);
+
+        Index third = Index.open(path);
+        assertFalse(third.isTracked("file10"));
+        assertEquals(HashUtils.sha1(Blob.TYPE, new byte[10]),
+                third.getRemoved().get("file10"));
+        assertTrue(third.isStaged("zzz"));
+        assertEquals(1000, third.getBlobs().size());
+
+        Path corrupt = tempDir.getPath().resolve("corrupt.bin");
+        byte[] raw = Files.readAllBytes(path);
+        raw[20] ^= 1;
+        Files.write(corrupt, raw);
+        boolean detected = false;
+        try {
+            Index.open(corrupt);
+        } catch (IOException e) {
+            detected = true;
+        }
+        assertTrue(detected);
+    }
+
+    @Test
+    public void parallelScanBenchmark() throws IOException {
+        TempDirectory scan = new TempDirectory(tempDir.getPath(), "scan");
+        Path dir = scan.getPath();
+        try {
+            for (int i = 0; i < 4000; i++) {
+                Files.write(dir.resolve("file" + i), ("small file " + i
+                        + "\n").repeat(1 + i % 64).getBytes());
+            }
+            int jobs = Runtime.getRuntime().availableProcessors();
+            Map<String, String> serial = new WorkingTree(dir, 1)
+                    .hashAll(new Index());
+            Map<String, String> parallel = new WorkingTree(dir, jobs)
+                    .hashAll(new Index());
+
+            assertEquals(4000, serial.size());
+            assertEquals(serial, parallel);
+        } finally {
+            scan.delete();
+        }
+    }
+
+    /**
+     * Tests that packed objects can still be loaded and found.
+     */
+    @Test
+    public void packTest() {
+        TreeMap<String, String> blobs = new TreeMap<>();
+        blobs.put("packed.file", "c");
+        String tree = Tree.update(this.repo.objects(),
+                this.repo.objects().put(new Tree()), blobs);
+        String hash = this.repo.objects().put(new Commit("PACKED",
+                LocalDateTime.now(), this.repo.refs().resolve(HEAD), tree));
+        this.repo.close();
+
+        this.repo = new Repository(tempDir.getPath().toString());
+        assertTrue(this.repo.objects().repack() > 0);
+        assertFalse(Files.exists(this.repo.objects().getBaseDirectory()
+                .resolve(hash.substring(0, 2)).resolve(hash.substring(2))));
+        assertTrue(this.repo.objects().isPacked(hash));
+        this.repo.close();
+
+        this.repo = new Repository(tempDir.getPath().toString());
+        Commit packed = this.repo.objects().get(Commit.class, hash);
+        assertEquals("PACKED", packed.getMessage());
+        assertEquals(hash, this.repo.objects()
+                .find(Commit.class, hash.substring(0, 6)).sha1());
+    }
+
+    /**
+     * Tests that abbreviated hashes resolve to the one object of their type
+     * they begin, whether it is unwritten, loose or packed, and that
+     * ambiguous ones are reported.
+     */
+    @Test
+    public void prefixTest() {
+        GitletObjectManager objects = this.repo.objects();
+        String tree = objects.put(new Tree());
+        List<String> commits = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            commits.add(objects.put(new Commit("PREFIX" + i,
+                    LocalDateTime.now(), "", tree)));
+        }
+        String first = commits.get(0);
+        assertEquals(first, objects.find(Commit.class, first).sha1());
+        assertNull(objects.find(Tree.class, first.substring(0, 8)));
+        assertNull(objects.find(Commit.class, "not hex"));
+        this.repo.close();
+
+        for (int i = 0; i < 2; i++) {
+            this.repo = new Repository(tempDir.getPath().toString());
+            objects = this.repo.objects();
+            for (String hash : commits) {
+                assertEquals(hash, objects.find(Commit.class,
+                        hash.substring(0, 10)).sha1());
+                assertTrue(objects.findPrefix(Commit.class,
+                        hash.substring(0, 1)).contains(hash));
+            }
+            String ambiguous = null;
+            for (String hash : commits) {
+                if (objects.findPrefix(Commit.class, hash.substring(0, 1))
+                        .size() > 1) {
+                    ambiguous = hash.substring(0, 1);
+                }
+            }
+            try {
+                objects.find(Commit.class, ambiguous);
+                fail("The id should be ambiguous.");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("ambiguous"));
+            }
+            objects.repack();
+            this.repo.close();
+        }
+        this.repo = new Repository(tempDir.getPath().toString());
+    }
+
+    @Test
+    public void treeTest() {
+        GitletObjectManager objects = this.repo.objects();
+        TreeMap<String, String> files = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            files.put("dir" + i % 10 + "/sub/file" + i, "blob" + i);
+        }
+        files.put("top.file", "top");
+        String first = Tree.update(objects, objects.put(new Tree()), files);
+        assertEquals(files, Tree.flatten(objects, first));
+        assertEquals("blob42", Tree.lookup(objects, first, "dir2/sub/file42"));
+        assertNull(Tree.lookup(objects, first, "dir2/file42"));
+
+        TreeMap<String, String> changes = new TreeMap<>();
+        changes.put("dir3/sub/file13", "changed");
+        for (int i = 5; i < 100; i += 10) {
+            changes.put("dir5/sub/file" + i, null);
+        }
+        String second = Tree.update(objects, first, changes);
+
+        Tree before = objects.get(Tree.class, first);
+        Tree after = objects.get(Tree.class, second);
+        assertEquals(before.getTrees().get("dir0"),
+                after.getTrees().get("dir0"));
+        assertFalse(before.getTrees().get("dir3")
+                .equals(after.getTrees().get("dir3")));
+        assertFalse(after.getTrees().containsKey("dir5"));
+        assertEquals("changed",
+                Tree.lookup(objects, second, "dir3/sub/file13"));
+        assertEquals(91, Tree.flatten(objects, second).size());
+    }
+
+    @Test
+    public void treeDiffTest() {
+        GitletObjectManager objects = this.repo.objects();
+        String empty = objects.put(new Tree());
+        TreeMap<String, String> files = new TreeMap<>();
+        files.put("same/file", "s");
+        files.put("mine/file", "m");
+        files.put("both/file", "b");
+        files.put("theirs/file", "t");
+        String base = Tree.update(objects, empty, files);
+
+        TreeMap<String, String> mine = new TreeMap<>();
+        mine.put("mine/file", "m2");
+        mine.put("both/file", "b2");
+        String ours = Tree.update(objects, base, mine);
+
+        TreeMap<String, String> yours = new TreeMap<>();
+        yours.put("theirs/file", null);
+        yours.put("both/file", "b3");
+        yours.put("new/file", "n");
+        String theirs = Tree.update(objects, base, yours);
+
+        List<TreeDiff.Change> changes = TreeDiff.diff(objects, base, ours);
+        assertEquals(2, changes.size());
+        assertEquals("both/file", changes.get(0).getPath());
+        assertEquals("b", changes.get(0).getOldHash());
+        assertEquals("b2", changes.get(0).getNewHash());
+        assertEquals(4, TreeDiff.diff(objects, null, theirs).size());
+        assertTrue(TreeDiff.diff(objects, ours, ours).isEmpty());
+
+        Map<String, TreeDiff.MergeChange> merged = new TreeMap<>();
+        TreeDiff.diff3(objects, base, ours, theirs)
+                .forEach(x -> merged.put(x.getPath(), x));
+        assertEquals(3, merged.size());
+        assertFalse(merged.get("both/file").isClean());
+        assertTrue(merged.get("new/file").isClean());
+        assertTrue(merged.get("theirs/file").isClean());
+        assertNull(merged.get("theirs/file").getTheirs());
+    }
+
+    @Test
+    public void nestedCheckoutTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("nested");
+        Files.createDirectories(dir);
+        Repository nested = new Repository(dir.toString());
+        nested.init();
+        String start = nested.refs().resolve(HEAD);
+
+        Path file = dir.resolve("a/b/deep.file");
+        Files.createDirectories(file.getParent());
+        Files.write(file, "deep\n".getBytes());
+        new AddCommand().run(nested, new String[] { "a/b/deep.file" });
+        String commit = nested.addCommitAtHead("NESTED",
+                nested.index().changesFromStage());
+        assertEquals(HashUtils.sha1(Blob.TYPE, "deep\n".getBytes()),
+                Tree.lookup(nested.objects(),
+                        nested.objects().get(Commit.class, commit).getTree(),
+                        "a/b/deep.file"));
+
+        nested.checkout(nested.objects().get(Commit.class, start));
+        nested.getCurrentBranch().setTarget(start);
+        assertFalse(Files.exists(dir.resolve("a")));
+        nested.checkout(nested.objects().get(Commit.class, commit));
+        nested.getCurrentBranch().setTarget(commit);
+        assertEquals("deep\n", new String(Files.readAllBytes(file)));
+        assertTrue(nested.index().isTracked("a/b/deep.file"));
+        nested.close();
+    }
+
+    /**
+     * Tests that only the commits a store lacks are negotiated and that they
+     * arrive with everything beneath them.
+     */
+    @Test
+    public void transferTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("sender");
+        Path other = tempDir.getPath().resolve("receiver");
+        Files.createDirectories(dir.resolve("sub"));
+        Files.createDirectories(other);
+        Repository sender = new Repository(dir.toString());
+        sender.init();
+        Repository receiver = new Repository(other.toString());
+        receiver.init();
+
+        String[] names = new String[] { "a.file", "sub/b.file" };
+        String head = null;
+        for (int i = 0; i < 3; i++) {
+            for (String name : names) {
+                Files.write(dir.resolve(name), (name + i).getBytes());
+            }
+            new AddCommand().run(sender, names);
+            head = sender.addCommitAtHead("SENT" + i,
+                    sender.index().changesFromStage());
+        }
+        GitletObjectManager from = sender.objects();
+        GitletObjectManager to = receiver.objects();
+        List<String> wants = ObjectTransfer.negotiate(from, to, head);
+        assertEquals(4, wants.size());
+        assertEquals(sender.refs().resolve(TAG, "initial"), wants.get(3));
+        assertEquals(1 + 3 * 5, ObjectTransfer.send(from, to,
+                ObjectTransfer.negotiate(from, to, head)).getObjects());
+        assertEquals(0, ObjectTransfer.negotiate(from, to, head).size());
+
+        Files.write(dir.resolve(names[0]), "last".getBytes());
+        new AddCommand().run(sender, new String[] { names[0] });
+        head = sender.addCommitAtHead("SENT LAST",
+                sender.index().changesFromStage());
+        assertEquals(Arrays.asList(head),
+                ObjectTransfer.negotiate(from, to, head));
+        assertEquals(3, ObjectTransfer.send(from, to,
+                ObjectTransfer.negotiate(from, to, head)).getObjects());
+        sender.close();
+        receiver.close();
+
+        receiver = new Repository(other.toString());
+        Commit last = receiver.objects().get(Commit.class, head);
+        assertEquals("SENT LAST", last.getMessage());
+        assertEquals(Arrays.asList(head),
+                receiver.objects().messages().find("SENT LAST"));
+        Path copy = other.resolve("copy.file");
+        receiver.objects().get(Blob.class, Tree.flatten(receiver.objects(),
+                last.getTree()).get(names[1])).writeTo(copy);
+        assertEquals("sub/b.file2", new String(Files.readAllBytes(copy)));
+        receiver.close();
+    }
+
+    /**
+     * Tests that a shallow fetch holds only the latest commits until it is
+     * deepened, and that a blobless fetch fetches blobs as they are read.
+     */
+    @Test
+    public void shallowFetchTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("deep");
+        Path other = tempDir.getPath().resolve("shallow");
+        Files.createDirectories(dir);
+        Files.createDirectories(other);
+        Repository sender = new Repository(dir.toString());
+        sender.init();
+        Repository receiver = new Repository(other.toString());
+        receiver.init();
+
+        String head = null;
+        for (int i = 0; i < 3; i++) {
+            Files.write(dir.resolve("a.file"), ("deep" + i).getBytes());
+            new AddCommand().run(sender, new String[] { "a.file" });
+            head = sender.addCommitAtHead("DEEP" + i,
+                    sender.index().changesFromStage());
+        }
+        GitletObjectManager from = sender.objects();
+        GitletObjectManager to = receiver.objects();
+        List<String> wants = ObjectTransfer.negotiate(from, to, head, 1);
+        assertEquals(Arrays.asList(head), wants);
+        to.addPromisor(from.getBaseDirectory());
+        assertEquals(2, ObjectTransfer.send(from, to, wants, false)
+                .getObjects());
+        ObjectTransfer.graft(from, to, wants);
+        assertTrue(to.isShallow(head));
+        assertEquals(0, to.get(Commit.class, head).getParents().size());
+        String blob = Tree.flatten(to, to.get(Commit.class, head).getTree())
+                .get("a.file");
+        assertFalse(to.contains(Blob.class, blob));
+        sender.close();
+        receiver.close();
+
+        sender = new Repository(dir.toString());
+        receiver = new Repository(other.toString());
+        from = sender.objects();
+        to = receiver.objects();
+        assertTrue(to.isShallow(head));
+        Path copy = other.resolve("copy.file");
+        to.get(Blob.class, blob).writeTo(copy);
+        assertEquals("deep2", new String(Files.readAllBytes(copy)));
+        assertTrue(to.contains(Blob.class, blob));
+
+        wants = ObjectTransfer.negotiate(from, to, head);
+        assertEquals(4, wants.size());
+        assertEquals(head, wants.get(0));
+        ObjectTransfer.send(from, to, wants);
+        ObjectTransfer.graft(from, to, wants);
+        assertFalse(to.isShallow(head));
+        assertEquals(1, to.get(Commit.class, head).getParents().size());
+        assertEquals(0, ObjectTransfer.negotiate(from, to, head).size());
+        sender.close();
+        receiver.close();
+    }
+
+    /**
+     * Tests that a fetch deepens a repository fetched more than one commit
+     * deep, whose shallow commits lie behind the head it already holds.
+     */
+    @Test
+    public void deepenTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("history");
+        Path other = tempDir.getPath().resolve("clone");
+        Files.createDirectories(dir);
+        Files.createDirectories(other);
+        Repository sender = new Repository(dir.toString());
+        sender.init();
+        List<String> heads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Files.write(dir.resolve("a.file"), ("history" + i).getBytes());
+            new AddCommand().run(sender, new String[] { "a.file" });
+            heads.add(sender.addCommitAtHead("HISTORY" + i,
+                    sender.index().changesFromStage()));
+        }
+        sender.close();
+        Repository receiver = new Repository(other.toString());
+        receiver.init();
+        new AddRemoteCommand().run(receiver, new String[] { "R",
+                dir.resolve(".gitlet").toString() });
+
+        FetchCommand.fetch(receiver, "R", "master", 2, false);
+        receiver.close();
+        receiver = new Repository(other.toString());
+        GitletObjectManager to = receiver.objects();
+        assertTrue(to.contains(heads.get(2)));
+        assertTrue(to.isShallow(heads.get(2)));
+        assertFalse(to.contains(heads.get(1)));
+
+        FetchCommand.fetch(receiver, "R", "master");
+        receiver.close();
+        receiver = new Repository(other.toString());
+        to = receiver.objects();
+        assertFalse(to.hasShallow());
+        assertEquals(heads.get(1),
+                to.get(Commit.class, heads.get(2)).getParents().get(0));
+        int length = 0;
+        for (String cur = heads.get(3); cur != null; length++) {
+            List<String> parents = to.get(Commit.class, cur).getParents();
+            cur = parents.isEmpty() ? null : parents.get(0);
+        }
+        assertEquals(5, length);
+        receiver.close();
+    }
+
+    /**
+     * Tests that blobs left behind by blobless fetches from two remotes are
+     * each fetched from the remote which holds them.
+     */
+    @Test
+    public void promisorsTest() throws IOException {
+        Path other = tempDir.getPath().resolve("partial");
+        Files.createDirectories(other);
+        Repository receiver = new Repository(other.toString());
+        receiver.init();
+        List<String> blobs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Path dir = tempDir.getPath().resolve("promisor" + i);
+            Files.createDirectories(dir);
+            Repository sender = new Repository(dir.toString());
+            sender.init();
+            Files.write(dir.resolve("a.file"), ("promised" + i).getBytes());
+            new AddCommand().run(sender, new String[] { "a.file" });
+            String head = sender.addCommitAtHead("PROMISED" + i,
+                    sender.index().changesFromStage());
+            blobs.add(Tree.flatten(sender.objects(),
+                    sender.objects().get(Commit.class, head).getTree())
+                    .get("a.file"));
+            sender.close();
+            new AddRemoteCommand().run(receiver, new String[] { "R" + i,
+                    dir.resolve(".gitlet").toString() });
+            FetchCommand.fetch(receiver, "R" + i, "master",
+                    Integer.MAX_VALUE, true);
+        }
+        receiver.close();
+
+        receiver = new Repository(other.toString());
+        GitletObjectManager to = receiver.objects();
+        Path copy = other.resolve("copy.file");
+        for (int i = 0; i < 2; i++) {
+            assertFalse(to.contains(Blob.class, blobs.get(i)));
+            to.get(Blob.class, blobs.get(i)).writeTo(copy);
+            assertEquals("promised" + i, new String(Files.readAllBytes(copy)));
+        }
+        receiver.close();
+    }
+
+    /**
+     * Tests that garbage collection deletes exactly the unreachable objects,
+     * keeps the bases of reachable deltas and packs the survivors.
+     */
+    @Test
+    public void garbageCollectTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("collected");
+        Files.createDirectories(dir);
+        Repository work = new Repository(dir.toString());
+        work.init();
+        Files.write(dir.resolve("a.file"), "kept".getBytes());
+        new AddCommand().run(work, new String[] { "a.file" });
+        String head = work.addCommitAtHead("KEPT",
+                work.index().changesFromStage());
+        Files.write(dir.resolve("a.file"), "gone".getBytes());
+        new AddCommand().run(work, new String[] { "a.file" });
+        String gone = work.addCommitAtHead("GONE",
+                work.index().changesFromStage());
+        ResetCommand.reset(work, head);
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        Path file = dir.resolve("b.file");
+        Files.write(file, text.toString().getBytes());
+        GitletObjectManager objects = work.objects();
+        String base = objects.putFile(file);
+        Files.write(file, (text + "last\n").getBytes());
+        String delta = objects.putFile(file, base);
+        assertEquals(base, objects.deltaBase(delta));
+        Files.write(file, "orphan".getBytes());
+        String orphan = objects.putFile(file);
+        work.close();
+
+        work = new Repository(dir.toString());
+        objects = work.objects();
+        List<String> roots = Arrays.asList(work.refs().resolve(HEAD),
+                work.refs().resolve(TAG, "initial"));
+        GarbageCollector.Report report = GarbageCollector.collect(objects,
+                roots, Arrays.asList(delta));
+        assertEquals(4, report.getPruned());
+        assertEquals(objects.storedHashes().length, report.getKept());
+        assertTrue(report.getFreed() > 0);
+        assertFalse(objects.contains(gone));
+        assertFalse(objects.contains(orphan));
+        assertTrue(objects.isPacked(head));
+        assertTrue(objects.isPacked(base));
+        objects.get(Blob.class, delta).writeTo(file);
+        assertEquals(text + "last\n", new String(Files.readAllBytes(file)));
+        assertEquals(0, objects.messages().find("GONE").size());
+        assertEquals(Arrays.asList(head), objects.messages().find("KEPT"));
+        assertEquals(0, GarbageCollector.collect(objects, roots,
+                Arrays.asList(delta)).getPruned());
+        work.close();
+
+        work = new Repository(dir.toString());
+        assertEquals("KEPT",
+                work.objects().get(Commit.class, head).getMessage());
+        work.close();
+    }
+
+    /**
+     * Tests that a large pack stream is kept as a pack, written and read in
+     * one pass, and that a corrupt stream stores nothing.
+     */
+    @Test
+    public void packStreamTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("streamer");
+        Path other = tempDir.getPath().resolve("streamed");
+        Files.createDirectories(other);
+        Files.createDirectories(dir);
+        Repository sender = new Repository(dir.toString());
+        sender.init();
+        String[] names = new String[150];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "file" + i;
+            Files.write(dir.resolve(names[i]), ("stream " + i).getBytes());
+        }
+        new AddCommand().run(sender, names);
+        String head = sender.addCommitAtHead("STREAMED",
+                sender.index().changesFromStage());
+        sender.close();
+
+        sender = new Repository(dir.toString());
+        Repository receiver = new Repository(other.toString());
+        receiver.init();
+        GitletObjectManager from = sender.objects();
+        GitletObjectManager to = receiver.objects();
+        List<String> wants = ObjectTransfer.negotiate(from, to, head);
+
+        List<String> blobs = new ArrayList<>();
+        for (String name : names) {
+            blobs.add(Blob.hash(dir.resolve(name)));
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PackStream.write(from, blobs, bytes);
+        byte[] corrupt = bytes.toByteArray();
+        corrupt[corrupt.length / 2] ^= 1;
+        try {
+            to.receive(new ByteArrayInputStream(corrupt));
+            fail("The corrupt stream should have been refused.");
+        } catch (IOException e) {
+            assertFalse(to.contains(blobs.get(0)));
+        }
+
+        ObjectTransfer.Report report = ObjectTransfer.send(from, to, wants);
+        assertEquals(names.length + 3, report.getObjects());
+        assertTrue(report.getBytes() > 0);
+        assertTrue(to.isPacked(head));
+        assertTrue(to.isPacked(blobs.get(7)));
+        sender.close();
+        receiver.close();
+
+        receiver = new Repository(other.toString());
+        Path copy = other.resolve("copy.file");
+        receiver.objects().get(Blob.class, blobs.get(7)).writeTo(copy);
+        assertEquals("stream 7", new String(Files.readAllBytes(copy)));
+        assertEquals(Arrays.asList(head),
+                receiver.objects().messages().find("STREAMED"));
+        receiver.close();
+    }
+
+    @Test
+    public void incrementalCheckoutTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("incremental");
+        Files.createDirectories(dir);
+        Repository work = new Repository(dir.toString());
+        work.init();
+
+        String[] names = new String[200];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "dir" + i % 8 + "/file" + i;
+            Files.createDirectories(dir.resolve(names[i]).getParent());
+            Files.write(dir.resolve(names[i]), ("file " + i).getBytes());
+        }
+        new AddCommand().run(work, names);
+        String first = work.addCommitAtHead("FIRST",
+                work.index().changesFromStage());
+
+        Files.write(dir.resolve(names[3]), "changed".getBytes());
+        new AddCommand().run(work, new String[] { names[3] });
+        new RemoveCommand().run(work, new String[] { names[4] });
+        String second = work.addCommitAtHead("SECOND",
+                work.index().changesFromStage());
+
+        Files.write(dir.resolve(names[5]), "modified".getBytes());
+        Repository.CheckoutReport report =
+                work.checkout(work.objects().get(Commit.class, first));
+        work.getCurrentBranch().setTarget(first);
+        assertEquals(3, report.getWritten());
+        assertEquals(0, report.getDeleted());
+        assertEquals(197, report.getUnchanged());
+        assertEquals("file 3", new String(Files.readAllBytes(
+                dir.resolve(names[3]))));
+        assertEquals("file 5", new String(Files.readAllBytes(
+                dir.resolve(names[5]))));
+        assertTrue(Files.exists(dir.resolve(names[4])));
+
+        report = work.checkout(work.objects().get(Commit.class, second));
+        work.getCurrentBranch().setTarget(second);
+        assertEquals(1, report.getWritten());
+        assertEquals(1, report.getDeleted());
+        assertFalse(Files.exists(dir.resolve(names[4])));
+        work.close();
+    }
+
+    @Test
+    public void commitGraphTest() {
+        String tree = this.repo.objects().put(new Tree());
+        String root = this.repo.objects().put(new Commit("GRAPH ROOT",
+                LocalDateTime.now(), "", tree));
+        String left = root;
+        for (int i = 0; i < 30; i++) {
+            left = this.repo.objects().put(new Commit("GRAPH LEFT" + i,
+                    LocalDateTime.now(), left, tree));
+        }
+        String right = root;
+        for (int i = 0; i < 5; i++) {
+            right = this.repo.objects().put(new Commit("GRAPH RIGHT" + i,
+                    LocalDateTime.now(), right, tree));
+        }
+
+        CommitGraph graph = this.repo.objects().graph();
+        assertEquals(31, graph.generation(left));
+        assertEquals(root, graph.mergeBase(left, right));
+        assertTrue(graph.isAncestor(root, left));
+        assertFalse(graph.isAncestor(right, left));
+        assertEquals(30, graph.difference(left, right).size());
+        assertEquals(left, graph.difference(left, right).get(0));
+        this.repo.close();
+
+        this.repo = new Repository(tempDir.getPath().toString());
+        graph = this.repo.objects().graph();
+        assertTrue(graph.size() >= 36);
+        assertFalse(graph.isChanged());
+        assertEquals(root, graph.mergeBase(right, left));
+        assertEquals(6, graph.difference(right, "").size());
+        assertFalse(graph.isChanged());
+    }
+
+    @Test
+    public void cacheTest() {
+        String tree = this.repo.objects().put(new Tree());
+        List<String> commits = new ArrayList<>();
+        String parent = "";
+        for (int i = 0; i < 50; i++) {
+            parent = this.repo.objects().put(new Commit("CACHE" + i,
+                    LocalDateTime.now(), parent, tree));
+            commits.add(parent);
+        }
+        this.repo.close();
+
+        this.repo = new Repository(tempDir.getPath().toString());
+        ObjectCache cache = this.repo.objects().cache();
+        cache.setCapacity(2048);
+        for (int i = 0; i < commits.size(); i++) {
+            Commit commit =
+                    this.repo.objects().get(Commit.class, commits.get(i));
+            assertEquals("CACHE" + i, commit.getMessage());
+        }
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getResident() <= 2048);
+        assertEquals(50, cache.getMisses());
+
+        String last = commits.get(commits.size() - 1);
+        long hits = cache.getHits();
+        assertEquals("CACHE49",
+                this.repo.objects().get(Commit.class, last).getMessage());
+        assertEquals(hits + 1, cache.getHits());
+
+        String first = commits.get(0);
+        assertEquals("CACHE0",
+                this.repo.objects().get(Commit.class, first).getMessage());
+        assertEquals(51, cache.getMisses());
+
+        cache.setCapacity(0);
+        assertEquals(0, cache.getResident());
+    }
+
+    /**
+     * Tests that closing a repository after only reading from it writes
+     * nothing, and that moving a branch writes back only that branch.
+     */
+    @Test
+    public void writeBackTest() throws IOException {
+        TreeMap<String, String> blobs = new TreeMap<>();
+        blobs.put("written.file", "c");
+        this.repo.addCommitAtHead("WRITE BACK", blobs);
+        this.repo.close();
+
+        Path gitlet = tempDir.getPath().resolve(Repository.GITLET_DIR);
+        List<Path> files = stamp(gitlet);
+        this.repo = new Repository(tempDir.getPath().toString());
+        String head = this.repo.refs().resolve(HEAD);
+        Commit commit = this.repo.objects().get(Commit.class, head);
+        while (!commit.getParent().isEmpty()) {
+            commit = this.repo.objects().get(Commit.class,
+                    commit.getParent());
+        }
+        this.repo.refs().forEach(BRANCH, (name, ref) -> ref.target());
+        this.repo.getCurrentBranch().setTarget(head);
+        this.repo.close();
+        assertEquals(new ArrayList<Path>(), touched(gitlet, files));
+
+        this.repo = new Repository(tempDir.getPath().toString());
+        this.repo.getCurrentBranch().setTarget(commit.sha1());
+        this.repo.close();
+        String branch = this.repo.refs().get(HEAD).target();
+        assertEquals(Arrays.asList(gitlet.resolve("refs")
+                .resolve(BRANCH.getBaseDir() + branch)),
+                touched(gitlet, files));
+        this.repo = new Repository(tempDir.getPath().toString());
+        this.repo.getCurrentBranch().setTarget(head);
+    }
+
+    /**
+     * Tests that the objects of a store are found from its files alone,
+     * loose or packed, without reading anything when it is opened.
+     */
+    @Test
+    public void inventoryTest() {
+        String tree = this.repo.objects().put(new Tree());
+        String commit = this.repo.objects().put(new Commit("INVENTORY",
+                LocalDateTime.now(), "", tree));
+        this.repo.close();
+
+        Path gitlet = tempDir.getPath().resolve(Repository.GITLET_DIR);
+        assertFalse(Files.exists(gitlet.resolve("objects").resolve("SERIAL")));
+        assertFalse(Files.exists(gitlet.resolve("refs").resolve("SERIAL")));
+
+        for (int i = 0; i < 2; i++) {
+            this.repo = new Repository(tempDir.getPath().toString());
+            GitletObjectManager objects = this.repo.objects();
+            assertEquals(0, objects.cache().size());
+            assertTrue(objects.contains(commit));
+            assertTrue(objects.contains(Commit.class, commit));
+            assertFalse(objects.contains(Tree.class, commit));
+            assertTrue(objects.contains(Tree.class, tree));
+            assertEquals(0, objects.cache().size());
+
+            List<String> commits = new ArrayList<>();
+            objects.forEach(Commit.class, (hash, com) -> commits.add(hash));
+            assertTrue(commits.contains(commit));
+            assertFalse(commits.contains(tree));
+
+            objects.repack();
+            this.repo.close();
+        }
+        this.repo = new Repository(tempDir.getPath().toString());
+    }
+
+    /**
+     * Tests that commits are found by their messages from the log of the
+     * message index, from the index itself and after reopening the store,
+     * and that a store which lost its index is searched without writing
+     * and has the index rebuilt once commits are next stored.
+     */
+    @Test
+    public void messageIndexTest() throws IOException {
+        String tree = this.repo.objects().put(new Tree());
+        String fix = this.repo.objects().put(new Commit("Fix the INDEX bug",
+                LocalDateTime.now(), "", tree));
+        String other = this.repo.objects().put(new Commit("Fix the index",
+                LocalDateTime.now(), fix, tree));
+        MessageIndex messages = this.repo.objects().messages();
+        assertEquals(Arrays.asList(fix), messages.find("Fix the INDEX bug"));
+        assertTrue(messages.find("fix the index bug").isEmpty());
+        assertTrue(messages.findContaining("INDEX b").contains(fix));
+        assertFalse(messages.findContaining("INDEX b").contains(other));
+        assertTrue(messages.findStarting("Fix the ind").contains(other));
+        this.repo.close();
+
+        Path objects = tempDir.getPath().resolve(Repository.GITLET_DIR)
+                .resolve("objects");
+        for (int i = 0; i < 3; i++) {
+            this.repo = new Repository(tempDir.getPath().toString());
+            messages = this.repo.objects().messages();
+            assertEquals(Arrays.asList(other), messages.find("Fix the index"));
+            assertTrue(messages.findContaining("x the INDEX").contains(fix));
+            if (i == 0) {
+                this.repo.objects().repack();
+                assertFalse(Files.exists(objects.resolve("message-log")));
+            } else if (i == 1) {
+                Files.delete(objects.resolve("message-index"));
+            }
+            this.repo.close();
+        }
+        assertFalse(Files.exists(objects.resolve("message-index")));
+        this.repo = new Repository(tempDir.getPath().toString());
+        this.repo.objects().put(new Commit("Fix it again",
+                LocalDateTime.now(), other, tree));
+        this.repo.close();
+        assertTrue(Files.exists(objects.resolve("message-index")));
+        this.repo = new Repository(tempDir.getPath().toString());
+        assertEquals(Arrays.asList(fix),
+                this.repo.objects().messages().find("Fix the INDEX bug"));
+    }
+
+    /**
+     * Tests that text past the indexed start of a long word is still found,
+     * both before and after the message log is folded into the index.
+     */
+    @Test
+    public void longWordTest() {
+        this.repo.close();
+        this.repo = new Repository(tempDir.getPath().toString());
+        String tree = this.repo.objects().put(new Tree());
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            word.append('a');
+        }
+        String message = "Rename " + word + "xyz";
+        String hash = this.repo.objects().put(new Commit(message,
+                LocalDateTime.now(), "", tree));
+        for (int i = 0; i < 2; i++) {
+            MessageIndex messages = this.repo.objects().messages();
+            assertEquals(Arrays.asList(hash), messages.find(message));
+            assertEquals(Arrays.asList(hash),
+                    messages.findContaining("axyz"));
+            assertTrue(messages.findContaining("xyzw").isEmpty());
+            this.repo.objects().repack();
+        }
+    }
+
+    /**
+     * Tests that packed references are found, listed, overridden by loose
+     * ones and removed, and that resolved references follow their targets.
+     */
+    @Test
+    public void packedRefsTest() {
+        String head = this.repo.refs().resolve(HEAD);
+        for (int i = 0; i < 100; i++) {
+            this.repo.refs().add(TAG, "packed" + i, new Reference(head));
+        }
+        this.repo.close();
+
+        this.repo = new Repository(tempDir.getPath().toString());
+        assertTrue(this.repo.refs().pack() >= 100);
+        Path refs = tempDir.getPath().resolve(Repository.GITLET_DIR)
+                .resolve("refs");
+        assertFalse(Files.exists(refs.resolve(TAG.getBaseDir() + "packed7")));
+        assertEquals(0, this.repo.refs().pack());
+        this.repo.close();
+
+        this.repo = new Repository(tempDir.getPath().toString());
+        List<String> tags = new ArrayList<>();
+        this.repo.refs().forEach(TAG, (name, ref) -> {
+                if (name.startsWith("packed")) {
+                    tags.add(name);
+                }
+            });
+        assertEquals(100, tags.size());
+        assertEquals(head, this.repo.refs().resolve(TAG, "packed7"));
+        this.repo.refs().get(TAG, "packed7").setTarget("moved");
+        assertEquals("moved", this.repo.refs().resolve(TAG, "packed7"));
+        this.repo.refs().remove(TAG, "packed8");
+        this.repo.close();
+
+        assertTrue(Files.exists(refs.resolve(TAG.getBaseDir() + "packed7")));
+        this.repo = new Repository(tempDir.getPath().toString());
+        assertEquals("moved", this.repo.refs().resolve(TAG, "packed7"));
+        assertFalse(this.repo.refs().contains(TAG, "packed8"));
+        assertTrue(this.repo.refs().contains(TAG, "packed9"));
+        assertEquals(head, this.repo.refs().resolve(HEAD));
+        for (int i = 0; i < 100; i++) {
+            if (i != 8) {
+                this.repo.refs().remove(TAG, "packed" + i);
+            }
+        }
+    }
+
+    /**
+     * Tests that a write which dies midway leaves the old object in place
+     * and no temporary file behind.
+     */
+    @Test
+    public void crashTest() throws IOException {
+        Path dir = tempDir.getPath().resolve("crash");
+        LazySerialManager<Serializable> store = crashStore(dir);
+        store.add("victim", new Crash(1));
+        store.close();
+
+        store = crashStore(dir);
+        Crash victim = store.get(Crash.class, "victim");
+        victim.value = 2;
+        victim.crash = true;
+        store.markDirty("victim");
+        try {
+            store.close();
+            fail("The write should have died.");
+        } catch (IllegalStateException e) {
+            assertEquals("Killed midway.", e.getMessage());
+        }
+
+        store = crashStore(dir);
+        assertEquals(1, store.get(Crash.class, "victim").value);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertFalse(files.anyMatch(file -> file.getFileName().toString()
+                    .startsWith(AtomicFiles.TEMP_PREFIX)));
+        }
+        store.close();
+    }
+
+    /**
+     * Tests that a repository cannot be opened twice at once.
+     */
+    @Test
+    public void lockTest() {
+        try {
+            new Repository(tempDir.getPath().toString());
+            fail("The repository should have been locked.");
+        } catch (IllegalStateException e) {
+            assertEquals("Could not lock the repository.", e.getMessage());
+        }
+        this.repo.close();
+        this.repo = new Repository(tempDir.getPath().toString());
+        assertTrue(this.repo.isOpen());
+    }
+
+    /**
+     * Opens a bare serial manager.
+     * @param dir
+     *            The directory of the manager.
+     * @return The manager.
+     */
+    private static LazySerialManager<Serializable> crashStore(Path dir) {
+        LazySerialManager<Serializable> store =
+                new LazySerialManager<Serializable>(dir) {
+                    @Override
+                    protected boolean niceSerialization() {
+                        return false;
+                    }
+                };
+        store.open();
+        return store;
+    }
+
+    /**
+     * Represents an object whose serialization can be killed midway.
+     */
+    private static class Crash implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The value saved.
+         */
+        private int value;
+
+        /**
+         * If writing the object dies after part of it is written.
+         */
+        private transient boolean crash;
+
+        Crash(int value) {
+            this.value = value;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            if (this.crash) {
+                out.write(new byte[1 << 12]);
+                out.flush();
+                throw new IllegalStateException("Killed midway.");
+            }
+        }
+    }
+
+    /**
+     * Sets the modification time of every file beneath a directory to the
+     * epoch.
+     * @param dir
+     *            The directory.
+     * @return The files.
+     */
+    private static List<Path> stamp(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        for (Path file : files) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+        }
+        return files;
+    }
+
+    /**
+     * Lists the files beneath a directory written since it was stamped.
+     * @param dir
+     *            The directory.
+     * @param stamped
+     *            The files which were stamped.
+     * @return The files written or created.
+     */
+    private static List<Path> touched(Path dir, List<Path> stamped)
+            throws IOException {
+        List<Path> touched = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) walk::iterator) {
+                if (Files.isRegularFile(file) && (!stamped.contains(file)
+                        || Files.getLastModifiedTime(file).toMillis() != 0)) {
+                    touched.add(file);
+                }
+            }
+        }
+        return touched;
+    }
+
+    @Test
+    public void mergeParentsTest() {
+        String tree = this.repo.objects().put(new Tree());
+        String root = this.repo.objects().put(new Commit("MERGE ROOT",
+                LocalDateTime.now(), "", tree));
+        String topic = this.repo.objects().put(new Commit("MERGE TOPIC",
+                LocalDateTime.now(), root, tree));
+        String main = this.repo.objects().put(new Commit("MERGE MAIN",
+                LocalDateTime.now(), root, tree));
+        Commit merge = new Commit("MERGE", LocalDateTime.now(),
+                Arrays.asList(main, topic), tree);
+        String merged = this.repo.objects().put(merge);
+        assertEquals(main, merge.getParent());
+        assertEquals(Arrays.asList(main, topic), this.repo.objects()
+                .get(Commit.class, merged).getParents());
+
+        String topicNext = this.repo.objects().put(new Commit(
+                "MERGE TOPIC 2", LocalDateTime.now(), topic, tree));
+        String mainNext = this.repo.objects().put(new Commit(
+                "MERGE MAIN 2", LocalDateTime.now(), merged, tree));
+
+        assertEquals(topic,
+                MergeCommand.getSplitPoint(this.repo, mainNext, topicNext));
+        assertTrue(this.repo.objects().graph().isAncestor(topic, mainNext));
+        assertTrue(MergeCommand.getHistory(this.repo, mainNext,
+                new ArrayList<String>()).contains(topic));
+    }
+
     /**
      * Tests for a split point.
      */
     @Test
     public void splitpointTest() {
 
-        HashMap<String, String> firstBlobs = new HashMap<>();
+        TreeMap<String, String> firstBlobs = new TreeMap<>();
         firstBlobs.put("lol.file", "a");
         firstBlobs.put("friend.file", "b");
 
         String root = this.repo.addCommitAtHead("ROOT!", firstBlobs);
+        String tree = this.repo.objects().get(Commit.class, root).getTree();
         String prev = root;
         String left = "";
         for (int i = 0; i < 40; i++) {
             Commit com = new Commit("LEFT" + i, LocalDateTime.now(), prev,
-                    firstBlobs);
+                    tree);
             left = prev = this.repo.objects().put(com);
         }
 
@@ -94,7 +1282,7 @@ public class UnitTest {
         String right = "";
         for (int i = 0; i < 28; i++) {
             Commit com = new Commit("RIGHT" + i, LocalDateTime.now(), prev,
-                    firstBlobs);
+                    tree);
             right = prev = this.repo.objects().put(com);
         }
 
@@ -104,7 +1292,7 @@ public class UnitTest {
         left = "";
         for (int i = 0; i < 40; i++) {
             Commit com = new Commit("LEFT" + i, LocalDateTime.now(), prev,
-                    firstBlobs);
+                    tree);
             left = prev = this.repo.objects().put(com);
         }
 
@@ -112,7 +1300,7 @@ public class UnitTest {
         right = "";
         for (int i = 0; i < 27; i++) {
             Commit com = new Commit("RIGHT" + i, LocalDateTime.now(), prev,
-                    firstBlobs);
+                    tree);
             right = prev = this.repo.objects().put(com);
         }
 
@@ -0,0 +1,296 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Scans the files of a working directory concurrently on a bounded fork-join
+ * pool. The files are split in halves until each task holds only a few, and
+ * the results of every task are gathered into a concurrent map which callers
+ * then consume on a single thread.
+ * @author william
+ */
+public class WorkingTree {
+
+    /**
+     * The option selecting the number of threads.
+     */
+    public static final String JOBS_OPTION = "--jobs";
+
+    /**
+     * The number of files below which a task is no longer split.
+     */
+    private static final int THRESHOLD = 16;
+
+    /**
+     * The working directory.
+     */
+    private Path dir;
+
+    /**
+     * The number of threads to scan with.
+     */
+    private int jobs;
+
+    /**
+     * Creates a working tree scanner.
+     * @param dir
+     *            The working directory.
+     * @param jobs
+     *            The number of threads to scan with.
+     */
+    public WorkingTree(Path dir, int jobs) {
+        this.dir = dir;
+        this.jobs = jobs;
+    }
+
+    /**
+     * Hashes every file of the working directory and of its subdirectories,
+     * reading only those whose stat data the index cannot vouch for. The
+     * index is read concurrently but only updated once every file has been
+     * hashed.
+     * @param index
+     *            The index holding the stat cache.
+     * @return A map of file names to hashes.
+     * @throws IOException
+     *             If the directory or a file could not be read.
+     */
+    public Map<String, String> hashAll(Index index) throws IOException {
+        List<String> names = new ArrayList<>();
+        this.list(this.dir, "", names);
+
+        Map<String, FileStat> fresh = new ConcurrentHashMap<>();
+        Map<String, String> hashes = this.map(names, (name, file, stat) -> {
+                if (stat.isDirectory()) {
+                    return null;
+                }
+                String hash = index.cachedHash(name, stat);
+                if (hash == null) {
+                    hash = Blob.hash(file);
+                    fresh.put(name, stat);
+                }
+                return hash;
+            });
+        fresh.forEach((name, stat) -> index.record(name, stat,
+                hashes.get(name)));
+        return hashes;
+    }
+
+    /**
+     * Lists the files of a directory and its subdirectories, leaving out the
+     * gitlet directory.
+     * @param directory
+     *            The directory.
+     * @param prefix
+     *            The path of the directory followed by a separator, or the
+     *            empty string for the working directory.
+     * @param names
+     *            The list the paths of the files are added to.
+     * @throws IOException
+     *             If a directory could not be read.
+     */
+    private void list(Path directory, String prefix, List<String> names)
+            throws IOException {
+        try (DirectoryStream<Path> str = Files.newDirectoryStream(directory)) {
+            for (Path entry : str) {
+                String name = entry.getFileName().toString();
+                if (!Files.isDirectory(entry)) {
+                    names.add(prefix + name);
+                } else if (!prefix.isEmpty()
+                        || !name.equals(Repository.GITLET_DIR)) {
+                    this.list(entry, prefix + name + Tree.SEPARATOR, names);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a function to files of the working directory concurrently.
+     * @param names
+     *            The names of the files.
+     * @param function
+     *            The function.
+     * @return A map of file names to the non null results of the function.
+     * @throws IOException
+     *             If the function failed on any file.
+     */
+    public <R> Map<String, R> map(List<String> names,
+            FileFunction<R> function) throws IOException {
+        Map<String, R> results = new ConcurrentHashMap<>();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+
+        ForkJoinPool pool = new ForkJoinPool(this.jobs);
+        try {
+            pool.invoke(new ScanTask<R>(names, 0, names.size(), function,
+                    results, failure));
+        } finally {
+            pool.shutdown();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return results;
+    }
+
+    /**
+     * Gets the number of threads selected by a leading jobs option.
+     * @param args
+     *            The operands of a command.
+     * @return The number of threads, or the number of processors if the
+     *         option is absent.
+     */
+    public static int jobs(String[] args) {
+        if (jobsOperands(args) == 2) {
+            return Integer.parseInt(args[1]);
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Counts the operands taken by a leading jobs option.
+     * @param args
+     *            The operands of a command.
+     * @return Two if the option is well formed, zero if it is absent and -1
+     *         if it is malformed.
+     */
+    public static int jobsOperands(String[] args) {
+        if (args.length == 0 || !args[0].equals(JOBS_OPTION)) {
+            return 0;
+        }
+        if (args.length < 2 || !args[1].matches("[1-9][0-9]{0,3}")) {
+            return -1;
+        }
+        return 2;
+    }
+
+    /**
+     * Represents a function of a working file.
+     * @author william
+     * @param <R>
+     *            The type of the result.
+     */
+    @FunctionalInterface
+    public interface FileFunction<R> {
+        /**
+         * Applies the function to a file.
+         * @param name
+         *            The name of the file.
+         * @param file
+         *            The path of the file.
+         * @param stat
+         *            The stat data of the file.
+         * @return The result, or null to leave the file out.
+         * @throws IOException
+         *             If the file could not be read.
+         */
+        R apply(String name, Path file, FileStat stat) throws IOException;
+    }
+
+    /**
+     * Represents the task of applying a function to a range of files.
+     * @author william
+     * @param <R>
+     *            The type of the result.
+     */
+    private class ScanTask<R> extends RecursiveAction {
+
+        /**
+         * Serialization ID for gitlet.
+         */
+        private static final long serialVersionUID = -2270146725442312095L;
+
+        /**
+         * The names of the files.
+         */
+        private List<String> names;
+
+        /**
+         * The first file of the range.
+         */
+        private int lo;
+
+        /**
+         * One past the last file of the range.
+         */
+        private int hi;
+
+        /**
+         * The function.
+         */
+        private FileFunction<R> function;
+
+        /**
+         * The results.
+         */
+        private Map<String, R> results;
+
+        /**
+         * The first failure.
+         */
+        private AtomicReference<IOException> failure;
+
+        /**
+         * Creates a task.
+         * @param names
+         *            The names of the files.
+         * @param lo
+         *            The first file of the range.
+         * @param hi
+         *            One past the last file of the range.
+         * @param function
+         *            The function.
+         * @param results
+         *            The results.
+         * @param failure
+         *            The first failure.
+         */
+        ScanTask(List<String> names, int lo, int hi, FileFunction<R> function,
+                Map<String, R> results,
+                AtomicReference<IOException> failure) {
+            this.names = names;
+            this.lo = lo;
+            this.hi = hi;
+            this.function = function;
+            this.results = results;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo > THRESHOLD) {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(
+                        new ScanTask<R>(this.names, this.lo, mid,
+                                this.function, this.results, this.failure),
+                        new ScanTask<R>(this.names, mid, this.hi,
+                                this.function, this.results, this.failure));
+                return;
+            }
+
+            for (int i = this.lo; i < this.hi && this.failure.get() == null;
+                    i++) {
+                String name = this.names.get(i);
+                Path file = WorkingTree.this.dir.resolve(name);
+                try {
+                    R result = this.function.apply(name, file,
+                            FileStat.of(file));
+                    if (result != null) {
+                        this.results.put(name, result);
+                    }
+                } catch (IOException e) {
+                    this.failure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+}